@@ -1,32 +1,156 @@
 package it.unipd.dei.se;
 
 import it.unipd.dei.se.argument_quality.ArgumentQualityReranker;
+import it.unipd.dei.se.filter.ObjectFilterCache;
 import it.unipd.dei.se.index.DirectoryIndexer;
+import it.unipd.dei.se.index.IndexOptions;
+import it.unipd.dei.se.index.IndexProfile;
+import it.unipd.dei.se.index.NearDuplicateDetector;
+import it.unipd.dei.se.parse.document.BinaryCorpusParser;
+import it.unipd.dei.se.parse.document.BinaryCorpusWriter;
+import it.unipd.dei.se.parse.document.DocumentParser;
+import it.unipd.dei.se.parse.document.Parser;
+import it.unipd.dei.se.parse.document.StreamingParser;
+import it.unipd.dei.se.rf.FeedbackModel;
+import it.unipd.dei.se.rf.FeedbackTermsComparison;
 import it.unipd.dei.se.rf.RF;
+import it.unipd.dei.se.rf.RM3;
+import it.unipd.dei.se.rf.TermStatisticsCache;
+import it.unipd.dei.se.rf.TermStatisticsMemory;
 import it.unipd.dei.se.rrf.RRF;
+import it.unipd.dei.se.search.QueryResultCache;
+import it.unipd.dei.se.search.SearchOptions;
+import it.unipd.dei.se.search.SearchServer;
+import it.unipd.dei.se.run.Pipeline;
 import it.unipd.dei.se.search.Searcher;
+import it.unipd.dei.se.search.SimilaritySweep;
+import it.unipd.dei.se.search.SliceLatency;
+import it.unipd.dei.se.search.SlicedIndexSearcher;
+import it.unipd.dei.se.search.TopKCollectorManager;
+import it.unipd.dei.se.search.TopKComparison;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Run {
     /**
-     * It takes in a task, an index directory, a stop list file, a boolean for whether to filter, a similarity function, a
-     * run id, a run directory, and a qrel file, and then does the task
+     * It takes in a task, an index directory, a stop list file, whether to filter ("true" to score the comparison
+     * objects, "cached" to require them without scoring, reading their documents from a cache shared by the whole
+     * process), a similarity function, a run id, a run directory, and a qrel file, and then does the task ("update"
+     * adds only the new or changed corpus files to the index). The settings of the tasks follow them, in any order, as options of the form
+     * {@code --name=value}:
+     * <ul>
+     *     <li>{@code --index-threads}: the number of threads feeding the index writer, 1 by default, or the highest
+     *     number of threads tried by the index-scaling task.</li>
+     *     <li>{@code --parser}: the parser reading the corpus, json (the default), streaming or binary, which reads
+     *     the corpus converted by the convert task.</li>
+     *     <li>{@code --report-interval}: the number of seconds between two indexing throughput reports, 10 by
+     *     default; 0 disables them.</li>
+     *     <li>{@code --profiling}: whether to measure the time spent in the analysis while indexing, and in each
+     *     stage of each topic while searching, false by default.</li>
+     *     <li>{@code --metrics-file}: the file where the indexing metrics are written, CSV if its name ends in .csv
+     *     and JSON otherwise; indexing-metrics.json in the index directory by default.</li>
+     *     <li>{@code --shards}: the number of sub-indexes built with separate writers, 1 by default.</li>
+     *     <li>{@code --shard-mode}: what to do with the shards at the end, merge (the default) or federated.</li>
+     *     <li>{@code --index-profile}: how the index writers are configured, default (the default), fast-build or
+     *     search-optimized.</li>
+     *     <li>{@code --segments}: the number of segments a search-optimized index is force-merged to, 1 by
+     *     default.</li>
+     *     <li>{@code --dedup}: what to do with near-duplicate passages, off (the default), drop or tag.</li>
+     *     <li>{@code --max-distance}: the maximum number of different signature bits between near-duplicates, 3 by
+     *     default.</li>
+     *     <li>{@code --search-threads}: the number of topics searched at the same time, 1 by default, or the number
+     *     of configurations searched at the same time by the sweep task or of requests answered at the same time by
+     *     the serve task.</li>
+     *     <li>{@code --slice-threads}: the number of threads searching the slices of a query, 0 (the default) not to
+     *     split queries.</li>
+     *     <li>{@code --max-segments-per-slice}: the maximum number of segments of a slice, 5 by default.</li>
+     *     <li>{@code --max-docs-per-slice}: the maximum number of documents of a slice, 250000 by default.</li>
+     *     <li>{@code --query-cache}: the directory of the query result cache, none (the default) not to use it or
+     *     default for experiment/query-cache.</li>
+     *     <li>{@code --total-hits}: how the top documents are collected, topk to skip the documents which cannot enter
+     *     them, exhaustive to score them all or default (the default) for Lucene's default; the topk task compares the
+     *     first two.</li>
+     *     <li>{@code --port}: the port of the search service started by the serve task, 8085 by default.</li>
+     *     <li>{@code --feedback-terms}: the number of terms of the relevance feedback query of each topic, 0 (the
+     *     default) to keep them all, or 10 expansion terms for the pseudo-relevance feedback of the prf task; the
+     *     rf-terms task compares the numbers of terms.</li>
+     *     <li>{@code --rf-cache}: the directory of the cache of the term statistics of the relevance feedback, none
+     *     (the default) not to use it or default for experiment/rf-cache.</li>
+     * </ul>
      */
     public static void main(String[] args) {
+        final Map<String, String> options = options(args);
+        args = positional(args);
+
         String task = args[0];
         String indexDirectoryPath = args.length > 1 ? args[1] : "experiment/index";
         String stopListFilePath = args.length > 2 ? args[2] : "lucene.txt";
-        boolean filter = args.length > 3 && Boolean.parseBoolean(args[3]);
+        boolean filter = args.length > 3 && (Boolean.parseBoolean(args[3]) || args[3].equals("cached"));
+        ObjectFilterCache objectFilterCache = args.length > 3 && args[3].equals("cached") ? ObjectFilterCache.getShared() : null;
         String matching = args.length > 4 ? args[4] : "bm25";
         String runId = args.length > 5 ? args[5] : "seupd2122-kueri";
         String runDirectoryPath = args.length > 6 ? args[6] : "runs";
         String qrelFilePath = args.length > 7 ? args[8] : "code/src/main/resource/qrels/example.txt";
 
+        String parser = option(options, "parser", "json");
+        int indexThreads = intOption(options, "index-threads", 1);
+        int shards = intOption(options, "shards", 1);
+        String metricsFile = option(options, "metrics-file", null);
+        IndexProfile profile = IndexProfile.forName(option(options, "index-profile", IndexProfile.DEFAULT_NAME),
+                intOption(options, "segments", 1));
+        String dedup = option(options, "dedup", "off");
+        String queryCache = option(options, "query-cache", "none");
+        String totalHits = option(options, "total-hits", "default");
+        int port = intOption(options, "port", SearchServer.DEFAULT_PORT);
+        boolean profiling = Boolean.parseBoolean(option(options, "profiling", "false"));
+        int feedbackTerms = intOption(options, "feedback-terms", FeedbackModel.ALL_TERMS);
+        String rfCache = option(options, "rf-cache", "none");
+        String rfCacheDirectoryPath = rfCache.equals("none") ? null
+                : rfCache.equals("default") ? TermStatisticsCache.DEFAULT_CACHE_DIR : rfCache;
+        IndexOptions indexOptions = new IndexOptions.Builder()
+                .threads(indexThreads)
+                .incremental(task.equals("update"))
+                .reportInterval(intOption(options, "report-interval", IndexOptions.DEFAULT_REPORT_INTERVAL_SECONDS))
+                .profiling(profiling)
+                .metricsFile(metricsFile != null ? Paths.get(metricsFile) : null)
+                .shards(shards)
+                .shardMode(option(options, "shard-mode", "merge").equals("federated")
+                        ? DirectoryIndexer.ShardMode.FEDERATED : DirectoryIndexer.ShardMode.MERGE)
+                .profile(profile)
+                .dedupMode(dedup.equals("drop") ? NearDuplicateDetector.Mode.DROP
+                        : dedup.equals("tag") ? NearDuplicateDetector.Mode.TAG : null)
+                .maxDistance(intOption(options, "max-distance", NearDuplicateDetector.DEFAULT_MAX_DISTANCE))
+                .build();
+        SearchOptions searchOptions = new SearchOptions.Builder()
+                .threads(intOption(options, "search-threads", 1))
+                .sliceThreads(intOption(options, "slice-threads", 0))
+                .maxSegmentsPerSlice(intOption(options, "max-segments-per-slice",
+                        SlicedIndexSearcher.DEFAULT_MAX_SEGMENTS_PER_SLICE))
+                .maxDocsPerSlice(intOption(options, "max-docs-per-slice",
+                        SlicedIndexSearcher.DEFAULT_MAX_DOCS_PER_SLICE))
+                .cacheDir(queryCache.equals("none") ? null
+                        : Paths.get(queryCache.equals("default") ? QueryResultCache.DEFAULT_CACHE_DIR : queryCache))
+                .totalHitsThreshold(totalHits.equals("topk") ? TopKCollectorManager.TOP_K
+                        : totalHits.equals("exhaustive") ? TopKCollectorManager.EXHAUSTIVE
+                        : Searcher.DEFAULT_TOTAL_HITS_THRESHOLD)
+                .objectFilterCache(objectFilterCache)
+                .profiling(profiling)
+                .build();
+
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown option(s): " + String.join(", ", options.keySet()));
+        }
+
 
         Similarity similarity = null;
         switch (matching) {
@@ -43,21 +167,71 @@ public class Run {
                 similarity = new BM25Similarity();
                 break;
         }
+        Class<? extends DocumentParser> documentParser = null;
+        switch (parser) {
+            case "streaming":
+                documentParser = StreamingParser.class;
+                break;
+            case "binary":
+                documentParser = BinaryCorpusParser.class;
+                break;
+            case "json":
+            default:
+                documentParser = Parser.class;
+                break;
+        }
         ArgumentQualityReranker argumentQualityReranker = new ArgumentQualityReranker();
         argumentQualityReranker.toString();
         switch (task) {
             case "index":
-                doIndex(indexDirectoryPath, stopListFilePath, similarity);
+                doIndex(indexDirectoryPath, stopListFilePath, similarity, documentParser, indexOptions);
+                break;
+            case "update":
+                doIndex(indexDirectoryPath, stopListFilePath, similarity, documentParser, indexOptions);
+                break;
+            case "convert":
+                doConvert(indexThreads, documentParser);
+                break;
+            case "index-shards":
+                doIndexShardComparison(indexDirectoryPath, stopListFilePath, similarity, indexThreads, documentParser, shards);
+                break;
+            case "index-scaling":
+                doIndexScaling(indexDirectoryPath, stopListFilePath, similarity, indexThreads, documentParser);
                 break;
             case "search":
-                doSearch(indexDirectoryPath, runId, runDirectoryPath, stopListFilePath, filter, similarity);
+                doSearch(indexDirectoryPath, runId, runDirectoryPath, stopListFilePath, filter, similarity, searchOptions);
+                break;
+            case "serve":
+                doServe(indexDirectoryPath, stopListFilePath, similarity, port, searchOptions.getThreads());
+                break;
+            case "sweep":
+                doSweep(indexDirectoryPath, runId, runDirectoryPath, stopListFilePath, filter, searchOptions.getThreads(), objectFilterCache);
+                break;
+            case "topk":
+                doTopKComparison(indexDirectoryPath, stopListFilePath, similarity);
+                break;
+            case "slice-latency":
+                doSliceLatency(indexDirectoryPath, stopListFilePath, similarity,
+                        Math.max(searchOptions.getSliceThreads(), searchOptions.getThreads()));
                 break;
             case "rf":
-                doRFSearch(indexDirectoryPath, runId, runDirectoryPath, qrelFilePath);
+                doRFSearch(indexDirectoryPath, runId, runDirectoryPath, qrelFilePath, feedbackTerms, rfCacheDirectoryPath);
+                break;
+            case "prf":
+                doPRFSearch(indexDirectoryPath, runId, runDirectoryPath, stopListFilePath, filter, similarity, searchOptions.getThreads(), feedbackTerms);
+                break;
+            case "rf-terms":
+                doFeedbackTermsComparison(indexDirectoryPath, qrelFilePath);
+                break;
+            case "rf-memory":
+                doTermStatisticsMemory(indexDirectoryPath, qrelFilePath);
                 break;
             case "rrf":
                 doRRFSearch(runId, "rrf");
                 break;
+            case "pipeline":
+                doPipeline(indexDirectoryPath, runId, runDirectoryPath, stopListFilePath, filter, searchOptions);
+                break;
         }
     }
 
@@ -68,10 +242,65 @@ public class Run {
      * @param indexDirectoryPath The path to the directory where the index will be stored.
      * @param stopListFilePath The path to the stop list file.
      * @param similarity The similarity function to use.
+     * @param documentParser The parser reading the corpus files.
+     * @param options The options of the indexer, e.g. the number of threads feeding the index writer.
+     */
+    private static void doIndex(String indexDirectoryPath, String stopListFilePath, Similarity similarity, Class<? extends DocumentParser> documentParser, IndexOptions options) {
+        try {
+            DirectoryIndexer.doIndex(indexDirectoryPath, similarity, stopListFilePath, documentParser, options);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It converts the corpus, read with the given parser, into the binary format, so that later indexing runs with the
+     * binary parser skip JSON parsing
+     *
+     * @param threads The number of threads converting the corpus.
+     * @param documentParser The parser reading the corpus files.
+     */
+    private static void doConvert(int threads, Class<? extends DocumentParser> documentParser) {
+        try {
+            BinaryCorpusWriter.convert(Paths.get(DirectoryIndexer.CORPUS_DIR), DirectoryIndexer.JSONL_EXTENSION,
+                    Charset.forName(DirectoryIndexer.CORPUS_CHARSET), documentParser,
+                    Paths.get(BinaryCorpusWriter.DEFAULT_CACHE_DIR), threads);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It builds the index with a single writer, with merged shards and with federated shards, and prints the build time
+     * of each
+     *
+     * @param indexDirectoryPath The path to the directory where the index will be stored.
+     * @param stopListFilePath The path to the stop list file.
+     * @param similarity The similarity function to use.
+     * @param threads The number of threads feeding the index writers.
+     * @param documentParser The parser reading the corpus files.
+     * @param shards The number of shards to compare with the single writer.
+     */
+    private static void doIndexShardComparison(String indexDirectoryPath, String stopListFilePath, Similarity similarity, int threads, Class<? extends DocumentParser> documentParser, int shards) {
+        try {
+            DirectoryIndexer.doIndexShardComparison(indexDirectoryPath, similarity, stopListFilePath, threads, documentParser, shards);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It indexes the collection once per thread count up to the given one and reports the docs/sec reached by each
+     *
+     * @param indexDirectoryPath The path to the directory where the index will be stored.
+     * @param stopListFilePath The path to the stop list file.
+     * @param similarity The similarity function to use.
+     * @param maxThreads The highest number of indexing threads to try.
+     * @param documentParser The parser reading the corpus files.
      */
-    private static void doIndex(String indexDirectoryPath, String stopListFilePath, Similarity similarity) {
+    private static void doIndexScaling(String indexDirectoryPath, String stopListFilePath, Similarity similarity, int maxThreads, Class<? extends DocumentParser> documentParser) {
         try {
-            DirectoryIndexer.doIndex(indexDirectoryPath, similarity, stopListFilePath);
+            DirectoryIndexer.doIndexScaling(indexDirectoryPath, similarity, stopListFilePath, maxThreads, documentParser);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -88,10 +317,82 @@ public class Run {
      * @param stopWordsFilePath The path to the stop words file.
      * @param filter If true, the stop words file will be used to filter out stop words from the query.
      * @param similarity The similarity function to use.
+     * @param options The options of the search, e.g. the number of topics searched at the same time.
      */
-    private static void doSearch(String indexDirectoryPath, String runId, String runDirectoryPath, String stopWordsFilePath, boolean filter, Similarity similarity) {
+    private static void doSearch(String indexDirectoryPath, String runId, String runDirectoryPath, String stopWordsFilePath, boolean filter, Similarity similarity, SearchOptions options) {
         try {
-            Searcher.doSearch(indexDirectoryPath, runId, runDirectoryPath, stopWordsFilePath, filter, similarity);
+            Searcher.doSearch(indexDirectoryPath, runId, runDirectoryPath, stopWordsFilePath, filter, similarity, options);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It starts a search service on localhost which keeps the index open, refreshes it to new commits and answers
+     * queries and topic batches over HTTP/JSON until the process is stopped
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param similarity The similarity function to use.
+     * @param port The port of the service.
+     * @param threads The number of threads answering the requests.
+     */
+    private static void doServe(String indexDirectoryPath, String stopWordsFilePath, Similarity similarity, int port, int threads) {
+        try {
+            SearchServer.doServe(indexDirectoryPath, "code/src/main/resource/topics-task2.xml", stopWordsFilePath, similarity, port, threads);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It searches the topics with the default grid of BM25 and LM Dirichlet parameters and field weights in this
+     * process, opening the index and parsing the topics once, and writes one run file per configuration
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param runId The name of the runs. The name of each configuration is appended to it.
+     * @param runDirectoryPath The directory where the run files will be written.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param filter Whether to use the filter or not.
+     * @param threads The number of configurations searched at the same time.
+     * @param objectFilterCache The cache of the documents of the comparison objects, null to score the objects.
+     */
+    private static void doSweep(String indexDirectoryPath, String runId, String runDirectoryPath, String stopWordsFilePath, boolean filter, int threads, ObjectFilterCache objectFilterCache) {
+        try {
+            SimilaritySweep.doSweep(indexDirectoryPath, "code/src/main/resource/topics-task2.xml", runId, runDirectoryPath, stopWordsFilePath, filter, threads, SimilaritySweep.defaultGrid(), objectFilterCache);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It compares, topic by topic, the documents scored and the latency of exhaustive and top-k collection of the top
+     * 1000 documents, and checks that both return the same ranking
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param similarity The similarity function to use.
+     */
+    private static void doTopKComparison(String indexDirectoryPath, String stopWordsFilePath, Similarity similarity) {
+        try {
+            TopKComparison.doCompare(indexDirectoryPath, "code/src/main/resource/topics-task2.xml", stopWordsFilePath, similarity, 1000, 5);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It compares the latency of the topic queries searched segment by segment and split in slices searched in
+     * parallel, on copies of the index merged to fewer and fewer segments
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param similarity The similarity function to use.
+     * @param sliceThreads The number of threads searching the slices of a query.
+     */
+    private static void doSliceLatency(String indexDirectoryPath, String stopWordsFilePath, Similarity similarity, int sliceThreads) {
+        try {
+            SliceLatency.doCompare(indexDirectoryPath, "code/src/main/resource/topics-task2.xml", stopWordsFilePath, similarity, sliceThreads, 5);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -105,15 +406,69 @@ public class Run {
      * @param runId The name of the run. This will be used to name the run file.
      * @param runDirectoryPath The directory where the run file will be written.
      * @param qrelFilePath The path to the qrel file.
+     * @param feedbackTerms The number of terms kept for each topic, 0 to keep them all.
+     * @param cacheDirectoryPath The directory of the term statistics cache, null not to use it.
      */
-    private static void doRFSearch(String indexDirectoryPath, String runId, String runDirectoryPath, String qrelFilePath) {
+    private static void doRFSearch(String indexDirectoryPath, String runId, String runDirectoryPath, String qrelFilePath, int feedbackTerms, String cacheDirectoryPath) {
         try {
-            RF.doSearch(indexDirectoryPath, runDirectoryPath, runId, qrelFilePath);
+            RF.doSearch(indexDirectoryPath, runDirectoryPath, runId, qrelFilePath, feedbackTerms,
+                    cacheDirectoryPath == null ? null : new TermStatisticsCache(Paths.get(cacheDirectoryPath)));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * It searches the topics with RM3 pseudo-relevance feedback, expanding the query of each topic with the best terms
+     * of its top documents, so that no qrel file is needed
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param runId The name of the run. This will be used to name the run file.
+     * @param runDirectoryPath The directory where the run file will be written.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param filter Whether to use the filter or not.
+     * @param similarity The similarity function to use.
+     * @param threads The number of topics searched at the same time.
+     * @param feedbackTerms The number of expansion terms of each topic, 0 for the default one.
+     */
+    private static void doPRFSearch(String indexDirectoryPath, String runId, String runDirectoryPath, String stopWordsFilePath, boolean filter, Similarity similarity, int threads, int feedbackTerms) {
+        try {
+            RM3.doSearch(indexDirectoryPath, "code/src/main/resource/topics-task2.xml", runId + "_rm3", runDirectoryPath, stopWordsFilePath, filter, similarity, threads, RM3.DEFAULT_FEEDBACK_DOCS, feedbackTerms == FeedbackModel.ALL_TERMS ? RM3.DEFAULT_FEEDBACK_TERMS : feedbackTerms, RM3.DEFAULT_ORIGINAL_QUERY_WEIGHT);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It compares the query latency and the nDCG of the relevance feedback queries by number of expansion terms kept
+     * for each topic, against the queries with all the terms of the judged documents
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param qrelFilePath The path to the qrel file.
+     */
+    private static void doFeedbackTermsComparison(String indexDirectoryPath, String qrelFilePath) {
+        try {
+            FeedbackTermsComparison.doCompare(indexDirectoryPath, qrelFilePath, FeedbackTermsComparison.DEFAULT_TERMS, 5);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It compares the memory of the term statistics of the judged documents used by the relevance feedback with that
+     * of the maps of term frequencies they replace
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param qrelFilePath The path to the qrel file.
+     */
+    private static void doTermStatisticsMemory(String indexDirectoryPath, String qrelFilePath) {
+        try {
+            TermStatisticsMemory.doReport(indexDirectoryPath, qrelFilePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * It takes a runId and a runDirectoryPath as input, and then it calls the doSearch function in the RRF class, which is
      * located in the RRF.java file
@@ -128,5 +483,85 @@ public class Run {
             e.printStackTrace();
         }
     }
-}
 
+    /**
+     * It searches the topics with several similarities, reranks the runs with the argument quality scores and fuses
+     * them with RRF, all in memory, writing only the fused run
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param runId The name of the fused run. This will be used to name the output file.
+     * @param runDirectoryPath The directory where the fused run file will be written.
+     * @param stopWordsFilePath The path to the stop words file.
+     * @param filter Whether to use the filter or not.
+     * @param options The options of the searches, e.g. the number of topics searched at the same time.
+     */
+    private static void doPipeline(String indexDirectoryPath, String runId, String runDirectoryPath, String stopWordsFilePath, boolean filter, SearchOptions options) {
+        try {
+            Pipeline.doPipeline(indexDirectoryPath, runId, runDirectoryPath, stopWordsFilePath, filter, options, Pipeline.DEFAULT_SCORES_FILE);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * It collects the options of the form {@code --name=value} among the arguments
+     *
+     * @param args The command line arguments.
+     * @return The value of each option, by name.
+     */
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException(String.format("Option %s expected to be --name=value.", arg));
+                }
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * It returns the arguments which are not options, in their order
+     *
+     * @param args The command line arguments.
+     * @return The positional arguments.
+     */
+    private static String[] positional(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+            }
+        }
+        return positional.toArray(new String[0]);
+    }
+
+    /**
+     * It takes an option out of the given ones, so that the options left at the end are the unknown ones
+     *
+     * @param options The options not read yet.
+     * @param name The name of the option.
+     * @param defaultValue The value of the option when it is not given.
+     * @return The value of the option.
+     */
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * It takes an integer option out of the given ones
+     *
+     * @param options The options not read yet.
+     * @param name The name of the option.
+     * @param defaultValue The value of the option when it is not given.
+     * @return The value of the option.
+     */
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.remove(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
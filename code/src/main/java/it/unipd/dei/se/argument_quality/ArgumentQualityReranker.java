@@ -2,6 +2,8 @@ package it.unipd.dei.se.argument_quality;
 
 /* (C) Copyright IBM Corp. 2020. */
 /* created using IBM Project Debater */
+import it.unipd.dei.se.run.DocIdDictionary;
+import it.unipd.dei.se.run.RunBuffer;
 import org.apache.lucene.queryparser.classic.ParseException;
 
 import java.io.*;
@@ -10,73 +12,6 @@ import java.util.*;
 
 public class ArgumentQualityReranker {
 
-    /**
-     * It's a class that represents a single line in a run file
-     */
-    private static class RunFilePartialLine {
-        public String topicId;
-        public String documentId;
-        public Integer rank;
-        public Double score;
-        public String runId;
-
-        public RunFilePartialLine(String topicId, String documentId, Integer rank, Double score, String runId) {
-            this.topicId = topicId;
-            this.documentId = documentId;
-            this.rank = rank;
-            this.score = score;
-            this.runId = runId;
-        }
-
-        public Double getScore() {
-            return score;
-        }
-
-        public void setScore(Double score) {
-            this.score = score;
-        }
-
-        public Integer getRank() {
-            return rank;
-        }
-
-        public void setRank(Integer rank) {
-            this.rank = rank;
-        }
-
-        public String getTopicId(){ return topicId;}
-
-        public String toString() {
-            return String.format(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n",
-                    topicId,
-                    documentId,
-                    rank,
-                    score,
-                    runId
-            );
-        }
-    }
-
-    /**
-     * The class implements the Comparator interface and overrides the compare method. The compare method takes two
-     * RunFilePartialLine objects as input and returns an integer. The integer is negative if the first object is less than
-     * the second object, zero if the two objects are equal, and positive if the first object is greater than the second
-     * object
-     */
-    public static class CustomComparator implements Comparator<RunFilePartialLine> {
-        @Override
-        public int compare(RunFilePartialLine o1, RunFilePartialLine o2) {
-            int o2topic = Integer.parseInt(o2.topicId);
-            int o1topic = Integer.parseInt(o1.topicId);
-            if (o2topic==o1topic){
-                return o2.score.compareTo(o1.score);
-            }
-            else{
-                return Integer.compare(o1topic,o2topic);
-            }
-        }
-    }
-
     /**
      * Reranks the documents contained in {@code inputRunFilePath} based on the scores
      * saved in the file {@code scoresFilePath}
@@ -90,60 +25,55 @@ public class ArgumentQualityReranker {
                               String scoresFilePath) throws IOException, ParseException {
         Map<String,Float> scoreDocs = ArgumentQualityReranker.retrieveScoresFromFile(scoresFilePath);
 
-        List<RunFilePartialLine> newRunFileLines = new ArrayList<>();
-        BufferedReader runFileReader = new BufferedReader(new FileReader(inputRunFilePath));
-        // for each line of the input run file ...
-        for (String fileLine; (fileLine = runFileReader.readLine()) != null; ) {
+        RunBuffer input = RunBuffer.read(Paths.get(inputRunFilePath), outputRunFileRunId, new DocIdDictionary());
 
-            // create an object representing the line
-            ArrayList<String> lineParts = new ArrayList<>(Arrays.asList(fileLine.split(" ")));
-            RunFilePartialLine lineObject = new RunFilePartialLine(
-                    lineParts.get(0),
-                    lineParts.get(2),
-                    Integer.parseInt(lineParts.get(3)),
-                    Double.parseDouble(lineParts.get(4)),
-                    outputRunFileRunId);
-
-            // get DebaterScore
-            Float debaterScore = scoreDocs.getOrDefault(lineObject.documentId, 1f);
-            System.out.printf("got debater score from file: %s for document %s%n", debaterScore, lineObject.documentId);
-
-            // compute and assign new score
-            Double newScore = ArgumentQualityReranker.combineScores(
-                    lineObject.getScore(),
-                    debaterScore.doubleValue());
-            lineObject.setScore(newScore);
-
-            // add the lineObject to the list
-            newRunFileLines.add(lineObject);
-        }
+        RunBuffer output = rerank(input, outputRunFileRunId, scoreDocs);
+
+        System.out.printf("Documents to be written to new run file: %s%n", output.size());
+        output.write(Paths.get(outputRunFilePath, outputRunFileRunId + ".txt"));
+    }
+
+    /**
+     * Reranks the documents of a run in memory, multiplying their scores by the scores in {@code scoreDocs}. If a
+     * document is missing from {@code scoreDocs} its score remains unchanged. Topics are sorted by number and the
+     * documents with the same new score keep their previous order.
+     *
+     * @param input the run to rerank.
+     * @param outputRunId the identifier of the reranked run.
+     * @param scoreDocs the argument quality score of each document identifier.
+     * @return the reranked run, sharing the dictionary of {@code input}.
+     */
+    public static RunBuffer rerank(RunBuffer input, String outputRunId, Map<String,Float> scoreDocs) {
+        final DocIdDictionary dictionary = input.getDictionary();
+        final RunBuffer output = new RunBuffer(outputRunId, dictionary);
+
+        for (String topic : input.sortedTopics()) {
+            final int[] docs = input.docs(topic);
+            final float[] scores = input.scores(topic);
+
+            // compute the new scores
+            final double[] newScores = new double[docs.length];
+            final Integer[] order = new Integer[docs.length];
+            for (int i = 0; i < docs.length; i++) {
+                final float debaterScore = scoreDocs.getOrDefault(dictionary.id(docs[i]), 1f);
+                newScores[i] = combineScores((double) scores[i], (double) debaterScore);
+                order[i] = i;
+            }
+
+            // the sort is stable, so ties keep the order of the input run
+            Arrays.sort(order, (a, b) -> Double.compare(newScores[b], newScores[a]));
 
-        newRunFileLines.sort(new ArgumentQualityReranker.CustomComparator());
-
-        Writer output = new BufferedWriter(new FileWriter(outputRunFilePath + "/" + outputRunFileRunId + ".txt"));  //clears file every time
-
-        try {
-            // for each lineObject in the list
-            System.out.printf("Documents to be written to new run file: %s%n",newRunFileLines.size());
-            int prevTopic = Integer.parseInt(newRunFileLines.get(0).getTopicId());
-            int currTopic = Integer.parseInt(newRunFileLines.get(0).getTopicId());
-            int rank = 0;
-            for ( int i = 0; i<newRunFileLines.size(); i++) {
-                RunFilePartialLine line = newRunFileLines.get(i);
-                currTopic = Integer.parseInt(line.getTopicId());
-                if(currTopic!=prevTopic){
-                    rank=i;
-                    prevTopic=currTopic;
-                }
-                line.setRank(i-rank+1); // change the rank according to the new order
-                output.append(line.toString()); // write to the output file
+            final int[] rerankedDocs = new int[docs.length];
+            final float[] rerankedScores = new float[docs.length];
+            for (int i = 0; i < order.length; i++) {
+                rerankedDocs[i] = docs[order[i]];
+                rerankedScores[i] = (float) newScores[order[i]];
             }
 
-            output.flush();
-        } finally {
-            output.close();
+            output.put(topic, rerankedDocs, rerankedScores);
         }
 
+        return output;
     }
 
     /**
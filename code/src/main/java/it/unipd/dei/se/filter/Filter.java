@@ -1,5 +1,6 @@
 package it.unipd.dei.se.filter;
 
+import it.unipd.dei.se.search.AnalyzedQueryBuilder;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
@@ -60,6 +61,39 @@ public class Filter {
         return booleanQuery;
     }
 
+    /**
+     * It takes a string, splits it into tokens, and then creates a boolean query that requires all of those tokens to be
+     * present in the document, building the query of each token directly from its analyzed terms
+     *
+     * @param s the string to be tokenized
+     * @param queryBuilder The query builder that will be used to build the query of each token.
+     * @return A BooleanQuery.Builder object
+     */
+    public static BooleanQuery.Builder filterAnd(String s, AnalyzedQueryBuilder queryBuilder) {
+        BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
+        for (String token : getTokensWithCollection(s)) {
+            booleanQuery.add(queryBuilder.text(token), BooleanClause.Occur.MUST);
+        }
+        return booleanQuery;
+    }
+
+    /**
+     * It takes a string, splits it into tokens, and then creates a boolean query that requires all of those tokens to be
+     * present in the document without scoring them, reading the documents of each token from the cache
+     *
+     * @param s the string to be tokenized
+     * @param queryBuilder The query builder that will be used to build the query of each token.
+     * @param cache The cache of the documents of each token.
+     * @return A BooleanQuery.Builder object
+     */
+    public static BooleanQuery.Builder filterCached(String s, AnalyzedQueryBuilder queryBuilder, ObjectFilterCache cache) {
+        BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
+        for (String token : getTokensWithCollection(s)) {
+            booleanQuery.add(cache.filter(queryBuilder.text(token)), BooleanClause.Occur.FILTER);
+        }
+        return booleanQuery;
+    }
+
     /**
      * It takes a string, removes all commas from it, splits it into tokens, and returns a list of those tokens
      *
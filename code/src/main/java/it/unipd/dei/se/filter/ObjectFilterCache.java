@@ -0,0 +1,326 @@
+package it.unipd.dei.se.filter;
+
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of the documents matching the comparison objects of the topics, one bitset per object and
+ * segment, so that the object filter is a bitset intersection instead of the scoring of the postings of the objects.
+ * <p>
+ * The objects recur across topics and across the runs of an experiment, e.g. the similarities of a pipeline or the
+ * configurations of a sweep, which open the index on their own: the bitsets are therefore keyed by the unique
+ * identifier of the segment, not by the reader, and are shared by every reader of the same segment in the JVM. They
+ * ignore the deleted documents, which are skipped by the searcher, so they stay valid when a segment gets new
+ * deletions.
+ * <p>
+ * The bitsets of a segment are released as soon as the last reader of the segment is closed: the cache registers a
+ * closed listener on the {@link IndexReader.CacheHelper} of the core of each reader it serves, so the segments merged
+ * away or no longer searched do not stay in memory.
+ * <p>
+ * It can be used by several threads at the same time.
+ */
+public class ObjectFilterCache {
+
+    /**
+     * The cache shared by all the searchers of the JVM.
+     */
+    private static final ObjectFilterCache SHARED = new ObjectFilterCache();
+
+    /**
+     * The bitsets of the objects and the open cores, by segment identifier.
+     */
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * The number of lookups served from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups not served from the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Returns the cache shared by all the searchers of the JVM.
+     *
+     * @return the shared cache.
+     */
+    public static ObjectFilterCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a non-scoring query matching the same documents as the query of an object, whose documents are read from
+     * the cache, and computed once per segment otherwise. It is meant to be added as a {@code FILTER} clause.
+     *
+     * @param object the query of the object.
+     * @return the cached query.
+     * @throws NullPointerException if {@code object} is {@code null}.
+     */
+    public Query filter(final Query object) {
+
+        if (object == null) {
+            throw new NullPointerException("Object query cannot be null.");
+        }
+
+        return new CachedObjectQuery(this, object);
+    }
+
+    /**
+     * Returns the documents of a segment matching an object, from the cache or computed and put into the cache.
+     *
+     * @param context  the segment.
+     * @param object   the query of the object.
+     * @param searcher the searcher, to compute the documents on a miss.
+     * @return the documents matching the object, deleted documents included.
+     * @throws IOException if the documents cannot be computed.
+     */
+    private DocIdSet docIdSet(final LeafReaderContext context, final Query object, final IndexSearcher searcher)
+            throws IOException {
+        final String segment = segmentId(context.reader());
+        final IndexReader.CacheHelper core = context.reader().getCoreCacheHelper();
+
+        // a reader which is not a segment cannot be identified across readers, so it is not cached
+        if (segment == null || core == null) {
+            misses.increment();
+            return compute(context, object, searcher);
+        }
+
+        final Map<Query, DocIdSet> objects = segments.compute(segment, (k, s) -> {
+            if (s == null) {
+                s = new Segment();
+            }
+            // the bitsets of the segment are kept as long as one of the cores reading it is open
+            if (s.cores.add(core.getKey())) {
+                core.addClosedListener(key -> release(segment, key));
+            }
+            return s;
+        }).objects;
+
+        DocIdSet set = objects.get(object);
+        if (set != null) {
+            hits.increment();
+            return set;
+        }
+
+        // two threads missing the same object at the same time both compute it, and the results are the same
+        misses.increment();
+        set = compute(context, object, searcher);
+        objects.putIfAbsent(object, set);
+        return set;
+    }
+
+    /**
+     * Computes the documents of a segment matching an object.
+     *
+     * @param context  the segment.
+     * @param object   the query of the object.
+     * @param searcher the searcher.
+     * @return the documents matching the object, deleted documents included.
+     * @throws IOException if the documents cannot be computed.
+     */
+    private static DocIdSet compute(final LeafReaderContext context, final Query object, final IndexSearcher searcher)
+            throws IOException {
+        final Weight weight = searcher.createWeight(searcher.rewrite(object), ScoreMode.COMPLETE_NO_SCORES, 1F);
+        final Scorer scorer = weight.scorer(context);
+        if (scorer == null) {
+            return DocIdSet.EMPTY;
+        }
+
+        final FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+        bits.or(scorer.iterator());
+        return new BitDocIdSet(bits);
+    }
+
+    /**
+     * Returns the unique identifier of a segment, or {@code null} if the reader is not a segment.
+     *
+     * @param reader the reader.
+     * @return the identifier of the segment.
+     */
+    private static String segmentId(final LeafReader reader) {
+        final LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+        if (!(unwrapped instanceof SegmentReader)) {
+            return null;
+        }
+        return StringHelper.idToString(((SegmentReader) unwrapped).getSegmentInfo().info.getId());
+    }
+
+    /**
+     * Forgets a closed core of a segment, and releases the bitsets of the segment if no other core reads it.
+     *
+     * @param segment the identifier of the segment.
+     * @param core    the key of the closed core.
+     */
+    private void release(final String segment, final IndexReader.CacheKey core) {
+        segments.computeIfPresent(segment, (k, s) -> {
+            s.cores.remove(core);
+            return s.cores.isEmpty() ? null : s;
+        });
+    }
+
+    /**
+     * Releases all the bitsets, e.g. after the index has been merged.
+     */
+    public void clear() {
+        segments.clear();
+    }
+
+    /**
+     * Returns the number of segments whose bitsets are in the cache.
+     *
+     * @return the number of segments.
+     */
+    public int size() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of lookups, one per object and segment searched, served from the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups, one per object and segment searched, not served from the cache.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the memory used by the bitsets.
+     *
+     * @return the memory used, in bytes.
+     */
+    public long ramBytesUsed() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            for (DocIdSet set : segment.objects.values()) {
+                bytes += set.ramBytesUsed();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        final long h = getHits();
+        final long m = getMisses();
+        return String.format("object filter cache: %d segment(s), %d hit(s), %d miss(es), %.1f%% hit rate, %d KB",
+                segments.size(), h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), ramBytesUsed() / 1024);
+    }
+
+    /**
+     * The bitsets of the objects of a segment, and the keys of the open cores reading it.
+     */
+    private static final class Segment {
+
+        /**
+         * The bitsets of the objects, by object query.
+         */
+        private final Map<Query, DocIdSet> objects = new ConcurrentHashMap<>();
+
+        /**
+         * The keys of the open cores reading the segment.
+         */
+        private final Set<IndexReader.CacheKey> cores = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * A non-scoring query matching the documents of an object, read from the cache.
+     */
+    private static final class CachedObjectQuery extends Query {
+
+        /**
+         * The cache.
+         */
+        private final ObjectFilterCache cache;
+
+        /**
+         * The query of the object.
+         */
+        private final Query object;
+
+        /**
+         * Creates a new query.
+         *
+         * @param cache  the cache.
+         * @param object the query of the object.
+         */
+        private CachedObjectQuery(final ObjectFilterCache cache, final Query object) {
+            this.cache = cache;
+            this.object = object;
+        }
+
+        @Override
+        public Weight createWeight(final IndexSearcher searcher, final ScoreMode scoreMode, final float boost) {
+            return new ConstantScoreWeight(this, boost) {
+                @Override
+                public Scorer scorer(final LeafReaderContext context) throws IOException {
+                    final DocIdSetIterator iterator = cache.docIdSet(context, object, searcher).iterator();
+                    if (iterator == null) {
+                        return null;
+                    }
+                    return new ConstantScoreScorer(this, score(), scoreMode, iterator);
+                }
+
+                @Override
+                public boolean isCacheable(final LeafReaderContext context) {
+                    // already cached, the query cache of the searcher would only keep a second copy
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        public void visit(final QueryVisitor visitor) {
+            object.visit(visitor.getSubVisitor(BooleanClause.Occur.FILTER, this));
+        }
+
+        @Override
+        public String toString(final String field) {
+            return "ObjectFilter(" + object.toString(field) + ")";
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return sameClassAs(other) && cache == ((CachedObjectQuery) other).cache
+                    && object.equals(((CachedObjectQuery) other).object);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * classHash() + object.hashCode();
+        }
+    }
+}
@@ -3,27 +3,42 @@
 package it.unipd.dei.se.index;
 
 import it.unipd.dei.se.analyze.MainAnalyzer;
+import it.unipd.dei.se.parse.document.BinaryCorpusParser;
+import it.unipd.dei.se.parse.document.BinaryCorpusWriter;
 import it.unipd.dei.se.parse.document.DocumentParser;
+import it.unipd.dei.se.parse.document.JsonlSplitter;
 import it.unipd.dei.se.parse.document.ParsedDocument;
 import it.unipd.dei.se.parse.document.Parser;
+import it.unipd.dei.se.parse.document.StreamingParser;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
 import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
 
 /**
  * Indexes documents processing a whole directory tree.
@@ -36,9 +51,100 @@ public class DirectoryIndexer {
     private static final int MBYTE = 1024 * 1024;
 
     /**
-     * The index writer.
+     * The number of parsed documents each indexing thread may have waiting in the queue.
      */
-    private final IndexWriter writer;
+    private static final int QUEUE_DOCS_PER_THREAD = 512;
+
+    /**
+     * The name of the file, inside the index directory, where {@code doIndex} writes the indexing metrics.
+     */
+    public static final String METRICS_FILE_NAME = "indexing-metrics.json";
+
+    /**
+     * The extension of the files which can be split in byte ranges and parsed in parallel.
+     */
+    public static final String JSONL_EXTENSION = "jsonl";
+
+    /**
+     * The directory of the corpus indexed by {@code doIndex}.
+     */
+    public static final String CORPUS_DIR = "code/src/main/resource/corpus_folder";
+
+    /**
+     * The charset of the corpus indexed by {@code doIndex}.
+     */
+    public static final String CORPUS_CHARSET = "ISO-8859-1";
+
+    /**
+     * The smallest RAM buffer given to the writer of a single shard, in megabytes.
+     */
+    private static final int MIN_SHARD_RAM_BUFFER_MB = 16;
+
+    /**
+     * What to do with the shards of an index built with several writers.
+     */
+    public enum ShardMode {
+
+        /**
+         * Merge the shards into a single index with {@code IndexWriter.addIndexes} and delete them.
+         */
+        MERGE,
+
+        /**
+         * Keep the shards, to be searched together through a {@code MultiReader} (see {@link IndexShards#open}).
+         */
+        FEDERATED
+    }
+
+    /**
+     * Marker put in the queue to tell the indexing threads that no more documents will arrive.
+     */
+    private static final ParsedDocument END_OF_QUEUE = new ParsedDocument("-", "-", null);
+
+    /**
+     * The value of the {@link ParsedDocument.FIELDS#DUPLICATE_OF} field of a document which is not a near-duplicate.
+     */
+    private static final BytesRef NOT_A_DUPLICATE = new BytesRef();
+
+    /**
+     * The index writers, one per shard.
+     */
+    private final IndexWriter[] writers;
+
+    /**
+     * The directory where the index is stored.
+     */
+    private final Path indexDir;
+
+    /**
+     * The analyzer, wrapped to be timed.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The similarity used for indexing.
+     */
+    private final Similarity similarity;
+
+    /**
+     * The size in megabytes of the RAM buffer for indexing documents.
+     */
+    private final int ramBufferSizeMB;
+
+    /**
+     * What to do with the shards once they have been built.
+     */
+    private final ShardMode shardMode;
+
+    /**
+     * How the writers are configured.
+     */
+    private final IndexProfile profile;
+
+    /**
+     * The detector of near-duplicates, {@code null} to index all the documents.
+     */
+    private final NearDuplicateDetector dedup;
 
     /**
      * The class of the {@code DocumentParser} to be used.
@@ -66,24 +172,34 @@ public class DirectoryIndexer {
     private final long expectedDocs;
 
     /**
-     * The start instant of the indexing.
+     * The number of threads feeding the index writer.
      */
-    private final long start;
+    private final int threads;
 
     /**
-     * The total number of indexed files.
+     * Whether only new or changed files are indexed into an existing index.
      */
-    private long filesCount;
+    private final boolean incremental;
 
     /**
-     * The total number of indexed documents.
+     * The files already stored in the index.
      */
-    private long docsCount;
+    private final IndexManifest manifest;
 
     /**
-     * The total number of indexed bytes
+     * The start instant of the indexing.
      */
-    private long bytesCount;
+    private final long start;
+
+    /**
+     * The counters and timings of the indexing.
+     */
+    private final IndexingMetrics metrics;
+
+    /**
+     * The total elapsed time.
+     */
+    private long elapsedTime = Long.MIN_VALUE;
 
     /**
      * Creates a new indexer.
@@ -104,6 +220,39 @@ public class DirectoryIndexer {
                             final String indexPath, final String docsPath, final String extension,
                             final String charsetName, final long expectedDocs,
                             final Class<? extends DocumentParser> dpCls) {
+        this(analyzer, similarity, ramBufferSizeMB, indexPath, docsPath, extension, charsetName, expectedDocs, dpCls,
+                IndexOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a new indexer configured by the given options, e.g. parsing and indexing documents with several threads.
+     *
+     * @param analyzer        the {@code Analyzer} to be used.
+     * @param similarity      the {@code Similarity} to be used.
+     * @param ramBufferSizeMB the size in megabytes of the RAM buffer for indexing documents.
+     * @param indexPath       the directory where to store the index.
+     * @param docsPath        the directory from which documents have to be read.
+     * @param extension       the extension of the files to be indexed.
+     * @param charsetName     the name of the charset used for encoding documents.
+     * @param expectedDocs    the total number of documents expected to be indexed
+     * @param dpCls           the class of the {@code DocumentParser} to be used.
+     * @param options         the options of the indexer.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public DirectoryIndexer(final Analyzer analyzer, final Similarity similarity, final int ramBufferSizeMB,
+                            final String indexPath, final String docsPath, final String extension,
+                            final String charsetName, final long expectedDocs,
+                            final Class<? extends DocumentParser> dpCls, final IndexOptions options) {
+
+        if (options == null) {
+            throw new NullPointerException("Index options cannot be null.");
+        }
+
+        this.metrics = new IndexingMetrics(options.getReportInterval(), options.getMetricsFile(),
+                options.isProfiling());
+
+        this.profile = options.getProfile();
 
         if (dpCls == null) {
             throw new NullPointerException("Document parser class cannot be null.");
@@ -123,12 +272,9 @@ public class DirectoryIndexer {
             throw new IllegalArgumentException("RAM buffer size cannot be less than or equal to zero.");
         }
 
-        final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-        iwc.setSimilarity(similarity);
-        iwc.setRAMBufferSizeMB(ramBufferSizeMB);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        iwc.setCommitOnClose(true);
-        iwc.setUseCompoundFile(true);
+        this.analyzer = metrics.wrap(analyzer);
+        this.similarity = similarity;
+        this.ramBufferSizeMB = ramBufferSizeMB;
 
         if (indexPath == null) {
             throw new NullPointerException("Index path cannot be null.");
@@ -139,6 +285,10 @@ public class DirectoryIndexer {
         }
 
         final Path indexDir = Paths.get(indexPath);
+        this.indexDir = indexDir;
+
+        this.dedup = options.getDedupMode() == null ? null : new NearDuplicateDetector(options.getMaxDistance(),
+                options.getDedupMode(), indexDir.resolve(NearDuplicateDetector.REPORT_FILE_NAME));
 
         // if the directory does not already exist, create it
         if (Files.notExists(indexDir)) {
@@ -212,23 +362,96 @@ public class DirectoryIndexer {
         }
         this.expectedDocs = expectedDocs;
 
-        this.docsCount = 0;
+        this.threads = options.getThreads();
 
-        this.bytesCount = 0;
+        this.incremental = options.isIncremental();
 
-        this.filesCount = 0;
+        try {
+            manifest = new IndexManifest(indexDir, docsDir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to read the manifest of index %s: %s.",
+                    indexDir.toAbsolutePath(), e.getMessage()), e);
+        }
 
+        // a new index holds none of the files recorded by a previous run
+        if (!incremental) {
+            manifest.clear();
+        }
+
+        final int shards = options.getShards();
+
+        this.shardMode = options.getShardMode();
+
+        if (incremental && shards > 1 && shardMode == ShardMode.MERGE) {
+            throw new IllegalArgumentException("Merged shards cannot be updated incrementally: update a plain index or federated shards.");
+        }
+
+        final int existingShards;
+        final boolean existingPlainIndex;
         try {
-            writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
+            // shards half-built by a failed build, or moved aside by an interrupted replace
+            IndexShards.deleteStaging(indexDir);
+
+            existingShards = IndexShards.list(indexDir).size();
+            if (existingShards == 0) {
+                try (Directory directory = FSDirectory.open(indexDir)) {
+                    existingPlainIndex = DirectoryReader.indexExists(directory);
+                }
+            } else {
+                existingPlainIndex = false;
+            }
         } catch (IOException e) {
-            throw new IllegalArgumentException(String.format("Unable to create the index writer in directory %s: %s.",
+            throw new IllegalArgumentException(String.format("Unable to list the shards of index %s: %s.",
                     indexDir.toAbsolutePath(), e.getMessage()), e);
         }
 
+        // documents are routed by a hash modulo the number of shards, which must therefore not change
+        if (incremental && (shards == 1 ? existingShards > 0
+                : (existingShards > 0 && existingShards != shards) || existingPlainIndex)) {
+            throw new IllegalArgumentException(String.format(
+                    "Index %s has %d shard(s) and cannot be updated with %d shard(s).",
+                    indexDir.toAbsolutePath(), existingShards, shards));
+        }
+
+        final IndexWriterConfig.OpenMode openMode = incremental ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND
+                : IndexWriterConfig.OpenMode.CREATE;
+
+        writers = new IndexWriter[shards];
+        for (int i = 0; i < shards; i++) {
+            // new shards are built aside and replace the previous ones only once committed
+            final Path writerDir = shards == 1 ? indexDir
+                    : incremental ? IndexShards.shardDir(indexDir, i) : IndexShards.stagingDir(indexDir, i);
+            try {
+                writers[i] = new IndexWriter(FSDirectory.open(writerDir),
+                        newConfig(openMode, Math.max((double) ramBufferSizeMB / shards, Math.min(ramBufferSizeMB, MIN_SHARD_RAM_BUFFER_MB))));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Unable to create the index writer in directory %s: %s.",
+                        writerDir.toAbsolutePath(), e.getMessage()), e);
+            }
+        }
+
         this.start = System.currentTimeMillis();
 
     }
 
+    /**
+     * Creates the configuration of a new index writer, as set by the profile. Each writer needs its own configuration
+     * and merge scheduler.
+     *
+     * @param openMode        whether to create a new index or to append to the existing one.
+     * @param ramBufferSizeMB the size in megabytes of the RAM buffer of the writer.
+     * @return the configuration of the writer.
+     */
+    private IndexWriterConfig newConfig(final IndexWriterConfig.OpenMode openMode, final double ramBufferSizeMB) {
+        final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setSimilarity(similarity);
+        iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+        iwc.setOpenMode(openMode);
+        iwc.setCommitOnClose(true);
+        iwc.setMergeScheduler(metrics.mergeScheduler());
+        return profile.apply(iwc);
+    }
+
     /**
      * Main method of the class. Just for testing purposes.
      *
@@ -254,13 +477,35 @@ public class DirectoryIndexer {
      * @param stopWordsFilePath path to a file containing stop words, one per line.
      */
     public static void doIndex(@NotNull String indexPath, @NotNull Similarity similarity, @NotNull String stopWordsFilePath) throws IOException {
-        final int ramBuffer = 256;
+        doIndex(indexPath, similarity, stopWordsFilePath, Parser.class, IndexOptions.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #doIndex(String, Similarity, String)} but reads the corpus with the given {@code DocumentParser},
+     * e.g. {@link StreamingParser}, and indexes the documents as set by the given options, e.g. with several threads.
+     *
+     * @param indexPath the path to the folder where the index will be stored
+     * @param similarity the similarity to use for the index.
+     * @param stopWordsFilePath path to a file containing stop words, one per line.
+     * @param dpCls the class of the {@code DocumentParser} reading the corpus.
+     * @param options the options of the indexer.
+     * @return the indexer used, to read its counters and elapsed time.
+     */
+    public static DirectoryIndexer doIndex(@NotNull String indexPath, @NotNull Similarity similarity, @NotNull String stopWordsFilePath, @NotNull Class<? extends DocumentParser> dpCls, @NotNull IndexOptions options) throws IOException {
+        final int ramBuffer = options.getProfile().getRamBufferSizeMB();
         // final String docsPath = "C:\\Users\\ivanp\\Desktop\\datasets\\touche2022\\touche-task2-expandend_reduced";
-        final String docsPath = "code/src/main/resource/corpus_folder";
+        // the binary corpus is the output of the "convert" task
+        final boolean binary = dpCls == BinaryCorpusParser.class;
+        final String docsPath = binary ? BinaryCorpusWriter.DEFAULT_CACHE_DIR : CORPUS_DIR;
 
-        final String extension = "jsonl";
+        final String extension = binary ? BinaryCorpusParser.EXTENSION : JSONL_EXTENSION;
+
+        // a binary corpus converted before the corpus changed would index outdated documents
+        if (binary) {
+            BinaryCorpusWriter.verify(Paths.get(CORPUS_DIR), JSONL_EXTENSION, Paths.get(docsPath));
+        }
         final int expectedDocs = 1;
-        final String charsetName = "ISO-8859-1";
+        final String charsetName = CORPUS_CHARSET;
         final Analyzer ma = new MainAnalyzer();
         final Analyzer a = CustomAnalyzer.builder(Path.of("code/src/main/resource")).withTokenizer(StandardTokenizerFactory.class)
                 .addTokenFilter(LowerCaseFilterFactory.class)
@@ -270,10 +515,88 @@ public class DirectoryIndexer {
                         "format", "wordset")
                 .build();
 
+        // the metrics are written into the index directory, unless the options tell where
+        final IndexOptions indexOptions = options.getMetricsFile() != null ? options
+                : new IndexOptions.Builder(options).metricsFile(Paths.get(indexPath).resolve(METRICS_FILE_NAME))
+                        .build();
+
         DirectoryIndexer i = new DirectoryIndexer(a, similarity, ramBuffer, indexPath, docsPath, extension,
-                charsetName, expectedDocs, Parser.class);
+                charsetName, expectedDocs, dpCls, indexOptions);
 
         i.index();
+
+        return i;
+    }
+
+    /**
+     * Indexes the corpus once for each thread count in 1, 2, 4, ... up to {@code maxThreads} and prints the docs/sec
+     * reached with each of them, to see where adding threads stops paying off.
+     *
+     * @param indexPath the path to the folder where the index will be stored
+     * @param similarity the similarity to use for the index.
+     * @param stopWordsFilePath path to a file containing stop words, one per line.
+     * @param maxThreads the highest number of threads to try.
+     * @param dpCls the class of the {@code DocumentParser} reading the corpus.
+     */
+    public static void doIndexScaling(@NotNull String indexPath, @NotNull Similarity similarity, @NotNull String stopWordsFilePath, int maxThreads, @NotNull Class<? extends DocumentParser> dpCls) throws IOException {
+        final List<String> report = new ArrayList<>();
+
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+            final DirectoryIndexer i = doIndex(indexPath, similarity, stopWordsFilePath, dpCls,
+                    new IndexOptions.Builder().threads(threads).build());
+            final double seconds = Math.max(i.getElapsedTime(), 1) / 1000.0;
+            report.add(String.format("%7d %10d %10.3f %12.1f", threads, i.getDocsCount(), seconds,
+                    i.getDocsCount() / seconds));
+        }
+
+        System.out.printf("%n#### Indexing throughput ####%n");
+        System.out.printf("%7s %10s %10s %12s%n", "threads", "docs", "seconds", "docs/sec");
+        report.forEach(System.out::println);
+    }
+
+    /**
+     * Builds the index with a single writer, then with {@code shards} writers merged at the end and finally with
+     * {@code shards} federated writers, and prints the build time of each option.
+     *
+     * @param indexPath the path to the folder where the index will be stored
+     * @param similarity the similarity to use for the index.
+     * @param stopWordsFilePath path to a file containing stop words, one per line.
+     * @param threads the number of threads feeding the index writers.
+     * @param dpCls the class of the {@code DocumentParser} reading the corpus.
+     * @param shards the number of shards to compare with the single writer.
+     */
+    public static void doIndexShardComparison(@NotNull String indexPath, @NotNull Similarity similarity, @NotNull String stopWordsFilePath, int threads, @NotNull Class<? extends DocumentParser> dpCls, int shards) throws IOException {
+        final IndexOptions.Builder options = new IndexOptions.Builder().threads(threads);
+
+        final DirectoryIndexer single = doIndex(indexPath, similarity, stopWordsFilePath, dpCls, options.build());
+        final DirectoryIndexer merged = doIndex(indexPath, similarity, stopWordsFilePath, dpCls,
+                options.shards(shards).shardMode(ShardMode.MERGE).build());
+        final DirectoryIndexer federated = doIndex(indexPath, similarity, stopWordsFilePath, dpCls,
+                options.shardMode(ShardMode.FEDERATED).build());
+
+        System.out.printf("%n#### Sharded build time ####%n");
+        System.out.printf("%-24s %10s %10s%n", "build", "docs", "seconds");
+        System.out.printf(Locale.ENGLISH, "%-24s %10d %10.3f%n", "single writer", single.getDocsCount(), single.getElapsedTime() / 1000.0);
+        System.out.printf(Locale.ENGLISH, "%-24s %10d %10.3f%n", shards + " shards, merged", merged.getDocsCount(), merged.getElapsedTime() / 1000.0);
+        System.out.printf(Locale.ENGLISH, "%-24s %10d %10.3f%n", shards + " shards, federated", federated.getDocsCount(), federated.getElapsedTime() / 1000.0);
+    }
+
+    /**
+     * Returns the total number of indexed documents.
+     *
+     * @return the total number of indexed documents.
+     */
+    public long getDocsCount() {
+        return metrics.getDocsCount();
+    }
+
+    /**
+     * Returns the total elapsed time of the indexing.
+     *
+     * @return the total elapsed time of the indexing.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
     }
 
     /**
@@ -284,69 +607,387 @@ public class DirectoryIndexer {
     public void index() throws IOException {
 
         System.out.printf("%n#### Start indexing ####%n");
+        System.out.printf("Index profile: %s.%n", profile);
 
-        Files.walkFileTree(docsDir, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (file.getFileName().toString().endsWith(extension)) {
+        metrics.start();
+
+        if (threads > 1) {
+            indexParallel();
+        } else {
+            indexSequential();
+        }
+
+        // only now that all the documents have been added the choice of the copy to keep does not depend on the order
+        if (dedup != null) {
+            final long d = System.currentTimeMillis();
+
+            dedup.resolve(this::nearDuplicate);
+            dedup.close();
+
+            System.out.printf("Near-duplicates resolved in %d seconds.%n", (System.currentTimeMillis() - d) / 1000);
+        }
+
+        final long t = System.nanoTime();
+
+        final boolean merge = writers.length > 1 && shardMode == ShardMode.MERGE;
+
+        for (IndexWriter writer : writers) {
+            // merged shards are force-merged once, after being merged together
+            if (!merge) {
+                forceMerge(writer);
+            }
+
+            writer.commit();
+
+            writer.close();
+        }
+
+        if (merge) {
+            mergeShards();
+        } else if (writers.length > 1 && !incremental) {
+            // shards left by a previous build would otherwise be searched together with the new index
+            IndexShards.replace(indexDir);
+        } else if (!incremental) {
+            // shards left by a previous build would otherwise be searched instead of the new index
+            IndexShards.delete(indexDir);
+        }
+
+        metrics.flushed(System.nanoTime() - t);
+
+        // only now the index holds all the files listed in the manifest
+        manifest.save();
+
+        elapsedTime = System.currentTimeMillis() - start;
+
+        if (metrics.getDocsCount() != expectedDocs) {
+            System.out.printf("Expected to index %d documents; %d indexed instead.%n", expectedDocs,
+                    metrics.getDocsCount());
+        }
+
+        System.out.printf("%d document(s) (%d files, %d Mbytes) indexed in %d seconds.%n", metrics.getDocsCount(),
+                metrics.getFilesCount(), metrics.getBytesCount() / MBYTE, elapsedTime / 1000);
+
+        metrics.stop();
+
+        System.out.printf("#### Indexing complete ####%n");
+    }
+
+    /**
+     * Merges the committed shards into a single index in the index directory and deletes them, as well as the shards of
+     * any previous build.
+     *
+     * @throws IOException if something goes wrong while merging.
+     */
+    private void mergeShards() throws IOException {
+        final List<Path> shardDirs = IndexShards.listStaging(indexDir);
+
+        final Directory[] shards = new Directory[shardDirs.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = FSDirectory.open(shardDirs.get(i));
+        }
+
+        try (IndexWriter merged = new IndexWriter(FSDirectory.open(indexDir),
+                newConfig(IndexWriterConfig.OpenMode.CREATE, ramBufferSizeMB))) {
+            merged.addIndexes(shards);
+            forceMerge(merged);
+            merged.commit();
+        } finally {
+            IOUtils.close(shards);
+        }
+
+        IndexShards.deleteStaging(indexDir);
+        IndexShards.delete(indexDir);
+    }
+
+    /**
+     * Force-merges the segments of a writer down to the number set by the profile, if any.
+     *
+     * @param writer the writer.
+     * @throws IOException if something goes wrong while merging.
+     */
+    private void forceMerge(final IndexWriter writer) throws IOException {
+        if (profile.getMaxSegments() <= 0) {
+            return;
+        }
+
+        final long t = System.currentTimeMillis();
+
+        writer.forceMerge(profile.getMaxSegments());
+
+        System.out.printf("Index force-merged to %d segment(s) in %d seconds.%n", profile.getMaxSegments(),
+                (System.currentTimeMillis() - t) / 1000);
+    }
+
+    /**
+     * Parses and indexes the documents one after the other on the calling thread.
+     *
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void indexSequential() throws IOException {
+
+        for (Path file : listFiles()) {
+
+            DocumentParser dp = DocumentParser.create(dpCls, file, cs);
+
+            metrics.fileIndexed(Files.size(file));
+
+            long t = System.nanoTime();
+            while (dp.hasNext()) {
+                final ParsedDocument pd = dp.next();
+                metrics.parsed(System.nanoTime() - t);
+
+                addDocument(pd);
+
+                t = System.nanoTime();
+            }
+            metrics.parsed(System.nanoTime() - t);
+        }
+    }
+
+    /**
+     * Parses the files on a pool of producer threads and hands the parsed documents, through a bounded queue, to
+     * {@code threads} threads which add them to the shared {@code IndexWriter}.
+     * <p>
+     * JSONL files are cut by {@link JsonlSplitter} into one byte range per thread, so that even a single huge file is
+     * parsed on all the producer threads.
+     *
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void indexParallel() throws IOException {
 
-                    DocumentParser dp = DocumentParser.create(dpCls, Files.newBufferedReader(file, cs));
+        final List<Path> files = listFiles();
 
-                    bytesCount += Files.size(file);
+        final BlockingQueue<ParsedDocument> queue = new ArrayBlockingQueue<>(threads * QUEUE_DOCS_PER_THREAD);
 
-                    filesCount += 1;
+        final List<JsonlSplitter.Range> ranges = new ArrayList<>();
+        for (Path file : files) {
+            ranges.addAll(JSONL_EXTENSION.equalsIgnoreCase(extension) && !DocumentParser.readsFiles(dpCls)
+                    ? JsonlSplitter.split(file, threads) : List.of(JsonlSplitter.whole(file)));
+        }
 
-                    Document doc;
+        final ExecutorService parsers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ranges.size())));
+        final ExecutorService indexers = Executors.newFixedThreadPool(threads);
 
-                    for (ParsedDocument pd : dp) {
+        final List<Future<?>> parsing = new ArrayList<>();
+        final List<Future<?>> indexing = new ArrayList<>();
 
-                        doc = new Document();
+        for (int t = 0; t < threads; t++) {
+            indexing.add(indexers.submit(() -> {
+                try {
+                    for (ParsedDocument pd = queue.take(); pd != END_OF_QUEUE; pd = queue.take()) {
+                        addDocument(pd);
+                    }
+                } catch (Exception e) {
+                    // stop the producers, which would otherwise wait forever for room in the queue
+                    parsers.shutdownNow();
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        indexers.shutdown();
 
-                        // add the document identifier
-                        doc.add(new StringField(ParsedDocument.FIELDS.ID, pd.getId(), Field.Store.YES));
+        metrics.filesIndexed(files.size());
 
-                        // add the document body
-                        doc.add(new BodyField(pd.getContents()));
+        for (JsonlSplitter.Range range : ranges) {
+            parsing.add(parsers.submit(() -> {
+                DocumentParser dp = DocumentParser.readsFiles(dpCls)
+                        ? DocumentParser.create(dpCls, range.getFile(), cs)
+                        : DocumentParser.create(dpCls, range.open(cs));
 
-                        // add the document docT5query
-                        doc.add(new DocT5QueryField(pd.getDocT5Query()));
+                metrics.bytesIndexed(range.length());
 
-                        writer.addDocument(doc);
+                long t = System.nanoTime();
+                while (dp.hasNext()) {
+                    final ParsedDocument pd = dp.next();
+                    metrics.parsed(System.nanoTime() - t);
 
-                        docsCount++;
+                    queue.put(pd);
 
-                        System.out.println("parsed docs: " + docsCount);
-                        // print progress every 10000 indexed documents
-                        if (docsCount % 10000 == 0) {
-                            System.out.printf("%d document(s) (%d files, %d Mbytes) indexed in %d seconds.%n",
-                                    docsCount, filesCount, bytesCount / MBYTE,
-                                    (System.currentTimeMillis() - start) / 1000);
-                        }
+                    t = System.nanoTime();
+                }
+                metrics.parsed(System.nanoTime() - t);
+                return null;
+            }));
+        }
+        parsers.shutdown();
 
+        IOException parsingFailure = null;
+        try {
+            awaitAll(parsing);
+        } catch (IOException e) {
+            parsingFailure = e;
+            parsers.shutdownNow();
+            queue.clear();
+        }
+
+        // one end marker per indexing thread, so that each of them stops once the queue is drained
+        try {
+            for (int t = 0; t < threads; t++) {
+                while (!queue.offer(END_OF_QUEUE, 1, TimeUnit.SECONDS)) {
+                    if (indexing.stream().allMatch(Future::isDone)) {
+                        break;
                     }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing.", e);
+        }
 
+        // a failing indexing thread is the root cause of a failing producer, so report it first
+        awaitAll(indexing);
+
+        if (parsingFailure != null) {
+            throw parsingFailure;
+        }
+    }
+
+    /**
+     * Waits for all the given tasks, rethrowing the first failure as an {@code IOException}.
+     *
+     * @param tasks the tasks to wait for.
+     * @throws IOException if any of the tasks failed.
+     */
+    private static void awaitAll(final List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(String.format("Unable to index documents: %s.", e.getCause().getMessage()),
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Walks the documents directory and returns the files with the expected extension. In incremental mode, the files
+     * which did not change since the previous run are skipped.
+     *
+     * @return the files to be indexed.
+     * @throws IOException if something goes wrong while walking the directory.
+     */
+    private List<Path> listFiles() throws IOException {
+        final List<Path> files = new ArrayList<>();
+
+        Files.walkFileTree(docsDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.getFileName().toString().endsWith(extension)) {
+                    if (manifest.hasChanged(file) || !incremental) {
+                        files.add(file);
+                    } else {
+                        System.out.printf("Skipping unchanged file: %s%n", file.getFileName());
+                    }
                 } else {
                     //here i notify if i skip a file
                     System.out.printf("Ignoring file: %s", file.getFileName());
-
-
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
 
-        writer.commit();
+        if (incremental) {
+            // their documents cannot be told apart from the others, so they stay in the index
+            for (String removed : manifest.removedFiles()) {
+                System.out.printf("File %s has been removed from the corpus; its documents are kept in the index.%n",
+                        removed);
+            }
+        }
 
-        writer.close();
+        return files;
+    }
 
-        if (docsCount != expectedDocs) {
-            System.out.printf("Expected to index %d documents; %d indexed instead.%n", expectedDocs, docsCount);
+    /**
+     * Adds a parsed document to the index. In incremental mode the document replaces any document with the same
+     * identifier, so that a changed file does not leave duplicates behind. If a detector of near-duplicates is set, the
+     * signature of the document is collected, to be resolved once all the documents have been added.
+     *
+     * @param pd the parsed document.
+     * @throws IOException if the document cannot be added.
+     */
+    private void addDocument(final ParsedDocument pd) throws IOException {
+        final Document doc = toDocument(pd);
+
+        if (dedup != null) {
+            dedup.collect(pd);
+
+            // only fields already in the index can be updated, once the near-duplicates are known
+            if (dedup.getMode() == NearDuplicateDetector.Mode.TAG) {
+                doc.add(new BinaryDocValuesField(ParsedDocument.FIELDS.DUPLICATE_OF, NOT_A_DUPLICATE));
+            }
         }
 
-        System.out.printf("%d document(s) (%d files, %d Mbytes) indexed in %d seconds.%n", docsCount, filesCount,
-                bytesCount / MBYTE, (System.currentTimeMillis() - start) / 1000);
+        final IndexWriter writer = writerOf(pd.getId());
 
-        System.out.printf("#### Indexing complete ####%n");
+        final long t = System.nanoTime();
+        if (incremental) {
+            writer.updateDocument(new Term(ParsedDocument.FIELDS.ID, pd.getId()), doc);
+        } else {
+            writer.addDocument(doc);
+        }
+        metrics.added(System.nanoTime() - t);
+
+        metrics.documentIndexed();
+    }
+
+    /**
+     * Deletes a near-duplicate from the index or tags it with the identifier of the document it duplicates.
+     *
+     * @param duplicate the identifier of the near-duplicate.
+     * @param original  the identifier of the document it duplicates.
+     * @throws IOException if the near-duplicate cannot be deleted or tagged.
+     */
+    private void nearDuplicate(final String duplicate, final String original) throws IOException {
+        final Term id = new Term(ParsedDocument.FIELDS.ID, duplicate);
+
+        if (dedup.getMode() == NearDuplicateDetector.Mode.DROP) {
+            // in incremental mode this also deletes the copy indexed by a previous run
+            writerOf(duplicate).deleteDocuments(id);
+        } else {
+            writerOf(duplicate).updateBinaryDocValue(id, ParsedDocument.FIELDS.DUPLICATE_OF, new BytesRef(original));
+        }
+    }
+
+    /**
+     * Returns the writer of the shard a document belongs to. The same identifier always goes to the same shard, so that
+     * updates replace the right document.
+     *
+     * @param id the identifier of the document.
+     * @return the writer of its shard.
+     */
+    private IndexWriter writerOf(final String id) {
+        return writers[Math.floorMod(id.hashCode(), writers.length)];
+    }
+
+    /**
+     * Creates the Lucene document for a parsed document.
+     *
+     * @param pd the parsed document.
+     * @return the document to be added to the index.
+     */
+    private static Document toDocument(final ParsedDocument pd) {
+        final Document doc = new Document();
+
+        // add the document identifier
+        doc.add(new StringField(ParsedDocument.FIELDS.ID, pd.getId(), Field.Store.YES));
+
+        // and its doc values, to resolve the identifiers of the hits without decompressing stored fields
+        doc.add(new SortedDocValuesField(ParsedDocument.FIELDS.ID, new BytesRef(pd.getId())));
+
+        // add the document body
+        doc.add(new BodyField(pd.getContents()));
+
+        // add the document docT5query
+        doc.add(new DocT5QueryField(pd.getDocT5Query()));
+
+        return doc;
     }
 
 }
@@ -0,0 +1,214 @@
+package it.unipd.dei.se.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps track of the corpus files stored in an index, with their size, last modification time and checksum, so that an
+ * incremental run can index only the files which are new or have changed since the previous run.
+ * <p>
+ * The manifest is a tab-separated text file stored inside the index directory, with one line per file:
+ * <pre>
+ * relative/path/of/file.jsonl	size	mtime	crc32
+ * </pre>
+ */
+public class IndexManifest {
+
+    /**
+     * The name of the manifest file inside the index directory.
+     */
+    public static final String FILE_NAME = "manifest.tsv";
+
+    /**
+     * The size of the buffer used to compute checksums.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * What is recorded about a single corpus file.
+     */
+    private static final class Entry {
+
+        /**
+         * The size of the file in bytes.
+         */
+        private final long size;
+
+        /**
+         * The last modification time of the file, in milliseconds.
+         */
+        private final long mtime;
+
+        /**
+         * The CRC32 checksum of the file contents.
+         */
+        private final long checksum;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param size     the size of the file in bytes.
+         * @param mtime    the last modification time of the file, in milliseconds.
+         * @param checksum the CRC32 checksum of the file contents.
+         */
+        private Entry(final long size, final long mtime, final long checksum) {
+            this.size = size;
+            this.mtime = mtime;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * The manifest file.
+     */
+    private final Path manifestFile;
+
+    /**
+     * The directory the recorded paths are relative to.
+     */
+    private final Path docsDir;
+
+    /**
+     * The recorded files, by path relative to the documents directory.
+     */
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * The files seen during the current run.
+     */
+    private final Set<String> seen = new HashSet<>();
+
+    /**
+     * Loads the manifest of an index, or starts an empty one if the index has none.
+     *
+     * @param indexDir the directory of the index.
+     * @param docsDir  the directory of the corpus files.
+     * @throws IOException if the manifest exists but cannot be read.
+     */
+    public IndexManifest(final Path indexDir, final Path docsDir) throws IOException {
+
+        if (indexDir == null) {
+            throw new NullPointerException("Index directory cannot be null.");
+        }
+
+        if (docsDir == null) {
+            throw new NullPointerException("Documents directory cannot be null.");
+        }
+
+        this.manifestFile = indexDir.resolve(FILE_NAME);
+        this.docsDir = docsDir;
+
+        if (Files.exists(manifestFile)) {
+            try (BufferedReader in = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    final String[] parts = line.split("\t");
+                    if (parts.length != 4) {
+                        throw new IOException(String.format("Malformed line in manifest %s: %s.",
+                                manifestFile.toAbsolutePath(), line));
+                    }
+                    entries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                            Long.parseLong(parts[3], 16)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all the recorded files, as when the index is created from scratch.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Tells whether a corpus file has to be indexed, i.e. it is new or its contents changed since it was recorded, and
+     * records its current state.
+     * <p>
+     * The checksum is computed only when the size or the modification time differ from the recorded ones, so unchanged
+     * files are not read at all.
+     *
+     * @param file the corpus file.
+     * @return {@code true} if the file has to be indexed.
+     * @throws IOException if the file cannot be read.
+     */
+    public boolean hasChanged(final Path file) throws IOException {
+        final String key = docsDir.relativize(file).toString();
+        seen.add(key);
+
+        final long size = Files.size(file);
+        final long mtime = Files.getLastModifiedTime(file).toMillis();
+
+        final Entry old = entries.get(key);
+        if (old != null && old.size == size && old.mtime == mtime) {
+            return false;
+        }
+
+        final long checksum = checksum(file);
+        entries.put(key, new Entry(size, mtime, checksum));
+
+        return old == null || old.size != size || old.checksum != checksum;
+    }
+
+    /**
+     * Returns the recorded files which were not seen during the current run, i.e. which have been removed from the
+     * corpus.
+     *
+     * @return the paths, relative to the documents directory, of the removed files.
+     */
+    public List<String> removedFiles() {
+        final List<String> removed = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (!seen.contains(key)) {
+                removed.add(key);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the manifest into the index directory, dropping the files which were not seen during the current run.
+     * <p>
+     * It must be called only after the index has been committed, so that the manifest never lists files whose documents
+     * are not in the index.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    public void save() throws IOException {
+        entries.keySet().retainAll(seen);
+
+        final Path tmp = manifestFile.resolveSibling(FILE_NAME + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.printf("%s\t%d\t%d\t%x%n", e.getKey(), e.getValue().size, e.getValue().mtime,
+                        e.getValue().checksum);
+            }
+        }
+        Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Computes the CRC32 checksum of a file.
+     *
+     * @param file the file.
+     * @return the checksum of the file contents.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long checksum(final Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,420 @@
+package it.unipd.dei.se.index;
+
+import java.nio.file.Path;
+
+/**
+ * The options of a {@link DirectoryIndexer}, which are set with a {@link Builder}. Each option has a default, so that
+ * only the ones which differ from it need to be set.
+ */
+public final class IndexOptions {
+
+    /**
+     * The options with all the defaults: a single thread feeding the index writer, which creates a new index.
+     */
+    public static final IndexOptions DEFAULT = new Builder().build();
+
+    /**
+     * The default number of seconds between two throughput reports.
+     */
+    public static final int DEFAULT_REPORT_INTERVAL_SECONDS = 10;
+
+    /**
+     * The number of threads feeding the index writer.
+     */
+    private final int threads;
+
+    /**
+     * Whether only new or changed files are indexed into an existing index.
+     */
+    private final boolean incremental;
+
+    /**
+     * The number of seconds between two throughput reports.
+     */
+    private final int reportInterval;
+
+    /**
+     * Whether the time spent in the analysis is measured.
+     */
+    private final boolean profiling;
+
+    /**
+     * The file where the indexing metrics are written.
+     */
+    private final Path metricsFile;
+
+    /**
+     * The number of sub-indexes built with separate writers.
+     */
+    private final int shards;
+
+    /**
+     * What to do with the shards once they have been built.
+     */
+    private final DirectoryIndexer.ShardMode shardMode;
+
+    /**
+     * How the index writers are configured.
+     */
+    private final IndexProfile profile;
+
+    /**
+     * What to do with near-duplicates, {@code null} to index all the documents.
+     */
+    private final NearDuplicateDetector.Mode dedupMode;
+
+    /**
+     * The maximum number of different signature bits between near-duplicates.
+     */
+    private final int maxDistance;
+
+    /**
+     * Creates the options set by a builder.
+     *
+     * @param builder the builder.
+     */
+    private IndexOptions(final Builder builder) {
+        this.threads = builder.threads;
+        this.incremental = builder.incremental;
+        this.reportInterval = builder.reportInterval;
+        this.profiling = builder.profiling;
+        this.metricsFile = builder.metricsFile;
+        this.shards = builder.shards;
+        this.shardMode = builder.shardMode;
+        this.profile = builder.profile;
+        this.dedupMode = builder.dedupMode;
+        this.maxDistance = builder.maxDistance;
+    }
+
+    /**
+     * Returns the number of threads feeding the index writer.
+     *
+     * @return the number of threads feeding the index writer; {@code 1} indexes sequentially.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns whether only new or changed files are indexed into an existing index.
+     *
+     * @return whether to update the existing index instead of creating a new one.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Returns the number of seconds between two throughput reports.
+     *
+     * @return the number of seconds between two throughput reports; zero disables them.
+     */
+    public int getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Returns whether the time spent in the analysis is measured.
+     *
+     * @return whether the analysis is profiled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Returns the file where the indexing metrics are written.
+     *
+     * @return the file where the indexing metrics are written, or {@code null} for the index directory.
+     */
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Returns the number of sub-indexes built with separate writers.
+     *
+     * @return the number of shards; {@code 1} builds a plain index with a single writer.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns what to do with the shards once they have been built.
+     *
+     * @return whether to merge the shards at the end or to keep them.
+     */
+    public DirectoryIndexer.ShardMode getShardMode() {
+        return shardMode;
+    }
+
+    /**
+     * Returns how the index writers are configured.
+     *
+     * @return the RAM buffer, compound files, merge policy, codec and final force-merge of the writers.
+     */
+    public IndexProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns what to do with near-duplicates.
+     *
+     * @return whether to drop or to tag near-duplicates; {@code null} to index all the documents.
+     */
+    public NearDuplicateDetector.Mode getDedupMode() {
+        return dedupMode;
+    }
+
+    /**
+     * Returns the maximum number of different signature bits between near-duplicates.
+     *
+     * @return the maximum number of different signature bits between near-duplicates.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("index options: threads=%d, incremental=%b, reportInterval=%d, profiling=%b, "
+                + "metricsFile=%s, shards=%d, shardMode=%s, profile=%s, dedupMode=%s, maxDistance=%d", threads,
+                incremental, reportInterval, profiling, metricsFile, shards, shardMode, profile, dedupMode,
+                maxDistance);
+    }
+
+    /**
+     * Sets the options of a {@link DirectoryIndexer}.
+     */
+    public static final class Builder {
+
+        /**
+         * The number of threads feeding the index writer.
+         */
+        private int threads = 1;
+
+        /**
+         * Whether only new or changed files are indexed into an existing index.
+         */
+        private boolean incremental = false;
+
+        /**
+         * The number of seconds between two throughput reports.
+         */
+        private int reportInterval = DEFAULT_REPORT_INTERVAL_SECONDS;
+
+        /**
+         * Whether the time spent in the analysis is measured.
+         */
+        private boolean profiling = false;
+
+        /**
+         * The file where the indexing metrics are written.
+         */
+        private Path metricsFile = null;
+
+        /**
+         * The number of sub-indexes built with separate writers.
+         */
+        private int shards = 1;
+
+        /**
+         * What to do with the shards once they have been built.
+         */
+        private DirectoryIndexer.ShardMode shardMode = DirectoryIndexer.ShardMode.MERGE;
+
+        /**
+         * How the index writers are configured.
+         */
+        private IndexProfile profile = IndexProfile.DEFAULT;
+
+        /**
+         * What to do with near-duplicates, {@code null} to index all the documents.
+         */
+        private NearDuplicateDetector.Mode dedupMode = null;
+
+        /**
+         * The maximum number of different signature bits between near-duplicates.
+         */
+        private int maxDistance = NearDuplicateDetector.DEFAULT_MAX_DISTANCE;
+
+        /**
+         * Creates a builder with all the options set to their defaults.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Creates a builder with the options set as in the given ones.
+         *
+         * @param options the options to start from.
+         * @throws NullPointerException if {@code options} is {@code null}.
+         */
+        public Builder(final IndexOptions options) {
+            if (options == null) {
+                throw new NullPointerException("Index options cannot be null.");
+            }
+            this.threads = options.threads;
+            this.incremental = options.incremental;
+            this.reportInterval = options.reportInterval;
+            this.profiling = options.profiling;
+            this.metricsFile = options.metricsFile;
+            this.shards = options.shards;
+            this.shardMode = options.shardMode;
+            this.profile = options.profile;
+            this.dedupMode = options.dedupMode;
+            this.maxDistance = options.maxDistance;
+        }
+
+        /**
+         * Sets the number of threads feeding the index writer.
+         *
+         * @param threads the number of threads; {@code 1} indexes sequentially.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code threads} is less than or equal to zero.
+         */
+        public Builder threads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException(
+                        "The number of indexing threads cannot be less than or equal to zero.");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets whether to add to an existing index only the files which are new or have changed since the previous
+         * run, replacing the documents with the same identifier.
+         *
+         * @param incremental whether to update the existing index instead of creating a new one.
+         * @return this builder.
+         */
+        public Builder incremental(final boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        /**
+         * Sets the number of seconds between two throughput reports.
+         *
+         * @param seconds the number of seconds between two throughput reports; zero disables them.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code seconds} is less than zero.
+         */
+        public Builder reportInterval(final int seconds) {
+            if (seconds < 0) {
+                throw new IllegalArgumentException("The report interval cannot be less than zero.");
+            }
+            this.reportInterval = seconds;
+            return this;
+        }
+
+        /**
+         * Sets whether to measure the time spent in the analysis, which adds a small overhead to every token.
+         *
+         * @param profiling whether the analysis is profiled.
+         * @return this builder.
+         */
+        public Builder profiling(final boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * Sets the file where the indexing metrics are written, which is CSV if its name ends in {@code .csv} and JSON
+         * otherwise.
+         *
+         * @param metricsFile the file where the indexing metrics are written, or {@code null} for the index directory.
+         * @return this builder.
+         */
+        public Builder metricsFile(final Path metricsFile) {
+            this.metricsFile = metricsFile;
+            return this;
+        }
+
+        /**
+         * Sets the number of independent sub-indexes built in parallel, one {@code IndexWriter} each. Documents are
+         * assigned to shards by a hash of their identifier.
+         *
+         * @param shards the number of shards; {@code 1} builds a plain index with a single writer.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code shards} is less than or equal to zero.
+         */
+        public Builder shards(final int shards) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("The number of shards cannot be less than or equal to zero.");
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Sets what to do with the shards once they have been built.
+         *
+         * @param shardMode whether to merge the shards at the end or to keep them.
+         * @return this builder.
+         * @throws NullPointerException if {@code shardMode} is {@code null}.
+         */
+        public Builder shardMode(final DirectoryIndexer.ShardMode shardMode) {
+            if (shardMode == null) {
+                throw new NullPointerException("Shard mode cannot be null.");
+            }
+            this.shardMode = shardMode;
+            return this;
+        }
+
+        /**
+         * Sets how the index writers are configured, e.g. to build the index fast or to optimize it for search.
+         *
+         * @param profile the RAM buffer, compound files, merge policy, codec and final force-merge of the writers.
+         * @return this builder.
+         * @throws NullPointerException if {@code profile} is {@code null}.
+         */
+        public Builder profile(final IndexProfile profile) {
+            if (profile == null) {
+                throw new NullPointerException("Index profile cannot be null.");
+            }
+            this.profile = profile;
+            return this;
+        }
+
+        /**
+         * Sets what to do with near-duplicate documents, which are listed in
+         * {@link NearDuplicateDetector#REPORT_FILE_NAME} inside the index directory.
+         *
+         * @param dedupMode whether to drop or to tag near-duplicates; {@code null} to index all the documents.
+         * @return this builder.
+         */
+        public Builder dedupMode(final NearDuplicateDetector.Mode dedupMode) {
+            this.dedupMode = dedupMode;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of different signature bits between near-duplicates.
+         *
+         * @param maxDistance the maximum number of different signature bits between near-duplicates.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code maxDistance} is negative or larger than
+         *                                  {@link NearDuplicateDetector#MAX_DISTANCE}.
+         */
+        public Builder maxDistance(final int maxDistance) {
+            if (maxDistance < 0 || maxDistance > NearDuplicateDetector.MAX_DISTANCE) {
+                throw new IllegalArgumentException(String.format("The maximum distance must be between 0 and %d.",
+                        NearDuplicateDetector.MAX_DISTANCE));
+            }
+            this.maxDistance = maxDistance;
+            return this;
+        }
+
+        /**
+         * Returns the options set so far.
+         *
+         * @return the options.
+         */
+        public IndexOptions build() {
+            return new IndexOptions(this);
+        }
+    }
+}
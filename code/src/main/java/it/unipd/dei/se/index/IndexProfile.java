@@ -0,0 +1,235 @@
+package it.unipd.dei.se.index;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene87.Lucene87Codec;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * How {@link DirectoryIndexer} configures its writers, trading build time against query latency.
+ * <ul>
+ *     <li>{@link #DEFAULT}: the configuration used so far, with compound files and the default merge policy;</li>
+ *     <li>{@link #fastBuild()}: a large RAM buffer, no compound files and a merge policy which lets many segments
+ *     accumulate, for the fastest build of an index searched a few times only;</li>
+ *     <li>{@link #searchOptimized(int)}: the index is force-merged to a few segments once built, so that each query visits
+ *     fewer term dictionaries and postings lists, and the stored fields are compressed harder, since the hits are
+ *     resolved through doc values and the stored fields are off the query path.</li>
+ * </ul>
+ * The corpus is indexed once and searched thousands of times, so the time spent by the search-optimized profile is
+ * well spent.
+ */
+public final class IndexProfile {
+
+    /**
+     * The name of the default profile.
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    /**
+     * The name of the fast-build profile.
+     */
+    public static final String FAST_BUILD_NAME = "fast-build";
+
+    /**
+     * The name of the search-optimized profile.
+     */
+    public static final String SEARCH_OPTIMIZED_NAME = "search-optimized";
+
+    /**
+     * The size in megabytes of the RAM buffer of the fast-build profile.
+     */
+    private static final int FAST_BUILD_RAM_BUFFER_MB = 1024;
+
+    /**
+     * The number of segments per tier, and merged at once, allowed by the fast-build profile.
+     */
+    private static final int FAST_BUILD_SEGMENTS_PER_TIER = 50;
+
+    /**
+     * The default profile.
+     */
+    public static final IndexProfile DEFAULT = new IndexProfile(DEFAULT_NAME, 256, true, false,
+            Lucene87Codec.Mode.BEST_SPEED, 0);
+
+    /**
+     * The name of the profile.
+     */
+    private final String name;
+
+    /**
+     * The size in megabytes of the RAM buffer of the writers.
+     */
+    private final int ramBufferSizeMB;
+
+    /**
+     * Whether new segments are written as compound files.
+     */
+    private final boolean useCompoundFile;
+
+    /**
+     * Whether segments are merged lazily, letting many of them accumulate.
+     */
+    private final boolean lazyMerges;
+
+    /**
+     * The compression mode of the stored fields.
+     */
+    private final Lucene87Codec.Mode storedFieldsMode;
+
+    /**
+     * The number of segments the index is force-merged to once built; {@code 0} to leave it as it is.
+     */
+    private final int maxSegments;
+
+    /**
+     * Creates a new profile.
+     *
+     * @param name             the name of the profile.
+     * @param ramBufferSizeMB  the size in megabytes of the RAM buffer of the writers.
+     * @param useCompoundFile  whether new segments are written as compound files.
+     * @param lazyMerges       whether segments are merged lazily.
+     * @param storedFieldsMode the compression mode of the stored fields.
+     * @param maxSegments      the number of segments the index is force-merged to; {@code 0} not to force-merge it.
+     */
+    private IndexProfile(final String name, final int ramBufferSizeMB, final boolean useCompoundFile,
+                         final boolean lazyMerges, final Lucene87Codec.Mode storedFieldsMode, final int maxSegments) {
+        this.name = name;
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.useCompoundFile = useCompoundFile;
+        this.lazyMerges = lazyMerges;
+        this.storedFieldsMode = storedFieldsMode;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Returns the fast-build profile.
+     *
+     * @return the fast-build profile.
+     */
+    public static IndexProfile fastBuild() {
+        return new IndexProfile(FAST_BUILD_NAME, FAST_BUILD_RAM_BUFFER_MB, false, true, Lucene87Codec.Mode.BEST_SPEED,
+                0);
+    }
+
+    /**
+     * Returns the search-optimized profile.
+     *
+     * @param maxSegments the number of segments the index is force-merged to.
+     * @return the search-optimized profile.
+     * @throws IllegalArgumentException if {@code maxSegments} is less than or equal to zero.
+     */
+    public static IndexProfile searchOptimized(final int maxSegments) {
+
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("The number of segments cannot be less than or equal to zero.");
+        }
+
+        return new IndexProfile(SEARCH_OPTIMIZED_NAME, DEFAULT.ramBufferSizeMB, false, false,
+                Lucene87Codec.Mode.BEST_COMPRESSION, maxSegments);
+    }
+
+    /**
+     * Returns the profile with the given name.
+     *
+     * @param name        the name of the profile.
+     * @param maxSegments the number of segments the search-optimized profile force-merges the index to.
+     * @return the profile.
+     * @throws NullPointerException     if {@code name} is {@code null}.
+     * @throws IllegalArgumentException if there is no profile with the given name.
+     */
+    public static IndexProfile forName(final String name, final int maxSegments) {
+
+        if (name == null) {
+            throw new NullPointerException("Profile name cannot be null.");
+        }
+
+        switch (name) {
+            case DEFAULT_NAME:
+                return DEFAULT;
+            case FAST_BUILD_NAME:
+                return fastBuild();
+            case SEARCH_OPTIMIZED_NAME:
+                return searchOptimized(maxSegments);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown index profile %s: expected %s, %s or %s.",
+                        name, DEFAULT_NAME, FAST_BUILD_NAME, SEARCH_OPTIMIZED_NAME));
+        }
+    }
+
+    /**
+     * Applies the profile to the configuration of a writer.
+     *
+     * @param iwc the configuration of the writer.
+     * @return the same configuration.
+     */
+    IndexWriterConfig apply(final IndexWriterConfig iwc) {
+        iwc.setUseCompoundFile(useCompoundFile);
+        iwc.setCodec(codec());
+        iwc.setMergePolicy(mergePolicy());
+        return iwc;
+    }
+
+    /**
+     * Returns the codec writing the stored fields with the compression mode of the profile. Lucene chooses the stored
+     * fields format per segment, not per field: the only stored field is the identifier, which is also in doc values.
+     *
+     * @return the codec.
+     */
+    private Codec codec() {
+        return new Lucene87Codec(storedFieldsMode);
+    }
+
+    /**
+     * Returns the merge policy of the profile.
+     *
+     * @return the merge policy.
+     */
+    private MergePolicy mergePolicy() {
+        final TieredMergePolicy mp = new TieredMergePolicy();
+
+        if (lazyMerges) {
+            mp.setSegmentsPerTier(FAST_BUILD_SEGMENTS_PER_TIER);
+            mp.setMaxMergeAtOnce(FAST_BUILD_SEGMENTS_PER_TIER);
+        }
+
+        // without compound files the merged segments must not be turned into compound files either
+        if (!useCompoundFile) {
+            mp.setNoCFSRatio(0.0);
+        }
+
+        return mp;
+    }
+
+    /**
+     * Returns the name of the profile.
+     *
+     * @return the name of the profile.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the size in megabytes of the RAM buffer of the writers.
+     *
+     * @return the size in megabytes of the RAM buffer.
+     */
+    public int getRamBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    /**
+     * Returns the number of segments the index is force-merged to once built.
+     *
+     * @return the number of segments, {@code 0} if the index is not force-merged.
+     */
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    @Override
+    public String toString() {
+        return maxSegments > 0 ? String.format("%s (%d segment(s))", name, maxSegments) : name;
+    }
+}
@@ -0,0 +1,274 @@
+package it.unipd.dei.se.index;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Locates and opens the sub-indexes of an index built in shards by {@link DirectoryIndexer}.
+ * <p>
+ * A sharded index keeps each shard in its own sub-directory, named {@code shard-0}, {@code shard-1}, ..., of the index
+ * directory. An index directory without shard sub-directories is a plain, single-writer index.
+ */
+public class IndexShards {
+
+    /**
+     * The prefix of the name of a shard sub-directory.
+     */
+    public static final String SHARD_PREFIX = "shard-";
+
+    /**
+     * The prefix of the name of the sub-directory where a shard is built before it replaces the previous one.
+     */
+    private static final String STAGING_PREFIX = ".staging-" + SHARD_PREFIX;
+
+    /**
+     * The prefix of the name of the sub-directory where a shard is moved aside while it is being replaced.
+     */
+    private static final String RETIRED_PREFIX = ".retired-" + SHARD_PREFIX;
+
+    /**
+     * Returns the directory of a shard.
+     *
+     * @param indexDir the directory of the index.
+     * @param shard    the number of the shard.
+     * @return the directory of the shard.
+     */
+    public static Path shardDir(final Path indexDir, final int shard) {
+        return indexDir.resolve(SHARD_PREFIX + shard);
+    }
+
+    /**
+     * Returns the directory where a shard is built from scratch. It is not searched until {@link #replace(Path)} moves
+     * it in place of the shard, so that a failed build leaves the previous index untouched.
+     *
+     * @param indexDir the directory of the index.
+     * @param shard    the number of the shard.
+     * @return the staging directory of the shard.
+     */
+    public static Path stagingDir(final Path indexDir, final int shard) {
+        return indexDir.resolve(STAGING_PREFIX + shard);
+    }
+
+    /**
+     * Returns the shard sub-directories of an index, ordered by shard number.
+     *
+     * @param indexDir the directory of the index.
+     * @return the shard directories, empty for a plain index.
+     * @throws IOException if the index directory cannot be listed.
+     */
+    public static List<Path> list(final Path indexDir) throws IOException {
+        return list(indexDir, SHARD_PREFIX);
+    }
+
+    /**
+     * Returns the staging sub-directories of an index, ordered by shard number.
+     *
+     * @param indexDir the directory of the index.
+     * @return the staging directories, empty if no shard is being built.
+     * @throws IOException if the index directory cannot be listed.
+     */
+    public static List<Path> listStaging(final Path indexDir) throws IOException {
+        return list(indexDir, STAGING_PREFIX);
+    }
+
+    /**
+     * Returns the sub-directories of an index whose name is a prefix followed by a shard number, ordered by number.
+     *
+     * @param indexDir the directory of the index.
+     * @param prefix   the prefix of the name of the sub-directories.
+     * @return the sub-directories.
+     * @throws IOException if the index directory cannot be listed.
+     */
+    private static List<Path> list(final Path indexDir, final String prefix) throws IOException {
+        if (!Files.isDirectory(indexDir)) {
+            return List.of();
+        }
+
+        try (Stream<Path> children = Files.list(indexDir)) {
+            return children
+                    .filter(Files::isDirectory)
+                    .filter(p -> p.getFileName().toString().matches(Pattern.quote(prefix) + "\\d+"))
+                    .sorted(Comparator.comparingInt(p -> number(p, prefix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Deletes all the shard sub-directories of an index.
+     *
+     * @param indexDir the directory of the index.
+     * @throws IOException if a shard cannot be deleted.
+     */
+    public static void delete(final Path indexDir) throws IOException {
+        for (Path shard : list(indexDir)) {
+            IOUtils.rm(shard);
+        }
+    }
+
+    /**
+     * Deletes all the staging sub-directories of an index, e.g. those left by a failed build. The shards moved aside by
+     * a {@link #replace(Path)} which did not complete are moved back if they were not replaced, and deleted otherwise.
+     *
+     * @param indexDir the directory of the index.
+     * @throws IOException if a staging directory cannot be deleted.
+     */
+    public static void deleteStaging(final Path indexDir) throws IOException {
+        for (Path staging : listStaging(indexDir)) {
+            IOUtils.rm(staging);
+        }
+
+        final List<Path> retired = list(indexDir, RETIRED_PREFIX);
+        if (list(indexDir).isEmpty()) {
+            rename(retired, RETIRED_PREFIX, SHARD_PREFIX);
+        } else {
+            for (Path shard : retired) {
+                IOUtils.rm(shard);
+            }
+        }
+    }
+
+    /**
+     * Replaces the shards of an index with the committed shards of its staging directories.
+     * <p>
+     * The previous shards are first moved aside, then the staging directories are moved in their place and only at
+     * last the previous shards are deleted, so that the index is never left without a complete set of shards on disk.
+     *
+     * @param indexDir the directory of the index.
+     * @throws IOException if a shard cannot be deleted or moved.
+     */
+    public static void replace(final Path indexDir) throws IOException {
+        rename(list(indexDir), SHARD_PREFIX, RETIRED_PREFIX);
+
+        try {
+            rename(listStaging(indexDir), STAGING_PREFIX, SHARD_PREFIX);
+        } catch (IOException e) {
+            // put the previous shards back, so that the index stays searchable
+            try {
+                for (Path shard : list(indexDir)) {
+                    Files.move(shard, stagingDir(indexDir, number(shard, SHARD_PREFIX)),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                rename(list(indexDir, RETIRED_PREFIX), RETIRED_PREFIX, SHARD_PREFIX);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        for (Path shard : list(indexDir, RETIRED_PREFIX)) {
+            IOUtils.rm(shard);
+        }
+    }
+
+    /**
+     * Renames the given sub-directories of an index, replacing the prefix of their name and keeping the shard number.
+     *
+     * @param dirs the sub-directories to rename.
+     * @param from the current prefix of their name.
+     * @param to   the new prefix of their name.
+     * @throws IOException if a sub-directory cannot be moved.
+     */
+    private static void rename(final List<Path> dirs, final String from, final String to) throws IOException {
+        for (Path dir : dirs) {
+            Files.move(dir, dir.resolveSibling(to + number(dir, from)), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Returns the shard number in the name of a sub-directory of an index.
+     *
+     * @param dir    the sub-directory.
+     * @param prefix the prefix of its name, followed by the shard number.
+     * @return the shard number.
+     */
+    private static int number(final Path dir, final String prefix) {
+        return Integer.parseInt(dir.getFileName().toString().substring(prefix.length()));
+    }
+
+    /**
+     * Opens a reader over an index: a {@code MultiReader} over all the shards of a sharded index, a plain
+     * {@code DirectoryReader} otherwise.
+     *
+     * @param indexDir the directory of the index.
+     * @return the reader over the whole index.
+     * @throws IOException if the index cannot be opened.
+     */
+    public static IndexReader open(final Path indexDir) throws IOException {
+        final List<Path> shards = list(indexDir);
+
+        if (shards.isEmpty()) {
+            return DirectoryReader.open(FSDirectory.open(indexDir));
+        }
+
+        final List<IndexReader> readers = new ArrayList<>();
+        try {
+            for (Path shard : shards) {
+                readers.add(DirectoryReader.open(FSDirectory.open(shard)));
+            }
+        } catch (IOException e) {
+            IOUtils.closeWhileHandlingException(readers);
+            throw e;
+        }
+
+        return new MultiReader(readers.toArray(new IndexReader[0]));
+    }
+
+    /**
+     * Returns the version of the index read by a reader opened by {@link #open(Path)}: the generation and the unique
+     * identifier of the commit of each shard, or of the index itself if it is not sharded, which the reader actually
+     * reads, whatever was committed since it was opened. Any commit, as well as rebuilding the index from scratch,
+     * changes it.
+     *
+     * @param reader the reader.
+     * @return the version of the index read.
+     * @throws IllegalArgumentException if the reader has not been opened by {@link #open(Path)} on a file system index.
+     */
+    public static String version(final IndexReader reader) {
+        final List<IndexReader> readers = new ArrayList<>();
+        if (reader instanceof DirectoryReader) {
+            readers.add(reader);
+        } else {
+            for (IndexReaderContext child : reader.getContext().children()) {
+                readers.add(child.reader());
+            }
+        }
+
+        final List<String> commits = new ArrayList<>();
+        for (IndexReader r : readers) {
+            if (!(r instanceof StandardDirectoryReader)) {
+                throw new IllegalArgumentException(String.format("Unexpected reader %s.", r));
+            }
+
+            final Directory directory = FilterDirectory.unwrap(((StandardDirectoryReader) r).directory());
+            if (!(directory instanceof FSDirectory)) {
+                throw new IllegalArgumentException(String.format("Unexpected directory %s.", directory));
+            }
+
+            final SegmentInfos infos = ((StandardDirectoryReader) r).getSegmentInfos();
+            commits.add(String.format("%s:%d:%s", ((FSDirectory) directory).getDirectory().getFileName(),
+                    infos.getGeneration(), StringHelper.idToString(infos.getId())));
+        }
+
+        return String.join(",", commits);
+    }
+}
@@ -0,0 +1,439 @@
+package it.unipd.dei.se.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects counters and per-stage timings of an indexing run, reports the throughput at a fixed interval and writes a
+ * machine-readable summary when the run ends.
+ * <p>
+ * The stages are timed separately, so that the bottleneck can be told apart:
+ * <ul>
+ *     <li>{@code parse}: reading and parsing the corpus files into {@code ParsedDocument}s;</li>
+ *     <li>{@code analysis}: producing the tokens, measured inside the token stream of the analyzer, only when the
+ *     analysis is profiled, since it costs two clock reads per token; otherwise it is part of {@code index};</li>
+ *     <li>{@code index}: the rest of {@code IndexWriter.addDocument}, i.e. inversion, stored fields, term vectors and
+ *     the flushes triggered by a full RAM buffer;</li>
+ *     <li>{@code flush}: the final commit and close of the writer;</li>
+ *     <li>{@code merge}: the segment merges, run in background by the merge scheduler.</li>
+ * </ul>
+ * Timings are summed over all the threads, so in a parallel run they can exceed the elapsed time.
+ */
+public class IndexingMetrics {
+
+    /**
+     * One megabyte
+     */
+    private static final int MBYTE = 1024 * 1024;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /**
+     * The number of seconds between two throughput reports; zero or less disables them.
+     */
+    private final int reportIntervalSeconds;
+
+    /**
+     * The file where to write the summary at the end of the run, or {@code null}. It is written as CSV if its name ends
+     * with {@code .csv}, as JSON otherwise.
+     */
+    private final Path reportFile;
+
+    /**
+     * Whether the analyzer is wrapped to time the {@code analysis} stage.
+     */
+    private final boolean profileAnalysis;
+
+    /**
+     * The total number of indexed files.
+     */
+    private final AtomicLong files = new AtomicLong();
+
+    /**
+     * The total number of indexed documents.
+     */
+    private final AtomicLong docs = new AtomicLong();
+
+    /**
+     * The total number of indexed bytes.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * The time spent parsing documents, in nanoseconds.
+     */
+    private final LongAdder parseNanos = new LongAdder();
+
+    /**
+     * The time spent producing tokens, in nanoseconds.
+     */
+    private final LongAdder analysisNanos = new LongAdder();
+
+    /**
+     * The time spent in {@code addDocument}, analysis included, in nanoseconds.
+     */
+    private final LongAdder addDocumentNanos = new LongAdder();
+
+    /**
+     * The time spent committing and closing the writer, in nanoseconds.
+     */
+    private final LongAdder flushNanos = new LongAdder();
+
+    /**
+     * The time spent merging segments, in nanoseconds.
+     */
+    private final LongAdder mergeNanos = new LongAdder();
+
+    /**
+     * The number of merges done.
+     */
+    private final LongAdder merges = new LongAdder();
+
+    /**
+     * The start instant of the run, in milliseconds.
+     */
+    private long start;
+
+    /**
+     * The end instant of the run, in milliseconds.
+     */
+    private long end;
+
+    /**
+     * The number of documents at the previous throughput report.
+     */
+    private long lastReportDocs;
+
+    /**
+     * The instant of the previous throughput report, in milliseconds.
+     */
+    private long lastReportTime;
+
+    /**
+     * The thread printing the throughput reports.
+     */
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Creates a new metrics collector.
+     *
+     * @param reportIntervalSeconds the number of seconds between two throughput reports; zero or less disables them.
+     * @param reportFile            the file where to write the summary at the end of the run, or {@code null}.
+     * @param profileAnalysis       whether to time the {@code analysis} stage, at the cost of two clock reads per
+     *                              token.
+     */
+    public IndexingMetrics(final int reportIntervalSeconds, final Path reportFile, final boolean profileAnalysis) {
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.reportFile = reportFile;
+        this.profileAnalysis = profileAnalysis;
+    }
+
+    /**
+     * Starts the clock and the periodic throughput reports.
+     */
+    public synchronized void start() {
+        start = System.currentTimeMillis();
+        lastReportTime = start;
+
+        if (reportIntervalSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "indexing-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the clock and the periodic reports, prints the per-stage summary and writes it to the report file, if any.
+     *
+     * @throws IOException if the report file cannot be written.
+     */
+    public synchronized void stop() throws IOException {
+        end = System.currentTimeMillis();
+
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+
+        final Map<String, Object> summary = summary();
+
+        System.out.printf("%-10s %12s %12s%n", "stage", "seconds", "us/doc");
+        for (String stage : new String[]{"parse", "analysis", "index", "flush", "merge"}) {
+            if (summary.get(stage + "Seconds") == null) {
+                System.out.printf("%-10s %12s %12s%n", stage, "-", "-");
+                continue;
+            }
+
+            final double seconds = (Double) summary.get(stage + "Seconds");
+            System.out.printf(Locale.ENGLISH, "%-10s %12.3f %12.1f%n", stage, seconds,
+                    docs.get() == 0 ? 0.0 : seconds * 1_000_000 / docs.get());
+        }
+
+        if (reportFile != null) {
+            write(summary);
+            System.out.printf("Indexing metrics written to %s.%n", reportFile.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Counts one more file.
+     *
+     * @param size the size of the file, in bytes.
+     */
+    public void fileIndexed(final long size) {
+        files.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * Counts bytes read without counting a file, e.g. for a range of a file split among several parsers.
+     *
+     * @param size the number of bytes.
+     */
+    public void bytesIndexed(final long size) {
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * Counts more files without counting their bytes.
+     *
+     * @param count the number of files.
+     */
+    public void filesIndexed(final long count) {
+        files.addAndGet(count);
+    }
+
+    /**
+     * Counts one more indexed document.
+     */
+    public void documentIndexed() {
+        docs.incrementAndGet();
+    }
+
+    /**
+     * Adds time spent parsing documents.
+     *
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    public void parsed(final long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    /**
+     * Adds time spent in {@code IndexWriter.addDocument}.
+     *
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    public void added(final long nanos) {
+        addDocumentNanos.add(nanos);
+    }
+
+    /**
+     * Adds time spent committing or closing the writer.
+     *
+     * @param nanos the elapsed time in nanoseconds.
+     */
+    public void flushed(final long nanos) {
+        flushNanos.add(nanos);
+    }
+
+    /**
+     * Returns the total number of indexed documents.
+     *
+     * @return the total number of indexed documents.
+     */
+    public long getDocsCount() {
+        return docs.get();
+    }
+
+    /**
+     * Returns the total number of indexed files.
+     *
+     * @return the total number of indexed files.
+     */
+    public long getFilesCount() {
+        return files.get();
+    }
+
+    /**
+     * Returns the total number of indexed bytes.
+     *
+     * @return the total number of indexed bytes.
+     */
+    public long getBytesCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Wraps an analyzer so that the time spent producing tokens is added to the {@code analysis} stage, if the analysis
+     * is profiled.
+     *
+     * @param analyzer the analyzer to wrap.
+     * @return the timed analyzer, or {@code analyzer} itself if the analysis is not profiled.
+     */
+    public Analyzer wrap(final Analyzer analyzer) {
+        if (!profileAnalysis) {
+            return analyzer;
+        }
+
+        return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getSource(),
+                        new TimingFilter(components.getTokenStream()));
+            }
+        };
+    }
+
+    /**
+     * Returns a merge scheduler which adds the time spent merging to the {@code merge} stage.
+     *
+     * @return the timed merge scheduler.
+     */
+    public MergeScheduler mergeScheduler() {
+        return new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+                final long t = System.nanoTime();
+                try {
+                    super.doMerge(mergeSource, merge);
+                } finally {
+                    mergeNanos.add(System.nanoTime() - t);
+                    merges.increment();
+                }
+            }
+        };
+    }
+
+    /**
+     * Prints the throughput since the previous report and since the start.
+     */
+    private synchronized void report() {
+        final long now = System.currentTimeMillis();
+        final long d = docs.get();
+
+        System.out.printf(Locale.ENGLISH,
+                "%d document(s) (%d files, %d Mbytes) indexed in %d seconds: %.1f docs/sec, %.1f docs/sec overall.%n",
+                d, files.get(), bytes.get() / MBYTE, (now - start) / 1000,
+                (d - lastReportDocs) * 1000.0 / Math.max(now - lastReportTime, 1),
+                d * 1000.0 / Math.max(now - start, 1));
+
+        lastReportDocs = d;
+        lastReportTime = now;
+    }
+
+    /**
+     * Returns the summary of the run, with stable keys in a stable order. Without profiling, the analysis is not
+     * timed: {@code analysisSeconds} is {@code null} and {@code indexSeconds} includes it.
+     *
+     * @return the summary of the run.
+     */
+    private Map<String, Object> summary() {
+        final long elapsed = Math.max(end - start, 1);
+        final long analysis = analysisNanos.sum();
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("docs", docs.get());
+        summary.put("files", files.get());
+        summary.put("bytes", bytes.get());
+        summary.put("elapsedSeconds", elapsed / 1000.0);
+        summary.put("docsPerSecond", docs.get() * 1000.0 / elapsed);
+        summary.put("mbytesPerSecond", bytes.get() * 1000.0 / MBYTE / elapsed);
+        summary.put("parseSeconds", parseNanos.sum() / NANOS_PER_SECOND);
+        summary.put("analysisSeconds", profileAnalysis ? analysis / NANOS_PER_SECOND : null);
+        summary.put("indexSeconds", Math.max(addDocumentNanos.sum() - analysis, 0) / NANOS_PER_SECOND);
+        summary.put("flushSeconds", flushNanos.sum() / NANOS_PER_SECOND);
+        summary.put("mergeSeconds", mergeNanos.sum() / NANOS_PER_SECOND);
+        summary.put("merges", merges.sum());
+        return summary;
+    }
+
+    /**
+     * Writes the summary to the report file.
+     *
+     * @param summary the summary of the run.
+     * @throws IOException if the report file cannot be written.
+     */
+    private void write(final Map<String, Object> summary) throws IOException {
+        if (reportFile.getParent() != null) {
+            Files.createDirectories(reportFile.getParent());
+        }
+
+        if (reportFile.getFileName().toString().endsWith(".csv")) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8))) {
+                out.println(String.join(",", summary.keySet()));
+                out.println(String.join(",", summary.values().stream().map(String::valueOf).toArray(String[]::new)));
+            }
+        } else {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), summary);
+        }
+    }
+
+    /**
+     * Measures the time spent in the wrapped token stream, i.e. in the whole analysis chain.
+     */
+    private final class TimingFilter extends TokenFilter {
+
+        /**
+         * The time spent producing the tokens of the current field, in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * Creates a new timing filter.
+         *
+         * @param in the token stream to time.
+         */
+        private TimingFilter(final TokenStream in) {
+            super(in);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            final long t = System.nanoTime();
+            final boolean token = input.incrementToken();
+            nanos += System.nanoTime() - t;
+            return token;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            // added once per field rather than once per token, to keep the shared counter out of the hot loop
+            analysisNanos.add(nanos);
+            nanos = 0;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package it.unipd.dei.se.index;
+
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.util.IntroSorter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Finds the documents whose contents are near-duplicates of a document already seen, by comparing 64-bit SimHash
+ * signatures of their words.
+ * <p>
+ * Two documents are near-duplicates when their signatures differ in at most {@code maxDistance} bits. Signatures are
+ * split in {@code maxDistance + 1} bands: two signatures within that distance agree on at least one band, so only the
+ * documents sharing a band with the new one are compared. Everything is held in primitive arrays sized to the
+ * collected documents, one hash table of chain heads per band and one chain link per document and band, so that a few
+ * million documents take tens of megabytes.
+ * <p>
+ * The signatures are {@link #collect(ParsedDocument) collected} while the documents are indexed, on the indexing
+ * threads, and {@link #resolve(Action) resolved} once all of them have been added: the documents are taken in the order
+ * of their identifiers, so that the copy with the smallest identifier is kept whatever the number of threads and their
+ * timing. Near-duplicates are then either deleted or tagged with the identifier of the document they duplicate, in the
+ * {@link ParsedDocument.FIELDS#DUPLICATE_OF} field, and listed in a tab-separated report:
+ * <pre>
+ * duplicate-id	original-id	distance
+ * </pre>
+ * Only the documents seen by the same detector are compared: an incremental run does not look at the documents
+ * already in the index.
+ */
+public class NearDuplicateDetector implements Closeable {
+
+    /**
+     * What to do with a near-duplicate.
+     */
+    public enum Mode {
+
+        /**
+         * Do not index the near-duplicate.
+         */
+        DROP,
+
+        /**
+         * Index the near-duplicate, tagged with the identifier of the original.
+         */
+        TAG
+    }
+
+    /**
+     * The name of the report file, inside the index directory.
+     */
+    public static final String REPORT_FILE_NAME = "duplicates.tsv";
+
+    /**
+     * The default maximum number of different bits between the signatures of near-duplicates.
+     */
+    public static final int DEFAULT_MAX_DISTANCE = 3;
+
+    /**
+     * The largest maximum number of different bits, for which each band still has 4 bits.
+     */
+    public static final int MAX_DISTANCE = Long.SIZE / 4 - 1;
+
+    /**
+     * The initial number of documents the collected signatures have room for.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The FNV-1a 64-bit offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV-1a 64-bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The per-thread counters of the signature bits.
+     */
+    private static final ThreadLocal<int[]> BIT_COUNTS = ThreadLocal.withInitial(() -> new int[Long.SIZE]);
+
+    /**
+     * Receives the near-duplicates found by {@link #resolve(Action)}.
+     */
+    @FunctionalInterface
+    public interface Action {
+
+        /**
+         * Handles a near-duplicate, e.g. by deleting or tagging it in the index.
+         *
+         * @param duplicate the identifier of the near-duplicate.
+         * @param original  the identifier of the document it duplicates.
+         * @throws IOException if the near-duplicate cannot be handled.
+         */
+        void apply(String duplicate, String original) throws IOException;
+    }
+
+    /**
+     * The maximum number of different bits between the signatures of near-duplicates.
+     */
+    private final int maxDistance;
+
+    /**
+     * What to do with a near-duplicate.
+     */
+    private final Mode mode;
+
+    /**
+     * The number of bits of each band.
+     */
+    private final int bandBits;
+
+    /**
+     * The signatures of the collected documents, by position.
+     */
+    private long[] signatures = new long[INITIAL_CAPACITY];
+
+    /**
+     * The identifiers of the collected documents, by position.
+     */
+    private String[] ids = new String[INITIAL_CAPACITY];
+
+    /**
+     * The number of collected documents.
+     */
+    private int size = 0;
+
+    /**
+     * Whether the collected documents have already been resolved.
+     */
+    private boolean resolved = false;
+
+    /**
+     * The number of near-duplicates found.
+     */
+    private long duplicates = 0;
+
+    /**
+     * The report file.
+     */
+    private final Path reportFile;
+
+    /**
+     * Creates a new detector.
+     *
+     * @param maxDistance the maximum number of different bits between the signatures of near-duplicates.
+     * @param mode        whether to drop or to tag near-duplicates.
+     * @param reportFile  the file where to list the near-duplicates.
+     * @throws NullPointerException     if {@code mode} and/or {@code reportFile} are {@code null}.
+     * @throws IllegalArgumentException if {@code maxDistance} is negative or too large.
+     */
+    public NearDuplicateDetector(final int maxDistance, final Mode mode, final Path reportFile) {
+
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException(String.format("The maximum distance must be between 0 and %d.",
+                    MAX_DISTANCE));
+        }
+
+        if (mode == null) {
+            throw new NullPointerException("Mode cannot be null.");
+        }
+
+        if (reportFile == null) {
+            throw new NullPointerException("Report file cannot be null.");
+        }
+
+        this.maxDistance = maxDistance;
+        this.mode = mode;
+        this.reportFile = reportFile;
+
+        this.bandBits = Long.SIZE / (maxDistance + 1);
+    }
+
+    /**
+     * Returns what to do with a near-duplicate.
+     *
+     * @return whether near-duplicates are dropped or tagged.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Collects the signature of a document, computed on the calling thread, to be resolved by {@link #resolve(Action)}
+     * together with all the others.
+     *
+     * @param pd the document.
+     * @throws IllegalStateException if the collected documents have already been resolved.
+     */
+    public void collect(final ParsedDocument pd) {
+        final long signature = simHash(pd.getContents());
+
+        synchronized (this) {
+            if (resolved) {
+                throw new IllegalStateException("The collected documents have already been resolved.");
+            }
+
+            if (size == signatures.length) {
+                signatures = Arrays.copyOf(signatures, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            signatures[size] = signature;
+            ids[size] = pd.getId();
+            size++;
+        }
+    }
+
+    /**
+     * Decides which of the collected documents are near-duplicates, taking them in the order of their identifiers, so
+     * that the copy with the smallest identifier is kept whatever the order they were collected in. Each near-duplicate
+     * is listed in the report and handed to the given action.
+     *
+     * @param action what to do with each near-duplicate.
+     * @throws IOException           if the report cannot be written or the action fails.
+     * @throws IllegalStateException if the collected documents have already been resolved.
+     */
+    public synchronized void resolve(final Action action) throws IOException {
+        if (resolved) {
+            throw new IllegalStateException("The collected documents have already been resolved.");
+        }
+        resolved = true;
+
+        // the positions of the documents, in the order of their identifiers
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        new IntroSorter() {
+            private String pivot;
+
+            @Override
+            protected void swap(final int i, final int j) {
+                final int o = order[i];
+                order[i] = order[j];
+                order[j] = o;
+            }
+
+            @Override
+            protected void setPivot(final int i) {
+                pivot = ids[order[i]];
+            }
+
+            @Override
+            protected int comparePivot(final int j) {
+                return pivot.compareTo(ids[order[j]]);
+            }
+        }.sort(0, size);
+
+        // one hash table of chain heads per band, sized to the collected documents, over the kept documents only
+        final int headBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1)));
+        final int[][] heads = new int[maxDistance + 1][1 << headBits];
+        final int[][] links = new int[maxDistance + 1][size];
+
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(createParent(reportFile),
+                StandardCharsets.UTF_8))) {
+
+            for (final int position : order) {
+                final long signature = signatures[position];
+
+                int original = -1;
+                int distance = 0;
+                for (int band = 0; band <= maxDistance && original < 0; band++) {
+                    for (int p = heads[band][slot(signature, band, headBits)]; p != 0; p = links[band][p - 1]) {
+                        distance = Long.bitCount(signatures[p - 1] ^ signature);
+                        if (distance <= maxDistance) {
+                            original = p - 1;
+                            break;
+                        }
+                    }
+                }
+
+                if (original >= 0) {
+                    duplicates++;
+                    report.printf("%s\t%s\t%d%n", ids[position], ids[original], distance);
+                    action.apply(ids[position], ids[original]);
+                    continue;
+                }
+
+                // keep the document, to be compared with the following ones
+                for (int band = 0; band <= maxDistance; band++) {
+                    final int slot = slot(signature, band, headBits);
+                    links[band][position] = heads[band][slot];
+                    heads[band][slot] = position + 1;
+                }
+            }
+        }
+
+        // the identifiers are no longer needed
+        ids = null;
+    }
+
+    /**
+     * Creates the parent directory of a file, if missing.
+     *
+     * @param file the file.
+     * @return the file.
+     * @throws IOException if the directory cannot be created.
+     */
+    private static Path createParent(final Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return file;
+    }
+
+    /**
+     * Returns the slot of the hash table of a band where the chain of a signature starts.
+     *
+     * @param signature the signature.
+     * @param band      the band.
+     * @param headBits  the number of bits of the hash table.
+     * @return the slot.
+     */
+    private int slot(final long signature, final int band, final int headBits) {
+        final long value = bandBits == Long.SIZE ? signature
+                : (signature >>> (band * bandBits)) & ((1L << bandBits) - 1);
+
+        // mix the band with its number, so that equal values of different bands do not share slots
+        long h = (value + band) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h & ((1 << headBits) - 1));
+    }
+
+    /**
+     * Computes the SimHash signature of a text, over the hashes of its lower-cased words, each counted as many times as
+     * it occurs. Words are preferred to bigrams since a single changed word already alters two bigrams, and such small
+     * edits are what tells boilerplate passages apart.
+     *
+     * @param text the text.
+     * @return the signature.
+     */
+    static long simHash(final String text) {
+        final int[] counts = BIT_COUNTS.get();
+        Arrays.fill(counts, 0);
+
+        long current = FNV_OFFSET;
+        boolean inWord = false;
+
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            final char c = i < n ? text.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c)) {
+                current = (current ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                addFeature(counts, mix(current));
+                current = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+
+        long signature = 0;
+        for (int b = 0; b < Long.SIZE; b++) {
+            if (counts[b] > 0) {
+                signature |= 1L << b;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Adds a feature to the bit counters of a signature.
+     *
+     * @param counts the bit counters.
+     * @param hash   the hash of the feature.
+     */
+    private static void addFeature(final int[] counts, final long hash) {
+        for (int b = 0; b < Long.SIZE; b++) {
+            counts[b] += ((hash >>> b) & 1L) != 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash, so that similar features have unrelated hashes.
+     *
+     * @param h the hash.
+     * @return the mixed hash.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns the number of near-duplicates found.
+     *
+     * @return the number of near-duplicates found.
+     */
+    public synchronized long getDuplicatesCount() {
+        return duplicates;
+    }
+
+    /**
+     * Prints how many documents were found to be near-duplicates and releases the collected signatures.
+     */
+    @Override
+    public synchronized void close() {
+        System.out.printf(Locale.ENGLISH,
+                "%d near-duplicate(s) of %d document(s) %s, within %d bit(s); listed in %s.%n", duplicates,
+                size, mode == Mode.DROP ? "dropped" : "tagged", maxDistance, reportFile.toAbsolutePath());
+
+        signatures = null;
+        ids = null;
+    }
+}
@@ -0,0 +1,243 @@
+package it.unipd.dei.se.parse.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the documents of a corpus previously converted by {@link BinaryCorpusWriter}, with a sequential scan of the
+ * memory-mapped file.
+ * <p>
+ * No JSON is parsed and the DocT5Query expansion is already split from the contents, so re-indexing the same corpus is
+ * bounded by analysis only. Strings made of ISO-8859-1 characters only, the vast majority, are stored one byte per
+ * character and decoded with a plain copy.
+ * <p>
+ * The format of a file is a header followed by the records. The header holds the {@link #MAGIC} number, the
+ * {@link #VERSION} and the fingerprint of the corpus file the records were converted from: its absolute path, its size
+ * and its last modification time. A binary file whose corpus file has changed since the conversion is stale and is
+ * refused, instead of silently indexing outdated documents. Each record is made of the identifier, the contents and the
+ * DocT5Query expansion. Each string, in the header as well, is written as:
+ * <pre>
+ * byte encoding  0 = absent (null), 1 = ISO-8859-1, 2 = UTF-8
+ * int  length    in bytes
+ * byte[length]   the encoded string
+ * </pre>
+ */
+public class BinaryCorpusParser extends DocumentParser {
+
+    /**
+     * The extension of the binary corpus files.
+     */
+    public static final String EXTENSION = "kbin";
+
+    /**
+     * The number identifying a binary corpus file.
+     */
+    static final int MAGIC = 0x4B42494E;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The encoding of an absent string.
+     */
+    static final byte ABSENT = 0;
+
+    /**
+     * The encoding of a string made of ISO-8859-1 characters only.
+     */
+    static final byte LATIN1 = 1;
+
+    /**
+     * The encoding of any other string.
+     */
+    static final byte UTF8 = 2;
+
+    /**
+     * The mapped file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The fingerprint of the corpus file the records were converted from.
+     */
+    private final Source source;
+
+    /**
+     * The buffer strings are copied into before being decoded.
+     */
+    private byte[] scratch = new byte[16 * 1024];
+
+    /**
+     * Creates a new parser for a binary corpus file.
+     *
+     * @param file the binary corpus file.
+     * @throws IOException           if the file cannot be mapped.
+     * @throws IllegalStateException if the file is not a binary corpus file of a supported version, or if it is stale.
+     */
+    public BinaryCorpusParser(final Path file) throws IOException {
+        // the records are read from the mapped file, not from a character stream
+        super(Reader.nullReader());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        source = readHeader(file);
+        source.check(file);
+
+        next = buffer.hasRemaining();
+    }
+
+    /**
+     * Returns the fingerprint of the corpus file the records were converted from.
+     *
+     * @return the fingerprint of the corpus file.
+     */
+    Source getSource() {
+        return source;
+    }
+
+    /**
+     * Reads the header at the beginning of the mapped file, leaving the buffer on the first record.
+     *
+     * @param file the binary corpus file, for the error messages.
+     * @return the fingerprint of the corpus file it was converted from.
+     * @throws IllegalStateException if the file is not a binary corpus file of a supported version.
+     */
+    private Source readHeader(final Path file) {
+        if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException(String.format("%s is not a binary corpus file.", file.toAbsolutePath()));
+        }
+
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException(String.format("Binary corpus file %s has version %d instead of %d.",
+                    file.toAbsolutePath(), version, VERSION));
+        }
+
+        final Path source = Paths.get(readString());
+        final long size = buffer.getLong();
+        final long lastModified = buffer.getLong();
+
+        return new Source(source, size, lastModified);
+    }
+
+    @Override
+    public boolean hasNext() {
+        next = buffer.hasRemaining();
+        return next;
+    }
+
+    @Override
+    protected ParsedDocument parse() {
+        final String id = readString();
+        final String contents = readString();
+        final String docT5Query = readString();
+
+        next = buffer.hasRemaining();
+
+        return new ParsedDocument(id, contents, docT5Query);
+    }
+
+    /**
+     * Reads the next string of the file.
+     *
+     * @return the string, or {@code null} if absent.
+     */
+    private String readString() {
+        final byte encoding = buffer.get();
+
+        if (encoding == ABSENT) {
+            return null;
+        }
+
+        final int length = buffer.getInt();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(scratch, 0, length);
+
+        return new String(scratch, 0, length, encoding == LATIN1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The fingerprint of the corpus file a binary corpus file was converted from.
+     */
+    static final class Source {
+
+        /**
+         * The absolute path of the corpus file.
+         */
+        final Path file;
+
+        /**
+         * The size in bytes of the corpus file.
+         */
+        final long size;
+
+        /**
+         * The last modification time of the corpus file, in milliseconds since the epoch.
+         */
+        final long lastModified;
+
+        /**
+         * Creates the fingerprint of a corpus file.
+         *
+         * @param file         the absolute path of the corpus file.
+         * @param size         the size in bytes of the corpus file.
+         * @param lastModified the last modification time of the corpus file, in milliseconds since the epoch.
+         */
+        Source(final Path file, final long size, final long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Takes the fingerprint of a corpus file as it is now.
+         *
+         * @param file the corpus file.
+         * @return the fingerprint of the corpus file.
+         * @throws IOException if the attributes of the file cannot be read.
+         */
+        static Source of(final Path file) throws IOException {
+            return new Source(file.toAbsolutePath().normalize(), Files.size(file),
+                    Files.getLastModifiedTime(file).toMillis());
+        }
+
+        /**
+         * Checks that the corpus file has not changed since the binary corpus file was converted from it.
+         *
+         * @param binary the binary corpus file, for the error messages.
+         * @throws IOException           if the attributes of the corpus file cannot be read.
+         * @throws IllegalStateException if the corpus file has been changed or removed.
+         */
+        void check(final Path binary) throws IOException {
+            final Source now;
+            try {
+                now = of(file);
+            } catch (NoSuchFileException e) {
+                throw new IllegalStateException(String.format(
+                        "Binary corpus file %s is stale: its corpus file %s has been removed; "
+                                + "run the convert task again.",
+                        binary.toAbsolutePath(), file), e);
+            }
+
+            if (now.size != size || now.lastModified != lastModified) {
+                throw new IllegalStateException(String.format(
+                        "Binary corpus file %s is stale: its corpus file %s has changed; run the convert task again.",
+                        binary.toAbsolutePath(), file));
+            }
+        }
+    }
+}
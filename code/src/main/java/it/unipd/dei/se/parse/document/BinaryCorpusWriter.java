@@ -0,0 +1,317 @@
+package it.unipd.dei.se.parse.document;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts a corpus, once, into the binary format read by {@link BinaryCorpusParser}, so that re-indexing it does not
+ * pay for JSON parsing and charset decoding again.
+ * <p>
+ * Each corpus file is split by {@link JsonlSplitter} and every range is converted, on its own thread, into its own
+ * binary file named after the corpus file and the number of the range (e.g. {@code test-expanded-0.kbin}), in the same
+ * sub-directory of the output directory as the corpus file is of the corpus directory, so that files with the same name
+ * in different sub-directories do not overwrite each other. The binary files of a range are never larger than what can
+ * be mapped at once, and the indexer can read them in parallel.
+ * <p>
+ * Each binary file records the size and last modification time of its corpus file, so that {@link #verify} and
+ * {@link BinaryCorpusParser} can tell when the binary corpus no longer matches the corpus.
+ */
+public class BinaryCorpusWriter {
+
+    /**
+     * The default directory of the binary corpus.
+     */
+    public static final String DEFAULT_CACHE_DIR = "experiment/corpus-cache";
+
+    /**
+     * The size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Converts all the files with the given extension found in {@code docsDir} into binary files written in
+     * {@code outDir}, keeping their relative path. The binary files of a previous conversion are deleted first.
+     *
+     * @param docsDir   the directory of the corpus.
+     * @param extension the extension of the corpus files.
+     * @param cs        the charset of the corpus files.
+     * @param dpCls     the class of the {@code DocumentParser} reading the corpus files.
+     * @param outDir    the directory of the binary corpus.
+     * @param threads   the number of threads converting the files.
+     * @return the number of converted documents.
+     * @throws IOException              if something goes wrong while reading or writing the files.
+     * @throws IllegalArgumentException if {@code threads} is less than or equal to zero.
+     */
+    public static long convert(final Path docsDir, final String extension, final Charset cs,
+                               final Class<? extends DocumentParser> dpCls, final Path outDir, final int threads)
+            throws IOException {
+
+        if (docsDir == null) {
+            throw new NullPointerException("Documents directory cannot be null.");
+        }
+
+        if (!Files.isDirectory(docsDir)) {
+            throw new IllegalArgumentException(
+                    String.format("%s is not a directory.", docsDir.toAbsolutePath().toString()));
+        }
+
+        if (extension == null) {
+            throw new NullPointerException("File extension cannot be null.");
+        }
+
+        if (cs == null) {
+            throw new NullPointerException("Charset cannot be null.");
+        }
+
+        if (dpCls == null) {
+            throw new NullPointerException("Document parser class cannot be null.");
+        }
+
+        if (dpCls == BinaryCorpusParser.class) {
+            throw new IllegalArgumentException("The corpus to convert cannot be already in binary format.");
+        }
+
+        if (outDir == null) {
+            throw new NullPointerException("Output directory cannot be null.");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        Files.createDirectories(outDir);
+        try (Stream<Path> old = Files.walk(outDir)) {
+            for (Path file : old.filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().endsWith("." + BinaryCorpusParser.EXTENSION))
+                    .collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(docsDir)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().endsWith(extension))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final long start = System.currentTimeMillis();
+        final AtomicLong docs = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> tasks = new ArrayList<>();
+
+        for (Path file : files) {
+            final String name = file.getFileName().toString();
+            final String base = name.substring(0, name.length() - extension.length()).replaceAll("\\.$", "");
+            final Path dir = outDir.resolve(docsDir.relativize(file)).getParent();
+            Files.createDirectories(dir);
+
+            // taken before reading the file, so that a change made during the conversion makes the output stale
+            final BinaryCorpusParser.Source source = BinaryCorpusParser.Source.of(file);
+
+            final List<JsonlSplitter.Range> ranges = JsonlSplitter.split(file, threads);
+            for (int r = 0; r < ranges.size(); r++) {
+                final JsonlSplitter.Range range = ranges.get(r);
+                final Path out = dir.resolve(
+                        String.format("%s-%d.%s", base, r, BinaryCorpusParser.EXTENSION));
+
+                tasks.add(pool.submit(() -> {
+                    docs.addAndGet(write(DocumentParser.create(dpCls, range.open(cs)), source, out));
+                    bytesIn.addAndGet(range.length());
+                    bytesOut.addAndGet(Files.size(out));
+                    return null;
+                }));
+            }
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting the corpus.", e);
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to convert the corpus.", e.getCause());
+        }
+
+        System.out.printf(Locale.ENGLISH,
+                "%d document(s) of %d file(s) converted in %d seconds: %.1f MB of %s into %.1f MB of %s in %s.%n",
+                docs.get(), files.size(), (System.currentTimeMillis() - start) / 1000, bytesIn.get() / 1e6, extension,
+                bytesOut.get() / 1e6, BinaryCorpusParser.EXTENSION, outDir.toAbsolutePath());
+
+        return docs.get();
+    }
+
+    /**
+     * Checks that a binary corpus still matches the corpus it was converted from: every corpus file has been converted
+     * and none of them has changed since.
+     *
+     * @param docsDir   the directory of the corpus.
+     * @param extension the extension of the corpus files.
+     * @param outDir    the directory of the binary corpus.
+     * @throws IOException           if something goes wrong while reading the files.
+     * @throws IllegalStateException if the binary corpus is stale.
+     */
+    public static void verify(final Path docsDir, final String extension, final Path outDir) throws IOException {
+        final Set<Path> converted = new HashSet<>();
+        try (Stream<Path> walk = Files.walk(outDir)) {
+            for (Path file : walk.filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().endsWith("." + BinaryCorpusParser.EXTENSION))
+                    .collect(Collectors.toList())) {
+                // the parser refuses binary files whose corpus file has changed or has been removed
+                converted.add(new BinaryCorpusParser(file).getSource().file);
+            }
+        }
+
+        try (Stream<Path> walk = Files.walk(docsDir)) {
+            for (Path file : walk.filter(Files::isRegularFile)
+                    .filter(p -> p.getFileName().toString().endsWith(extension))
+                    .collect(Collectors.toList())) {
+                if (!converted.contains(file.toAbsolutePath().normalize())) {
+                    throw new IllegalStateException(String.format(
+                            "Binary corpus %s is stale: corpus file %s has not been converted; "
+                                    + "run the convert task again.",
+                            outDir.toAbsolutePath(), file.toAbsolutePath()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all the documents returned by a parser into a binary corpus file.
+     *
+     * @param dp     the parser.
+     * @param source the fingerprint of the corpus file the parser reads.
+     * @param file   the binary corpus file.
+     * @return the number of written documents.
+     * @throws IOException if the file cannot be written.
+     */
+    static long write(final DocumentParser dp, final BinaryCorpusParser.Source source, final Path file)
+            throws IOException {
+        long docs = 0;
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(BinaryCorpusParser.MAGIC);
+            out.writeInt(BinaryCorpusParser.VERSION);
+            writeString(out, source.file.toString());
+            out.writeLong(source.size);
+            out.writeLong(source.lastModified);
+
+            while (dp.hasNext()) {
+                final ParsedDocument pd = dp.next();
+                writeString(out, pd.getId());
+                writeString(out, pd.getContents());
+                writeString(out, pd.getDocT5Query());
+                docs++;
+            }
+        }
+
+        return docs;
+    }
+
+    /**
+     * Writes a string, one byte per character if it is made of ISO-8859-1 characters only, in UTF-8 otherwise.
+     *
+     * @param out the output stream.
+     * @param s   the string, possibly {@code null}.
+     * @throws IOException if the string cannot be written.
+     */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s == null) {
+            out.writeByte(BinaryCorpusParser.ABSENT);
+            return;
+        }
+
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) {
+            latin1 = s.charAt(i) <= 0xFF;
+        }
+
+        final byte[] bytes = s.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        out.writeByte(latin1 ? BinaryCorpusParser.LATIN1 : BinaryCorpusParser.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     * <p>
+     * It converts the corpus, then parses it again both from the JSONL files and from the binary files, checks that the
+     * same documents are returned and prints the time taken by each.
+     *
+     * @param args command line arguments: the corpus directory and the output directory.
+     * @throws Exception if something goes wrong while converting or parsing the corpus.
+     */
+    public static void main(String[] args) throws Exception {
+        final Path docsDir = Paths.get(args.length > 0 ? args[0] : "code/src/main/resource/corpus_folder");
+        final Path outDir = Paths.get(args.length > 1 ? args[1] : DEFAULT_CACHE_DIR);
+        final Charset cs = StandardCharsets.ISO_8859_1;
+
+        convert(docsDir, "jsonl", cs, StreamingParser.class, outDir, 1);
+
+        final List<Path> jsonl;
+        final List<Path> binary;
+        try (Stream<Path> a = Files.list(docsDir); Stream<Path> b = Files.list(outDir)) {
+            jsonl = a.filter(p -> p.toString().endsWith(".jsonl")).sorted().collect(Collectors.toList());
+            binary = b.filter(p -> p.toString().endsWith("." + BinaryCorpusParser.EXTENSION)).sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final List<ParsedDocument> expected = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Path file : jsonl) {
+            DocumentParser.create(StreamingParser.class, Files.newBufferedReader(file, cs)).forEach(expected::add);
+        }
+        final long json = System.nanoTime() - start;
+
+        final List<ParsedDocument> actual = new ArrayList<>();
+        start = System.nanoTime();
+        for (Path file : binary) {
+            DocumentParser.create(BinaryCorpusParser.class, file, cs).forEach(actual::add);
+        }
+        final long bin = System.nanoTime() - start;
+
+        int mismatches = 0;
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            final ParsedDocument e = expected.get(i);
+            final ParsedDocument a = actual.get(i);
+            if (!e.getId().equals(a.getId()) || !e.getContents().equals(a.getContents())
+                    || !java.util.Objects.equals(e.getDocT5Query(), a.getDocT5Query())) {
+                mismatches++;
+            }
+        }
+
+        System.out.printf(Locale.ENGLISH, "%d JSON document(s) parsed in %.1f ms, %d binary document(s) in %.1f ms, %d mismatch(es).%n",
+                expected.size(), json / 1e6, actual.size(), bin / 1e6, mismatches);
+    }
+}
@@ -2,6 +2,9 @@ package it.unipd.dei.se.parse.document;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -98,6 +101,67 @@ public abstract class DocumentParser
 
     }
 
+    /**
+     * Creates a new {@code DocumentParser} for a file.
+     * <p>
+     * If the {@code DocumentParser} has a single-parameter constructor which takes a {@code Path} as input, e.g. because
+     * it reads a binary format, the file is handed to it directly; otherwise the file is opened with a reader decoding it
+     * with the given charset.
+     *
+     * @param cls  the class of the document parser to be instantiated.
+     * @param file the file containing the document(s) to be parsed.
+     * @param cs   the charset used for encoding the file.
+     * @return a new instance of {@code DocumentParser} for the given class.
+     * @throws NullPointerException  if {@code cls}, {@code file} and/or {@code cs} are {@code null}.
+     * @throws IOException           if the file cannot be opened.
+     * @throws IllegalStateException if something goes wrong in instantiating the class.
+     */
+    public static final DocumentParser create(Class<? extends DocumentParser> cls, Path file, Charset cs)
+            throws IOException {
+
+        if (cls == null) {
+            throw new NullPointerException("Document parser class cannot be null.");
+        }
+
+        if (file == null) {
+            throw new NullPointerException("File cannot be null.");
+        }
+
+        if (cs == null) {
+            throw new NullPointerException("Charset cannot be null.");
+        }
+
+        if (!readsFiles(cls)) {
+            return create(cls, Files.newBufferedReader(file, cs));
+        }
+
+        try {
+            return cls.getConstructor(Path.class).newInstance(file);
+        } catch (Exception e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(String.format("Unable to instantiate document parser %s.", cls.getName()),
+                    e);
+        }
+    }
+
+    /**
+     * Tells whether a {@code DocumentParser} reads its files by itself, i.e. it has a single-parameter constructor which
+     * takes a {@code Path} as input. Such files cannot be split in ranges of characters.
+     *
+     * @param cls the class of the document parser.
+     * @return {@code true} if the parser reads its files by itself.
+     */
+    public static boolean readsFiles(Class<? extends DocumentParser> cls) {
+        try {
+            cls.getConstructor(Path.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /**
      * Performs the actual parsing of the document.
      *
@@ -0,0 +1,296 @@
+package it.unipd.dei.se.parse.document;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cuts a (possibly huge) JSONL corpus file into byte ranges which start and end on record boundaries, so that each
+ * range can be given to its own {@code DocumentParser} and parsed at the same time as the others.
+ * <p>
+ * A record is assumed to start with a <code>{</code> at the beginning of a line. This holds both for one-record-per-line
+ * files and for pretty-printed ones, where the nested lines are indented, and since line breaks inside JSON strings are
+ * always escaped a record can never be cut in the middle of a value. Ranges are read through memory-mapped buffers, so
+ * the file must be encoded with an ASCII-compatible charset such as UTF-8 or ISO-8859-1.
+ */
+public class JsonlSplitter {
+
+    /**
+     * The largest range handed to a single parser. A {@code MappedByteBuffer} is indexed by {@code int}, so a range
+     * must stay below 2 GB even after moving its end to the next record boundary.
+     */
+    private static final long MAX_RANGE_BYTES = Integer.MAX_VALUE / 2;
+
+    /**
+     * The size of the window mapped while looking for the next record boundary.
+     */
+    private static final int SCAN_WINDOW_BYTES = 64 * 1024;
+
+    /**
+     * A portion of a file made of whole records.
+     */
+    public static final class Range {
+
+        /**
+         * The file the range belongs to.
+         */
+        private final Path file;
+
+        /**
+         * The offset of the first byte of the range.
+         */
+        private final long start;
+
+        /**
+         * The offset just after the last byte of the range.
+         */
+        private final long end;
+
+        /**
+         * Creates a new range.
+         *
+         * @param file  the file the range belongs to.
+         * @param start the offset of the first byte of the range.
+         * @param end   the offset just after the last byte of the range.
+         */
+        private Range(final Path file, final long start, final long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the file the range belongs to.
+         *
+         * @return the file the range belongs to.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the number of bytes in the range.
+         *
+         * @return the number of bytes in the range.
+         */
+        public long length() {
+            return end - start;
+        }
+
+        /**
+         * Memory-maps the range and returns a reader decoding it with the given charset. A whole file too large to be
+         * mapped at once is read through a plain buffered reader instead.
+         *
+         * @param cs the charset used for encoding the file.
+         * @return a reader over the records of the range.
+         * @throws IOException if the range cannot be mapped.
+         */
+        public Reader open(final Charset cs) throws IOException {
+            if (end - start > Integer.MAX_VALUE) {
+                return Files.newBufferedReader(file, cs);
+            }
+
+            final MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel has been closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            return new BufferedReader(new InputStreamReader(new ByteBufferInputStream(buffer), cs));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%d, %d)", file.getFileName(), start, end);
+        }
+    }
+
+    /**
+     * Splits a file into about {@code parts} ranges of similar size, each made of whole records.
+     * <p>
+     * Fewer ranges are returned when the file holds fewer records than {@code parts}, and more when needed to keep every
+     * range mappable.
+     *
+     * @param file  the JSONL file to split.
+     * @param parts the number of ranges wanted.
+     * @return the ranges, in file order, covering the whole file.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if {@code parts} is less than or equal to zero.
+     */
+    public static List<Range> split(final Path file, final int parts) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("File cannot be null.");
+        }
+
+        if (parts <= 0) {
+            throw new IllegalArgumentException("The number of parts cannot be less than or equal to zero.");
+        }
+
+        final List<Range> ranges = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+
+            final long n = Math.max(parts, (size + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+
+            long start = 0;
+            for (long i = 1; i <= n && start < size; i++) {
+                final long end = i == n ? size : nextRecordStart(channel, Math.max(start + 1, size * i / n), size);
+
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IllegalStateException(String.format("Record of file %s starting at byte %d is too large to be mapped.",
+                            file.toAbsolutePath(), start));
+                }
+
+                if (end > start) {
+                    ranges.add(new Range(file, start, end));
+                }
+                start = end;
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Returns a single range covering the whole file, for files which are not in JSONL format and cannot be split.
+     *
+     * @param file the file.
+     * @return the range covering the whole file.
+     * @throws IOException if the size of the file cannot be read.
+     */
+    public static Range whole(final Path file) throws IOException {
+        return new Range(file, 0, Files.size(file));
+    }
+
+    /**
+     * Returns the offset of the first record starting at or after {@code from}, that is the first <code>{</code>
+     * following a line break.
+     *
+     * @param channel the channel to the file.
+     * @param from    the offset where to start looking.
+     * @param size    the size of the file.
+     * @return the offset of the next record, or {@code size} if there is none.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static long nextRecordStart(final FileChannel channel, final long from, final long size) throws IOException {
+
+        // the byte preceding the candidate must be looked at too
+        long position = from - 1;
+
+        while (position < size - 1) {
+            final int length = (int) Math.min(SCAN_WINDOW_BYTES, size - position);
+            final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            for (int i = 0; i < length - 1; i++) {
+                if (window.get(i) == '\n' && window.get(i + 1) == '{') {
+                    return position + i + 1;
+                }
+            }
+
+            // overlap by one byte, so that a line break at the end of the window is not missed
+            position += length - 1;
+        }
+
+        return size;
+    }
+
+    /**
+     * An {@code InputStream} reading the remaining bytes of a {@code ByteBuffer}.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * The buffer to read.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a new stream over the given buffer.
+         *
+         * @param buffer the buffer to read.
+         */
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     * <p>
+     * It parses a file sequentially and then split in ranges parsed at the same time, and checks that both passes
+     * return the same documents.
+     *
+     * @param args command line arguments: the file to parse and the number of ranges.
+     * @throws Exception if something goes wrong while parsing.
+     */
+    public static void main(String[] args) throws Exception {
+        final Path file = Paths.get(args.length > 0 ? args[0] : "code/src/main/resource/corpus_folder/test-expanded.jsonl");
+        final int parts = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final Charset cs = StandardCharsets.ISO_8859_1;
+
+        long start = System.currentTimeMillis();
+        final Map<String, String> sequential = new HashMap<>();
+        for (ParsedDocument pd : new Parser(Files.newBufferedReader(file, cs))) {
+            sequential.put(pd.getId(), pd.toString());
+        }
+        System.out.printf("Sequential pass: %d document(s) in %d ms.%n", sequential.size(),
+                System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        final List<Range> ranges = split(file, parts);
+        final ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        final Map<String, String> split = new ConcurrentHashMap<>();
+        final List<Future<?>> tasks = new ArrayList<>();
+        for (Range range : ranges) {
+            tasks.add(executor.submit(() -> {
+                for (ParsedDocument pd : new Parser(range.open(cs))) {
+                    split.put(pd.getId(), pd.toString());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        System.out.printf("Split pass: %d document(s) from %d range(s) in %d ms.%n", split.size(), ranges.size(),
+                System.currentTimeMillis() - start);
+
+        System.out.printf("Same documents: %b%n", sequential.equals(split));
+    }
+}
@@ -114,6 +114,11 @@ public class ParsedDocument {
          */
         public static final String DOC_T5_QUERY = "docT5Query";
 
+        /**
+         * The name of the element containing the identifier of the document a near-duplicate duplicates.
+         */
+        public static final String DUPLICATE_OF = "duplicateOf";
+
 
     }
 
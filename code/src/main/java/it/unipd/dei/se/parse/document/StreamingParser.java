@@ -0,0 +1,277 @@
+package it.unipd.dei.se.parse.document;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Parses the same records as {@link Parser}, but walks the {@code JsonParser} token stream instead of building a
+ * {@code JsonNode} tree for each of them.
+ * <p>
+ * Only the {@code id} and {@code contents} values are turned into Strings: every other field (e.g. {@code chatNoirUrl})
+ * is skipped without being decoded. The DocT5Query expansion is cut out of the contents with plain {@code indexOf}
+ * scans, so no regular expression and no intermediate split array or replaced copy are created.
+ */
+public class StreamingParser extends DocumentParser {
+
+    /**
+     * The tag opening the DocT5Query expansion inside the contents.
+     */
+    private static final String QUERY_OPEN = "<query>";
+
+    /**
+     * The tag closing the DocT5Query expansion inside the contents.
+     */
+    private static final String QUERY_CLOSE = "</query>";
+
+    /**
+     * The factory shared by all the parsers. It is thread-safe and holds the canonical field names table.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The last parsed document.
+     */
+    private ParsedDocument document = null;
+
+    /**
+     * The token stream of the records.
+     */
+    private final JsonParser jsonParser;
+
+    /**
+     * Creates a new streaming parser.
+     *
+     * @param in the reader to the document(s) to be parsed.
+     * @throws NullPointerException     if {@code in} is {@code null}.
+     * @throws IllegalArgumentException if the JSON parser cannot be created.
+     */
+    public StreamingParser(final Reader in) {
+        super(new BufferedReader(in));
+        try {
+            jsonParser = JSON_FACTORY.createParser(this.in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read from Reader", e);
+        }
+    }
+
+    @Override
+    protected ParsedDocument parse() {
+        return document;
+    }
+
+    /**
+     * Reads the next record from the token stream, keeping only its {@code id} and {@code contents}.
+     *
+     * @return {@code true} if a record has been read, {@code false} at the end of the stream.
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            JsonToken token = jsonParser.nextToken();
+
+            if (token == null) {
+                next = false;
+                jsonParser.close();
+                return false;
+            }
+
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException(String.format("should be an object, found %s", token));
+            }
+
+            String id = null;
+            String contents = null;
+
+            while ((token = jsonParser.nextToken()) == JsonToken.FIELD_NAME) {
+                final String name = jsonParser.getCurrentName();
+                token = jsonParser.nextToken();
+
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+
+                // field names are canonicalized by the factory, so equals() returns at its identity check
+                if (ParsedDocument.FIELDS.ID.equals(name)) {
+                    id = jsonParser.getText();
+                } else if (ParsedDocument.FIELDS.CONTENTS.equals(name)) {
+                    contents = jsonParser.getText();
+                } else {
+                    // does nothing for scalars, whose text is never decoded unless asked for
+                    jsonParser.skipChildren();
+                }
+            }
+
+            if (token != JsonToken.END_OBJECT) {
+                throw new IllegalArgumentException(String.format("Unexpected %s in record", token));
+            }
+
+            if (id == null) {
+                throw new IllegalArgumentException("No valid id");
+            }
+
+            if (contents == null) {
+                throw new IllegalArgumentException("No valid contents");
+            }
+
+            document = toParsedDocument(id, contents);
+            return true;
+
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Read failed", e);
+        }
+    }
+
+    /**
+     * Creates the parsed document for a record, moving the text between {@code <query>} and {@code </query>} from the
+     * contents to the DocT5Query expansion.
+     * <p>
+     * The result is the same as the one of {@link Parser}, which splits the contents on {@code <query>} and removes
+     * every {@code </query>} from the second part.
+     *
+     * @param id       the identifier of the record.
+     * @param contents the contents of the record, possibly followed by the expansion.
+     * @return the parsed document.
+     */
+    static ParsedDocument toParsedDocument(final String id, final String contents) {
+
+        final int open = contents.indexOf(QUERY_OPEN);
+
+        if (open < 0) {
+            return new ParsedDocument(id, contents, null);
+        }
+
+        final int from = open + QUERY_OPEN.length();
+
+        int to = contents.indexOf(QUERY_OPEN, from);
+        if (to < 0) {
+            to = contents.length();
+        }
+
+        final int close = contents.indexOf(QUERY_CLOSE, from);
+
+        final String docT5Query;
+        if (close < 0 || close >= to) {
+            docT5Query = strip(contents, from, to);
+        } else if (isBlank(contents, close + QUERY_CLOSE.length(), to)) {
+            // the usual case: a single closing tag, possibly followed by blanks
+            docT5Query = strip(contents, from, close);
+        } else {
+            final StringBuilder sb = new StringBuilder(to - from);
+            int start = from;
+            for (int c = close; c >= 0 && c < to; c = contents.indexOf(QUERY_CLOSE, start)) {
+                sb.append(contents, start, c);
+                start = c + QUERY_CLOSE.length();
+            }
+            sb.append(contents, start, to);
+            docT5Query = sb.toString().strip();
+        }
+
+        return new ParsedDocument(id, strip(contents, 0, open), docT5Query);
+    }
+
+    /**
+     * Returns the portion of {@code s} between {@code from} and {@code to} without leading and trailing blanks, with a
+     * single copy.
+     *
+     * @param s    the string.
+     * @param from the start of the portion, inclusive.
+     * @param to   the end of the portion, exclusive.
+     * @return the stripped portion.
+     */
+    private static String strip(final String s, int from, int to) {
+        while (from < to && Character.isWhitespace(s.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(s.charAt(to - 1))) {
+            to--;
+        }
+        return s.substring(from, to);
+    }
+
+    /**
+     * Tells whether the portion of {@code s} between {@code from} and {@code to} is made of blanks only.
+     *
+     * @param s    the string.
+     * @param from the start of the portion, inclusive.
+     * @param to   the end of the portion, exclusive.
+     * @return {@code true} if the portion is empty or blank.
+     */
+    private static boolean isBlank(final String s, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     * <p>
+     * It compares {@link Parser} and {@code StreamingParser} on the same corpus file, held in memory so that disk reads
+     * do not hide the parsing cost, and prints the time and the bytes allocated per document by each of them.
+     *
+     * @param args command line arguments: the file to parse and the number of measured passes.
+     * @throws Exception if something goes wrong while parsing.
+     */
+    public static void main(String[] args) throws Exception {
+        final String corpus = Files.readString(
+                Paths.get(args.length > 0 ? args[0] : "code/src/main/resource/corpus_folder/test-expanded.jsonl"),
+                StandardCharsets.ISO_8859_1);
+        final int passes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        System.out.printf("%-16s %10s %12s %14s%n", "parser", "docs", "ns/doc", "bytes/doc");
+
+        for (Class<? extends DocumentParser> cls : java.util.List.of(Parser.class, StreamingParser.class)) {
+
+            // warm up, so that the measured passes run compiled code
+            for (int i = 0; i < passes; i++) {
+                consume(cls, corpus);
+            }
+
+            final long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+            long docs = 0;
+            for (int i = 0; i < passes; i++) {
+                docs += consume(cls, corpus);
+            }
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+            System.out.printf(Locale.ENGLISH, "%-16s %10d %12.1f %14.1f%n", cls.getSimpleName(), docs,
+                    (double) elapsed / docs, (double) allocated / docs);
+        }
+    }
+
+    /**
+     * Parses the whole corpus with a new parser of the given class.
+     *
+     * @param cls    the class of the parser.
+     * @param corpus the corpus.
+     * @return the number of parsed documents.
+     */
+    private static long consume(final Class<? extends DocumentParser> cls, final String corpus) {
+        long docs = 0;
+        final DocumentParser dp = DocumentParser.create(cls, new StringReader(corpus));
+        while (dp.hasNext()) {
+            dp.next();
+            docs++;
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,163 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.search.AnalyzedQueryBuilder;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scores the terms of the judged documents of a topic and builds the feedback query from the best ones only.
+ * <p>
+ * The relevance of a term is its frequency in the documents of each relevance level, weighted by the square of the
+ * level, as in the unpruned feedback query; the terms are ranked by their relevance times their inverse document
+ * frequency, so that the terms frequent everywhere in the index make room for the discriminative ones. The query has
+ * one clause per kept term, boosted by its share of the relevance of the kept terms: keeping all the terms ranks the
+ * documents as the unpruned query, which has one clause per term and level.
+ * <p>
+ * It can be used by several threads at the same time.
+ */
+public class FeedbackModel {
+
+    /**
+     * The default number of terms kept for each topic.
+     */
+    public static final int DEFAULT_TERMS = 100;
+
+    /**
+     * The number of terms meaning all of them.
+     */
+    public static final int ALL_TERMS = 0;
+
+    /**
+     * The reader of the index, for the document frequencies.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The field of the terms.
+     */
+    private final String field;
+
+    /**
+     * The document frequencies already looked up, shared by the topics.
+     */
+    private final Map<String, Integer> docFreqs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new feedback model.
+     *
+     * @param reader the reader of the index, for the document frequencies.
+     * @param field  the field of the terms.
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public FeedbackModel(final IndexReader reader, final String field) {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (field == null) {
+            throw new NullPointerException("Field cannot be null.");
+        }
+
+        this.reader = reader;
+        this.field = field;
+    }
+
+    /**
+     * Returns the best terms of a topic and their boosts, best first. No more terms than
+     * {@link BooleanQuery#getMaxClauseCount()} are kept, whatever {@code terms}, so that the query can always be built.
+     *
+     * @param statistics the frequencies of the terms of the judged documents of each topic, by relevance level.
+     * @param topic      the position of the topic in the statistics.
+     * @param terms      the number of terms to keep, {@link #ALL_TERMS} to keep all of them.
+     * @return the kept terms and their boosts, which sum to one.
+     * @throws IOException              if the document frequencies cannot be read.
+     * @throws IllegalArgumentException if {@code terms} is less than zero.
+     */
+    public Map<String, Float> terms(final TermStatistics statistics, final int topic, final int terms)
+            throws IOException {
+
+        if (terms < 0) {
+            throw new IllegalArgumentException("The number of feedback terms cannot be less than zero.");
+        }
+
+        final int size = statistics.size(topic);
+        final int numDocs = reader.numDocs();
+        final int kept = Math.min(terms == ALL_TERMS ? size : Math.min(terms, size), BooleanQuery.getMaxClauseCount());
+
+        // the score of each term: its relevance, i.e. its frequency in each relevance level weighted by the square of
+        // the level, times its idf
+        final double[] scores = new double[size];
+        for (int i = 0; i < size; i++) {
+            final String term = statistics.term(topic, i);
+            Integer df = docFreqs.get(term);
+            if (df == null) {
+                df = reader.docFreq(new Term(field, term));
+                docFreqs.put(term, df);
+            }
+            scores[i] = statistics.relevance(topic, i) * Math.log(1 + (numDocs - df + 0.5) / (df + 0.5));
+        }
+
+        // the best terms, ties broken by term to be deterministic
+        final Comparator<Integer> order = Comparator.<Integer>comparingDouble(i -> scores[i])
+                .thenComparing(i -> statistics.term(topic, i), Comparator.reverseOrder());
+        final PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, kept), order);
+        for (int i = 0; i < size; i++) {
+            best.add(i);
+            if (best.size() > kept) {
+                best.poll();
+            }
+        }
+
+        final List<Integer> ranked = new ArrayList<>(best.size());
+        double total = 0;
+        while (!best.isEmpty()) {
+            final int i = best.poll();
+            ranked.add(i);
+            total += statistics.relevance(topic, i);
+        }
+        Collections.reverse(ranked);
+
+        final Map<String, Float> boosts = new LinkedHashMap<>();
+        for (int i : ranked) {
+            boosts.put(statistics.term(topic, i), (float) (statistics.relevance(topic, i) / total));
+        }
+        return boosts;
+    }
+
+    /**
+     * Returns the feedback query of a topic: one clause per kept term, boosted by its share of the relevance.
+     *
+     * @param statistics the frequencies of the terms of the judged documents of each topic, by relevance level.
+     * @param topic      the position of the topic in the statistics.
+     * @param terms      the number of terms to keep, {@link #ALL_TERMS} to keep all of them.
+     * @return the query.
+     * @throws IOException              if the document frequencies cannot be read.
+     * @throws IllegalArgumentException if {@code terms} is less than zero.
+     */
+    public Query query(final TermStatistics statistics, final int topic, final int terms) throws IOException {
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Map.Entry<String, Float> e : terms(statistics, topic, terms).entrySet()) {
+            builder.add(AnalyzedQueryBuilder.boostedTerm(field, e.getKey(), e.getValue()), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FeedbackModel(%s, %d document frequencies cached)", field, docFreqs.size());
+    }
+}
@@ -0,0 +1,152 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.run.Qrels;
+import it.unipd.dei.se.search.IdResolver;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the latency and the effectiveness of the relevance feedback queries by number of expansion terms kept for
+ * each topic, against the unpruned queries with all the terms of the judged documents.
+ * <p>
+ * The nDCG is measured against the same judgments the feedback comes from, so it is an upper bound of the
+ * effectiveness on unseen judgments; it is meant to compare the numbers of terms, not to report the effectiveness of
+ * the feedback.
+ */
+public class FeedbackTermsComparison {
+
+    /**
+     * The default numbers of terms compared.
+     */
+    public static final int[] DEFAULT_TERMS = {10, 25, 50, 100, 250, 500, 1000};
+
+    /**
+     * The cutoff of the nDCG.
+     */
+    public static final int NDCG_CUTOFF = 5;
+
+    /**
+     * The maximum number of documents retrieved for each topic, as in the feedback run.
+     */
+    private static final int MAX_DOCS_RETRIEVED = 1000;
+
+    /**
+     * Compares the numbers of terms and prints a table of the results.
+     *
+     * @param indexPath     the directory of the index.
+     * @param qrelsFilePath the qrels file, source of the feedback and of the judgments.
+     * @param terms         the numbers of terms to compare with the unpruned queries, which are all capped at
+     *                      {@link BooleanQuery#getMaxClauseCount()} as the unpruned queries themselves.
+     * @param passes        the number of measured passes over the topics, after a warm-up one.
+     * @throws IOException              if something goes wrong while reading the judgments or searching the index.
+     * @throws IllegalArgumentException if {@code passes} is less than or equal to zero or a number of terms is less
+     *                                  than or equal to zero.
+     */
+    public static void doCompare(final String indexPath, final String qrelsFilePath, final int[] terms,
+                                 final int passes) throws IOException {
+
+        if (passes <= 0) {
+            throw new IllegalArgumentException("The number of passes cannot be less than or equal to zero.");
+        }
+
+        for (int n : terms) {
+            if (n <= 0) {
+                throw new IllegalArgumentException(
+                        "The number of feedback terms cannot be less than or equal to zero.");
+            }
+        }
+
+        System.out.printf("%n#### Start feedback terms comparison ####%n");
+
+        final TermStatistics statistics = RF.getTopicTermStatistics(indexPath, qrelsFilePath, null);
+        final Qrels qrels = Qrels.read(Paths.get(qrelsFilePath));
+
+        // the topics with feedback, the others have an empty query
+        final List<Integer> topics = new ArrayList<>();
+        for (int t = 0; t < statistics.topics(); t++) {
+            if (statistics.size(t) > 0) {
+                topics.add(t);
+            }
+        }
+
+        try (IndexReader reader = IndexShards.open(Paths.get(indexPath))) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            final FeedbackModel model = new FeedbackModel(reader, "contents");
+
+            System.out.printf("%d topic(s) with feedback, %d measured pass(es).%n", topics.size(), passes);
+            System.out.printf(Locale.ENGLISH, "%-8s %10s %10s %12s %12s %10s%n", "terms", "clauses", "build ms",
+                    "mean ms", "p95 ms", "nDCG@" + NDCG_CUTOFF);
+
+            final int[] configurations = new int[terms.length + 1];
+            configurations[0] = FeedbackModel.ALL_TERMS;
+            System.arraycopy(terms, 0, configurations, 1, terms.length);
+
+            for (int n : configurations) {
+
+                // QUERY BUILDING
+                final long buildStart = System.nanoTime();
+                final Query[] queries = new Query[topics.size()];
+                long clauses = 0;
+                for (int t = 0; t < queries.length; t++) {
+                    queries[t] = n == FeedbackModel.ALL_TERMS ? RF.unprunedQuery(statistics, topics.get(t))
+                            : model.query(statistics, topics.get(t), n);
+                    clauses += ((BooleanQuery) queries[t]).clauses().size();
+                }
+                final long buildTime = System.nanoTime() - buildStart;
+
+                // WARM-UP PASS, also measuring the effectiveness
+                double ndcg = 0;
+                for (int t = 0; t < queries.length; t++) {
+                    final TopDocs top = searcher.search(queries[t], MAX_DOCS_RETRIEVED);
+                    final ScoreDoc[] cut = Arrays.copyOf(top.scoreDocs, Math.min(NDCG_CUTOFF, top.scoreDocs.length));
+                    ndcg += qrels.ndcg(String.valueOf(statistics.topic(topics.get(t))), IdResolver.resolve(reader, cut),
+                            NDCG_CUTOFF);
+                }
+
+                // MEASURED PASSES
+                final long[] latencies = new long[passes * queries.length];
+                int l = 0;
+                for (int p = 0; p < passes; p++) {
+                    for (Query query : queries) {
+                        final long start = System.nanoTime();
+                        searcher.search(query, MAX_DOCS_RETRIEVED);
+                        latencies[l++] = System.nanoTime() - start;
+                    }
+                }
+                Arrays.sort(latencies);
+
+                System.out.printf(Locale.ENGLISH, "%-8s %10.1f %10.1f %12.3f %12.3f %10.4f%n",
+                        n == FeedbackModel.ALL_TERMS ? "all" : String.valueOf(n),
+                        queries.length == 0 ? 0.0 : (double) clauses / queries.length, buildTime / 1e6,
+                        latencies.length == 0 ? 0.0 : Arrays.stream(latencies).average().orElse(0) / 1e6,
+                        latencies.length == 0 ? 0.0
+                                : latencies[Math.max(0, (int) Math.ceil(0.95 * latencies.length) - 1)] / 1e6,
+                        queries.length == 0 ? 0.0 : ndcg / queries.length);
+            }
+        }
+
+        System.out.printf("#### Feedback terms comparison complete ####%n");
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments.
+     * @throws Exception if something goes wrong while comparing.
+     */
+    public static void main(String[] args) throws Exception {
+        doCompare("experiment/index", "code/src/main/resource/qrels/example.txt", DEFAULT_TERMS, 5);
+    }
+}
@@ -0,0 +1,207 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Resolves the documents judged in a qrels file and reads their term vectors, all over a single open reader.
+ * <p>
+ * The identifiers are sorted and looked up in one forward pass over the terms of the {@link ParsedDocument.FIELDS#ID}
+ * field of each leaf, instead of one query per judgment; the term vectors are then read in docid order, each document
+ * once however many topics judge it.
+ */
+public class QrelsResolver {
+
+    /**
+     * The terms of a document and their frequencies, in term order.
+     */
+    public static final class TermVector {
+
+        /**
+         * The terms.
+         */
+        private final String[] terms;
+
+        /**
+         * The frequencies of the terms.
+         */
+        private final int[] freqs;
+
+        /**
+         * Creates a new term vector.
+         *
+         * @param terms the terms.
+         * @param freqs the frequencies of the terms.
+         */
+        TermVector(final String[] terms, final int[] freqs) {
+            this.terms = terms;
+            this.freqs = freqs;
+        }
+
+        /**
+         * Returns the number of terms.
+         *
+         * @return the number of terms.
+         */
+        public int size() {
+            return terms.length;
+        }
+
+        /**
+         * Returns a term.
+         *
+         * @param i the position of the term.
+         * @return the term.
+         */
+        public String term(final int i) {
+            return terms[i];
+        }
+
+        /**
+         * Returns the frequency of a term in the document.
+         *
+         * @param i the position of the term.
+         * @return the frequency.
+         */
+        public int freq(final int i) {
+            return freqs[i];
+        }
+
+        /**
+         * Returns the length of the document: the sum of the frequencies of its terms.
+         *
+         * @return the length of the document.
+         */
+        public long length() {
+            long length = 0;
+            for (int freq : freqs) {
+                length += freq;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Returns the documents of the given identifiers. An identifier indexed more than once resolves to its first live
+     * document, the one a search for the identifier ranks first.
+     *
+     * @param reader the reader.
+     * @param ids    the identifiers.
+     * @return the document of each identifier found, by identifier.
+     * @throws IOException if the index cannot be read.
+     */
+    public static Map<String, Integer> resolve(final IndexReader reader, final Collection<String> ids)
+            throws IOException {
+        final Map<String, Integer> docs = new HashMap<>();
+
+        // sorted as the terms of the index, i.e. by their UTF-8 bytes, so that each leaf is visited forward only
+        final TreeSet<BytesRef> sorted = new TreeSet<>();
+        for (String id : ids) {
+            sorted.add(new BytesRef(id));
+        }
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            final Terms terms = leaf.reader().terms(ParsedDocument.FIELDS.ID);
+            if (terms == null) {
+                continue;
+            }
+
+            final TermsEnum te = terms.iterator();
+            final Bits liveDocs = leaf.reader().getLiveDocs();
+            PostingsEnum postings = null;
+
+            for (BytesRef id : sorted) {
+                final String key = id.utf8ToString();
+
+                // the leaves are in docid order, so a document found in a previous leaf comes first
+                if (docs.containsKey(key) || !te.seekExact(id)) {
+                    continue;
+                }
+
+                postings = te.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        docs.put(key, leaf.docBase + doc);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return docs;
+    }
+
+    /**
+     * Returns the term vectors of a field of the given documents, read in docid order.
+     *
+     * @param reader the reader.
+     * @param docs   the documents.
+     * @param field  the field.
+     * @return the term vector of each document with one, by document.
+     * @throws IOException if the index cannot be read.
+     */
+    public static Map<Integer, TermVector> termVectors(final IndexReader reader, final Collection<Integer> docs,
+                                                       final String field) throws IOException {
+        final int[] sorted = docs.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        final Map<Integer, TermVector> vectors = new HashMap<>(sorted.length * 2);
+
+        for (int doc : sorted) {
+            final TermVector vector = termVector(reader, doc, field);
+            if (vector != null) {
+                vectors.put(doc, vector);
+            }
+        }
+
+        return vectors;
+    }
+
+    /**
+     * Returns the term vector of a field of a document.
+     *
+     * @param reader the reader.
+     * @param doc    the document.
+     * @param field  the field.
+     * @return the term vector, {@code null} if the document has none.
+     * @throws IOException if the index cannot be read.
+     */
+    public static TermVector termVector(final IndexReader reader, final int doc, final String field)
+            throws IOException {
+        final List<LeafReaderContext> leaves = reader.leaves();
+        final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        final Terms vector = leaf.reader().getTermVector(doc - leaf.docBase, field);
+        if (vector == null) {
+            return null;
+        }
+
+        final List<String> terms = new ArrayList<>();
+        int[] freqs = new int[16];
+        final TermsEnum te = vector.iterator();
+        for (BytesRef term = te.next(); term != null; term = te.next()) {
+            if (terms.size() == freqs.length) {
+                freqs = Arrays.copyOf(freqs, freqs.length * 2);
+            }
+            // the only document of a term vector: its frequency in the document is its total frequency
+            freqs[terms.size()] = (int) te.totalTermFreq();
+            terms.add(term.utf8ToString());
+        }
+
+        return new TermVector(terms.toArray(new String[0]), Arrays.copyOf(freqs, terms.size()));
+    }
+}
@@ -1,16 +1,11 @@
 package it.unipd.dei.se.rf;
 
-import it.unipd.dei.se.parse.document.ParsedDocument;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.search.AnalyzedQueryBuilder;
+import it.unipd.dei.se.search.IdResolver;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.queryparser.classic.QueryParserBase;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
 import java.nio.file.Paths;
@@ -24,68 +19,59 @@ public class RF {
     }
 
     /**
-     * It takes the index directory path, the output path, the run id, and the qrels file path, and it returns a list of
-     * lists of maps of strings to integers
+     * It takes the index directory path, the output path, the run id, and the qrels file path, and it searches the
+     * topics with the terms of their judged documents. The term statistics of the judged documents are read from the
+     * cache, if any, when neither the index nor the qrels file changed since they were computed
      *
      * @param indexDirectoryPath The path to the directory where the index is stored.
      * @param outputPath The path to the output file.
      * @param runId The name of the run. This will be used to name the output file.
      * @param qrelsFilePath The path to the qrels file.
+     * @param feedbackTerms The number of terms kept for each topic, {@link FeedbackModel#ALL_TERMS} to keep them all.
+     * @param cache The cache of the term statistics, null not to use it.
      */
-    public static void doSearch(String indexDirectoryPath, String outputPath, String runId, String qrelsFilePath) throws IOException, ParseException {
-        List<List<Map<String, Integer>>> termFreq = getTopicTermFrequencies(indexDirectoryPath, qrelsFilePath);
+    public static void doSearch(String indexDirectoryPath, String outputPath, String runId, String qrelsFilePath, int feedbackTerms, TermStatisticsCache cache) throws IOException, ParseException {
+        TermStatistics statistics = getTopicTermStatistics(indexDirectoryPath, qrelsFilePath, cache);
 
-        search(indexDirectoryPath, outputPath, runId, termFreq);
+        search(indexDirectoryPath, outputPath, runId, statistics, feedbackTerms);
     }
 
     /**
-     * It takes in a list of lists of maps, where each list of maps represents a topic, and each map represents a term and
-     * its frequency in that topic. It then searches the index for each topic, and outputs the results to a file
+     * It takes in the term statistics of the judged documents of each topic, by relevance level. It then searches the
+     * index for each topic, and outputs the results to a file
      *
      * @param indexDirectoryPath the path to the directory where the index is stored
      * @param outputPath the path to the folder where the run file will be saved
      * @param runId the name of the run file
-     * @param termFreq a list of lists of maps. Each list of maps represents a topic. Each map represents a term and its
-     * frequency.
+     * @param statistics the frequencies of the terms of the judged documents of each topic, by relevance level.
+     * @param feedbackTerms the number of terms kept for each topic, scored by the {@link FeedbackModel}, or
+     * {@link FeedbackModel#ALL_TERMS} to keep them all.
      */
-    public static void search(String indexDirectoryPath, String outputPath, String runId, List<List<Map<String, Integer>>> termFreq) throws IOException, ParseException {
+    public static void search(String indexDirectoryPath, String outputPath, String runId, TermStatistics statistics, int feedbackTerms) throws IOException {
 
         System.out.printf("%n#### Start searching ####%n");
 
         // the start time of the searching
         final long start = System.currentTimeMillis();
-        final Set<String> idField = new HashSet<>();
-        idField.add(ParsedDocument.FIELDS.ID);
 
-        BooleanQuery.setMaxClauseCount(16384);
-        BooleanQuery.Builder queryBuilder;
         Query query;
         TopDocs topDocsObject;
         ScoreDoc[] topDocs;
-        String docID;
+        String[] docIDs;
 
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexDirectoryPath)));
+        IndexReader reader = IndexShards.open(Paths.get(indexDirectoryPath));
         IndexSearcher searcher = new IndexSearcher(reader);
+        FeedbackModel model = feedbackTerms == FeedbackModel.ALL_TERMS ? null : new FeedbackModel(reader, "contents");
         Writer output = new BufferedWriter(new FileWriter(outputPath + "/" + runId + "_RF.txt"));  //clears file every time
 
         try {
             // SEARCHING
-            for (int i = 0; i < termFreq.size(); i++) {
+            for (int t = 0; t < statistics.topics(); t++) {
 
+                int i = statistics.topic(t);
                 System.out.printf("Searching for topic %s.%n", i);
-                List<Map<String, Integer>> topicRelevance = termFreq.get(i);
-                queryBuilder = new BooleanQuery.Builder();
-                Analyzer analyzer = new StandardAnalyzer();
-                QueryParser queryParser = new QueryParser("contents", analyzer);
-
-                for (int j = 1; j < topicRelevance.size(); j++) {
-                    Map<String, Integer> frequencies = topicRelevance.get(j);
-                    for (String key : frequencies.keySet()) {
-                        queryBuilder.add(queryParser.parse(key + "^" + (frequencies.get(key) * Math.pow(j, 2))), BooleanClause.Occur.SHOULD);
-                    }
-                }
 
-                query = queryBuilder.build();
+                query = model == null ? unprunedQuery(statistics, t) : model.query(statistics, t, feedbackTerms);
                 topDocsObject = searcher.search(query, 1000);
 
                 topDocs = topDocsObject.scoreDocs;
@@ -93,9 +79,9 @@ public class RF {
 
                 // OUTPUT
                 // adding the retrieved documents for this topic to the run file
+                docIDs = IdResolver.resolve(reader, topDocs);
                 for (int m = 0, n = topDocs.length; m < n; m++) {
-                    docID = reader.document(topDocs[m].doc, idField).get(ParsedDocument.FIELDS.ID);
-                    output.append(String.format(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n", i, docID, m + 1, topDocs[m].score,
+                    output.append(String.format(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n", i, docIDs[m], m + 1, topDocs[m].score,
                             runId+"RF"));
                 }
 
@@ -109,78 +95,167 @@ public class RF {
 
         long elapsedTime = System.currentTimeMillis() - start;
 
-        System.out.printf("%d topic(s) searched in %d seconds.%n", termFreq.size(), elapsedTime / 1000);
+        System.out.printf("%d topic(s) searched in %d seconds.%n", statistics.topics(), elapsedTime / 1000);
 
         System.out.printf("#### Searching complete ####%n");
     }
 
     /**
-     * It takes the index directory path and the qrels file path as input, and returns a list of lists of maps. The outer
-     * list has 101 elements, one for each topic. The inner list has 4 elements, one for each relevance level. The map has
-     * the term as the key and the term frequency as the value
+     * Returns the weighted terms of the feedback of a topic, one for each term of each relevance level above zero,
+     * weighted by its frequency times the square of the level. When there are more than {@code maxTerms}, only the
+     * {@code maxTerms} heaviest are kept, ties broken by term, so that the query fits the clause limit of
+     * {@link BooleanQuery} instead of raising it for the whole JVM.
      *
-     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param statistics the frequencies of the terms of the judged documents of each topic, by relevance level.
+     * @param t          the position of the topic in the statistics.
+     * @param maxTerms   the maximum number of terms.
+     * @return the weighted terms, in relevance level order.
+     */
+    static List<Map.Entry<String, Float>> feedbackTerms(TermStatistics statistics, int t, int maxTerms) {
+        List<Map.Entry<String, Float>> terms = new ArrayList<>();
+        for (int j = 1; j <= statistics.levels(); j++) {
+            for (int i = 0; i < statistics.size(t); i++) {
+                int frequency = statistics.freq(t, i, j);
+                if (frequency > 0) {
+                    terms.add(new AbstractMap.SimpleImmutableEntry<>(statistics.term(t, i),
+                            (float) (frequency * Math.pow(j, 2))));
+                }
+            }
+        }
+
+        if (terms.size() <= maxTerms) {
+            return terms;
+        }
+
+        // the lightest terms are dropped, the others keep their order
+        List<Map.Entry<String, Float>> heaviest = new ArrayList<>(terms);
+        heaviest.sort(Map.Entry.<String, Float>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Set<Map.Entry<String, Float>> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(heaviest.subList(0, maxTerms));
+        terms.removeIf(term -> !kept.contains(term));
+
+        System.out.printf("%d feedback term(s) pruned to the %d heaviest.%n", heaviest.size(), maxTerms);
+
+        return terms;
+    }
+
+    /**
+     * It builds the unpruned feedback query of a topic: one clause per term of each relevance level, boosted by its
+     * frequency times the square of the level, as many as {@link BooleanQuery#getMaxClauseCount()} at most
+     *
+     * @param statistics the frequencies of the terms of the judged documents of each topic, by relevance level.
+     * @param t the position of the topic in the statistics.
+     * @return the query.
+     */
+    static Query unprunedQuery(TermStatistics statistics, int t) {
+        BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
+
+        // the terms come from the term vectors, so they are already analyzed and used as they are
+        for (Map.Entry<String, Float> term : feedbackTerms(statistics, t, BooleanQuery.getMaxClauseCount())) {
+            queryBuilder.add(AnalyzedQueryBuilder.boostedTerm("contents", term.getKey(), term.getValue()),
+                    BooleanClause.Occur.SHOULD);
+        }
+
+        return queryBuilder.build();
+    }
+
+    /**
+     * It takes a reader of the index and the qrels file path as input, and returns the term statistics of the judged
+     * documents: for each topic of the qrels file, the frequency of each term in the documents of each relevance level,
+     * summed over the documents
+     *
+     * @param reader The reader of the index.
      * @param qrelsFilePath The path to the qrels file.
-     * @return A list of lists of maps. Each list of maps represents a topic. Each map represents a relevance level. Each
-     * map contains the term frequencies for that relevance level.
+     * @return The term statistics of the topics, sized to the topics and relevance levels of the qrels file.
      */
-    private static List<List<Map<String, Integer>>> getTopicTermFrequencies(String indexDirectoryPath, String qrelsFilePath) throws IOException {
-        List<List<Map<String, Integer>>> topicsRfs = new ArrayList<>();
-        for (int i = 0; i < 101; i++) {
-            List<Map<String, Integer>> relevance = new ArrayList<>();
-            for (int j = 0; j < 4; j++)
-                relevance.add(new HashMap<>());
-            topicsRfs.add(relevance);
+    static TermStatistics getTopicTermStatistics(IndexReader reader, String qrelsFilePath) throws IOException {
+
+        // QRELS READING
+        final long start = System.currentTimeMillis();
+        final List<String[]> judgments = readJudgments(qrelsFilePath);
+
+        // RESOLVING, all the judged documents over a single reader
+        final Set<String> ids = new HashSet<>();
+        for (String[] tokens : judgments) {
+            ids.add(tokens[2]);
         }
 
-        BufferedReader br = new BufferedReader(new FileReader(qrelsFilePath));
-        for (String document; (document = br.readLine()) != null; ) {
-            System.out.println(document);
-            ArrayList<String> tokens = new ArrayList<>(Arrays.asList(document.split(" ")));
-            int topicId = Integer.parseInt(tokens.get(0));
-            String documentID = tokens.get(2);
-            int relevance = Integer.parseInt(tokens.get(3));
-
-            try {
-                Analyzer analyzer = new WhitespaceAnalyzer();
-                System.out.printf("Searching for topic %s.%n", topicId);
-
-                BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
-                QueryParser queryParser = new QueryParser("id", analyzer);
-
-                queryBuilder.add(queryParser.parse(QueryParserBase.escape(String.valueOf(documentID))), BooleanClause.Occur.MUST);
-
-                BooleanQuery query = queryBuilder.build();
-                IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexDirectoryPath)));
-                IndexSearcher searcher = new IndexSearcher(reader);
-
-                TopDocs topDocsObject = searcher.search(query, 1);
-
-                ScoreDoc[] topDocs = topDocsObject.scoreDocs;
-                int doc;
-                if (topDocs[0] != null)
-                    doc = topDocs[0].doc;
-                else continue;
-
-
-                Terms termVector = reader.getTermVector(doc, "contents");
-                TermsEnum iterator = termVector.iterator();
-                BytesRef term;
-                PostingsEnum postings = null;
-                while ((term = iterator.next()) != null) {
-                    String termText = term.utf8ToString();
-                    postings = iterator.postings(postings, PostingsEnum.FREQS);
-                    postings.nextDoc();
-                    int freq = postings.freq();
-                    topicsRfs.get(topicId).get(relevance).put(termText, freq);
-                }
+        final Map<String, Integer> docs = QrelsResolver.resolve(reader, ids);
+        final Map<Integer, QrelsResolver.TermVector> vectors = QrelsResolver.termVectors(reader, docs.values(),
+                "contents");
 
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
+        // the frequencies of the documents judged for the same topic and relevance are summed
+        final TermStatistics.Builder builder = new TermStatistics.Builder();
+        for (String[] tokens : judgments) {
+            int topicId = Integer.parseInt(tokens[0]);
+            int relevance = Integer.parseInt(tokens[3]);
+
+            Integer doc = docs.get(tokens[2]);
+            QrelsResolver.TermVector vector = doc == null ? null : vectors.get(doc);
+            if (vector == null)
+                continue;
+
+            builder.add(topicId, relevance, vector);
         }
 
+        final TermStatistics statistics = builder.build();
+
+        System.out.printf("%d judgment(s) of %d document(s) resolved in %d ms, %d document(s) not found: %s.%n",
+                judgments.size(), ids.size(), System.currentTimeMillis() - start, ids.size() - docs.size(),
+                statistics);
+
+        return statistics;
+    }
+
+    /**
+     * It takes the index directory path and the qrels file path as input, and returns the term statistics of the judged
+     * documents, as {@link #getTopicTermStatistics(IndexReader, String)} does. With a cache, they are read from it if
+     * they are there for the current version of the index and the current content of the qrels file, and put there
+     * otherwise
+     *
+     * @param indexDirectoryPath The path to the directory where the index is stored.
+     * @param qrelsFilePath The path to the qrels file.
+     * @param cache The cache of the term statistics, null not to use it.
+     * @return The term statistics of the topics, sized to the topics and relevance levels of the qrels file.
+     */
+    static TermStatistics getTopicTermStatistics(String indexDirectoryPath, String qrelsFilePath, TermStatisticsCache cache) throws IOException {
+        final long start = System.currentTimeMillis();
 
-        return topicsRfs;
+        // the key is the version of the index the statistics are computed over, whatever is committed meanwhile
+        try (IndexReader reader = IndexShards.open(Paths.get(indexDirectoryPath))) {
+            if (cache == null) {
+                return getTopicTermStatistics(reader, qrelsFilePath);
+            }
+
+            final String key = TermStatisticsCache.key(reader, Paths.get(qrelsFilePath));
+
+            TermStatistics statistics = cache.get(Paths.get(indexDirectoryPath), Paths.get(qrelsFilePath), key);
+            if (statistics != null) {
+                System.out.printf("Term statistics read from the %s in %d ms: %s.%n", cache,
+                        System.currentTimeMillis() - start, statistics);
+                return statistics;
+            }
+
+            statistics = getTopicTermStatistics(reader, qrelsFilePath);
+            cache.put(Paths.get(indexDirectoryPath), Paths.get(qrelsFilePath), key, statistics);
+            System.out.printf("Term statistics written to the %s.%n", cache);
+            return statistics;
+        }
+    }
+
+    /**
+     * It reads the judgments of a qrels file, one array of tokens (topic, iteration, document, relevance) per line
+     *
+     * @param qrelsFilePath The path to the qrels file.
+     * @return The judgments, in the order of the file.
+     */
+    static List<String[]> readJudgments(String qrelsFilePath) throws IOException {
+        final List<String[]> judgments = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(qrelsFilePath))) {
+            for (String document; (document = br.readLine()) != null; ) {
+                judgments.add(document.split(" "));
+            }
+        }
+        return judgments;
     }
 }
\ No newline at end of file
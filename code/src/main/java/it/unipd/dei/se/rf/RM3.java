@@ -0,0 +1,334 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.filter.Filter;
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import it.unipd.dei.se.parse.topic.ParsedTopic;
+import it.unipd.dei.se.parse.topic.XMLTopicParser;
+import it.unipd.dei.se.run.DocIdDictionary;
+import it.unipd.dei.se.run.RunBuffer;
+import it.unipd.dei.se.search.AnalyzedQueryBuilder;
+import it.unipd.dei.se.search.IdResolver;
+import it.unipd.dei.se.search.Searcher;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pseudo-relevance feedback with RM3, which needs no judgments: the top documents of a first pass are assumed to be
+ * relevant, and the topic is searched again with its query expanded with their best terms.
+ * <p>
+ * The expansion model weighs each term of the feedback documents by its frequency in each document, relative to the
+ * length of the document, and by the score of the document, relative to the scores of the feedback documents (RM1);
+ * the best terms are kept and interpolated with the original query (RM3). The first pass builds the query of a topic
+ * as a {@link Searcher} does; the term vectors of the feedback documents are read once, and reused by every topic
+ * whose feedback documents include them. The topics are searched in parallel over a single reader.
+ */
+public class RM3 {
+
+    /**
+     * The default number of feedback documents.
+     */
+    public static final int DEFAULT_FEEDBACK_DOCS = 10;
+
+    /**
+     * The default number of expansion terms.
+     */
+    public static final int DEFAULT_FEEDBACK_TERMS = 10;
+
+    /**
+     * The default weight of the original query, the expansion terms have the rest.
+     */
+    public static final float DEFAULT_ORIGINAL_QUERY_WEIGHT = 0.5F;
+
+    /**
+     * The maximum number of documents retrieved for each topic by the second pass.
+     */
+    private static final int MAX_DOCS_RETRIEVED = 1000;
+
+    /**
+     * The field of the expansion terms. It is the only field indexed with term vectors, see {@code BodyField}, so the
+     * expansion terms are searched in it alone, while the original query also searches the other fields of a
+     * {@link Searcher}.
+     */
+    private static final String FIELD = ParsedDocument.FIELDS.CONTENTS;
+
+    /**
+     * Searches the topics with pseudo-relevance feedback and writes the run, printing the time spent in each phase.
+     *
+     * @param indexPath           the path to the index.
+     * @param topicsFile          the file containing the topics.
+     * @param runID               the identifier of the run, also the name of its file.
+     * @param runPath             the directory where the run is written.
+     * @param stopWordsFilePath   the path to the stop words file.
+     * @param filter              whether to use the filter or not, in both passes.
+     * @param similarity          the similarity.
+     * @param threads             the number of topics searched at the same time.
+     * @param feedbackDocs        the number of feedback documents.
+     * @param feedbackTerms       the number of expansion terms.
+     * @param originalQueryWeight the weight of the original query, between 0 and 1.
+     * @return the run.
+     * @throws IOException              if something goes wrong while searching or writing the run.
+     * @throws IllegalArgumentException if any of the numbers is less than or equal to zero, or
+     *                                  {@code originalQueryWeight} is not between 0 and 1.
+     */
+    public static RunBuffer doSearch(final String indexPath, final String topicsFile, final String runID,
+                               final String runPath, final String stopWordsFilePath, final boolean filter,
+                               final Similarity similarity, final int threads, final int feedbackDocs,
+                               final int feedbackTerms, final float originalQueryWeight) throws IOException {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of search threads cannot be less than or equal to zero.");
+        }
+
+        if (feedbackDocs <= 0) {
+            throw new IllegalArgumentException("The number of feedback documents cannot be less than or equal to zero.");
+        }
+
+        if (feedbackTerms <= 0) {
+            throw new IllegalArgumentException("The number of feedback terms cannot be less than or equal to zero.");
+        }
+
+        if (originalQueryWeight < 0 || originalQueryWeight > 1) {
+            throw new IllegalArgumentException("The weight of the original query must be between 0 and 1.");
+        }
+
+        final Path runDir = Paths.get(runPath);
+        if (!Files.isDirectory(runDir) || !Files.isWritable(runDir)) {
+            throw new IllegalArgumentException(
+                    String.format("Run directory %s cannot be written.", runDir.toAbsolutePath()));
+        }
+
+        System.out.printf("%n#### Start pseudo-relevance feedback ####%n");
+
+        final long start = System.currentTimeMillis();
+
+        // TOPICS READING AND PARSING
+        final List<ParsedTopic> topics = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            new XMLTopicParser(in).forEachRemaining(topics::add);
+        }
+
+        // the same analyzer and fields as a searcher
+        final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(Searcher.buildAnalyzer(stopWordsFilePath),
+                Map.of(ParsedDocument.FIELDS.CONTENTS, 1.0F, ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F));
+
+        final RunBuffer result = new RunBuffer(runID, new DocIdDictionary());
+        final Map<Integer, QrelsResolver.TermVector> vectors = new ConcurrentHashMap<>();
+
+        final LongAdder firstPassTime = new LongAdder();
+        final LongAdder vectorsTime = new LongAdder();
+        final LongAdder modelTime = new LongAdder();
+        final LongAdder secondPassTime = new LongAdder();
+        final LongAdder vectorsRead = new LongAdder();
+        final LongAdder vectorsReused = new LongAdder();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try (IndexReader reader = IndexShards.open(Paths.get(indexPath))) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(similarity);
+
+            final List<Future<?>> results = new ArrayList<>(topics.size());
+
+            for (ParsedTopic topic : topics) {
+                // reserve the place of the topic, so that topics keep their order whatever the order they end in
+                result.put(topic.getNumber(), new int[0], new float[0]);
+
+                results.add(pool.submit(() -> {
+
+                    // FIRST PASS
+                    long phaseStart = System.nanoTime();
+                    final Query original = Searcher.buildQuery(topic, filter, builder);
+                    final ScoreDoc[] feedback = searcher.search(original, feedbackDocs).scoreDocs;
+                    firstPassTime.add(System.nanoTime() - phaseStart);
+
+                    // TERM VECTORS, read once for all the topics
+                    phaseStart = System.nanoTime();
+                    final QrelsResolver.TermVector[] docs = new QrelsResolver.TermVector[feedback.length];
+                    for (int i = 0; i < feedback.length; i++) {
+                        docs[i] = vectors.get(feedback[i].doc);
+                        if (docs[i] == null) {
+                            docs[i] = QrelsResolver.termVector(reader, feedback[i].doc, FIELD);
+                            if (docs[i] != null) {
+                                vectors.put(feedback[i].doc, docs[i]);
+                            }
+                            vectorsRead.increment();
+                        } else {
+                            vectorsReused.increment();
+                        }
+                    }
+                    vectorsTime.add(System.nanoTime() - phaseStart);
+
+                    // EXPANSION MODEL
+                    phaseStart = System.nanoTime();
+                    final Query expanded = expand(topic, builder, filter, feedback, docs, feedbackTerms,
+                            originalQueryWeight);
+                    modelTime.add(System.nanoTime() - phaseStart);
+
+                    // SECOND PASS
+                    phaseStart = System.nanoTime();
+                    final ScoreDoc[] hits = searcher.search(expanded, MAX_DOCS_RETRIEVED).scoreDocs;
+                    final float[] scores = new float[hits.length];
+                    for (int i = 0; i < hits.length; i++) {
+                        scores[i] = hits[i].score;
+                    }
+                    result.put(topic.getNumber(), result.getDictionary().ordinals(IdResolver.resolve(reader, hits)),
+                            scores);
+                    secondPassTime.add(System.nanoTime() - phaseStart);
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> r : results) {
+                r.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to search the topics.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final Path runFile = runDir.resolve(runID + ".txt");
+        result.write(runFile);
+
+        final long elapsedTime = System.currentTimeMillis() - start;
+
+        System.out.printf("%d topic(s) searched in %d ms on %d thread(s), %d feedback document(s) and %d expansion "
+                + "term(s) per topic.%n", topics.size(), elapsedTime, threads, feedbackDocs, feedbackTerms);
+        System.out.printf("Time summed over the topics: first pass %d ms, term vectors %d ms (%d read, %d reused), "
+                        + "expansion model %d ms, second pass %d ms.%n", firstPassTime.sum() / 1_000_000,
+                vectorsTime.sum() / 1_000_000, vectorsRead.sum(), vectorsReused.sum(), modelTime.sum() / 1_000_000,
+                secondPassTime.sum() / 1_000_000);
+        System.out.printf("The feedback costs %.1f times the first pass alone.%n", firstPassTime.sum() == 0 ? 0.0
+                : (double) (firstPassTime.sum() + vectorsTime.sum() + modelTime.sum() + secondPassTime.sum())
+                / firstPassTime.sum());
+        System.out.printf("Run written to %s.%n", runFile.toAbsolutePath());
+        System.out.printf("#### Pseudo-relevance feedback complete ####%n");
+
+        return result;
+    }
+
+    /**
+     * Returns the expanded query of a topic: the original query and the best terms of the feedback documents,
+     * interpolated.
+     * <p>
+     * When filtering, the objects are required by the expanded query as a whole, so that the expansion terms cannot
+     * bring in documents without them; they keep the weight they have in the original query, and are searched once.
+     *
+     * @param topic               the topic.
+     * @param builder             the query builder of the original query.
+     * @param filter              whether the original query uses the filter or not.
+     * @param feedback            the feedback documents.
+     * @param docs                the term vectors of the feedback documents, {@code null} where missing.
+     * @param feedbackTerms       the number of expansion terms.
+     * @param originalQueryWeight the weight of the original query.
+     * @return the expanded query.
+     */
+    private static Query expand(final ParsedTopic topic, final AnalyzedQueryBuilder builder,
+                                final boolean filter, final ScoreDoc[] feedback,
+                                final QrelsResolver.TermVector[] docs, final int feedbackTerms,
+                                final float originalQueryWeight) {
+
+        double totalScore = 0;
+        for (ScoreDoc sd : feedback) {
+            totalScore += sd.score;
+        }
+
+        // RM1: the frequency of a term relative to the length of each document, weighted by the score of the document
+        final Map<String, Double> weights = new HashMap<>();
+        for (int i = 0; i < docs.length; i++) {
+            if (docs[i] == null || totalScore == 0) {
+                continue;
+            }
+
+            final double docWeight = feedback[i].score / totalScore;
+            final double length = docs[i].length();
+            for (int t = 0; t < docs[i].size(); t++) {
+                weights.merge(docs[i].term(t), docWeight * docs[i].freq(t) / length, Double::sum);
+            }
+        }
+
+        // the best terms, ties broken by term to be deterministic
+        final PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(feedbackTerms + 1,
+                Comparator.<Map.Entry<String, Double>>comparingDouble(Map.Entry::getValue)
+                        .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()));
+        for (Map.Entry<String, Double> e : weights.entrySet()) {
+            best.add(e);
+            if (best.size() > feedbackTerms) {
+                best.poll();
+            }
+        }
+
+        double total = 0;
+        for (Map.Entry<String, Double> e : best) {
+            total += e.getValue();
+        }
+
+        final BooleanQuery.Builder expansion = new BooleanQuery.Builder();
+        for (Map.Entry<String, Double> e : best) {
+            expansion.add(AnalyzedQueryBuilder.boostedTerm(FIELD, e.getKey(), (float) (e.getValue() / total)),
+                    BooleanClause.Occur.SHOULD);
+        }
+
+        // RM3: the weight of each original term, as that of the expansion terms, sums to one
+        final float originalBoost = originalQueryWeight / Math.max(1, builder.analyze(topic.getTitle()).size());
+        final BooleanQuery.Builder expanded = new BooleanQuery.Builder();
+
+        // the original query as a Searcher builds it, split: the objects required by the whole query, and the title
+        if (filter) {
+            final BooleanQuery objects = Filter.filterAnd(topic.getObjects(), builder).build();
+            if (!objects.clauses().isEmpty()) {
+                expanded.add(new BoostQuery(objects, originalBoost), BooleanClause.Occur.MUST);
+            }
+        }
+        expanded.add(new BoostQuery(builder.text(topic.getTitle()), originalBoost), BooleanClause.Occur.SHOULD);
+        expanded.add(new BoostQuery(expansion.build(), 1 - originalQueryWeight), BooleanClause.Occur.SHOULD);
+
+        return expanded.build();
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments.
+     * @throws Exception if something goes wrong while searching.
+     */
+    public static void main(String[] args) throws Exception {
+        doSearch("experiment/index", "code/src/main/resource/topics-task2.xml", "seupd2122-kueri-rm3", "runs",
+                "lucene.txt", false, new BM25Similarity(), Runtime.getRuntime().availableProcessors(),
+                DEFAULT_FEEDBACK_DOCS, DEFAULT_FEEDBACK_TERMS, DEFAULT_ORIGINAL_QUERY_WEIGHT);
+    }
+}
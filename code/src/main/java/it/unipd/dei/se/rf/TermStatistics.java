@@ -0,0 +1,463 @@
+package it.unipd.dei.se.rf;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The frequencies of the terms of the judged documents, by topic and relevance level, in primitive arrays.
+ * <p>
+ * The terms are numbered in a dictionary shared by the topics. Each topic keeps the ordinals of its terms, ascending,
+ * the frequency of each term at each relevance level, summed over all the documents judged at that level, and its
+ * relevance: the frequencies weighted by the square of the level. Only the topics and the levels found in the
+ * judgments are kept, and only the positive levels have terms, the non-relevant documents having no weight in the
+ * feedback.
+ * <p>
+ * It is immutable, so it can be used by several threads at the same time.
+ */
+public class TermStatistics {
+
+    /**
+     * Collects the judged documents and builds their statistics.
+     */
+    public static final class Builder {
+
+        /**
+         * The topic of each judgment.
+         */
+        private int[] topics = new int[64];
+
+        /**
+         * The relevance of each judgment.
+         */
+        private int[] relevances = new int[64];
+
+        /**
+         * The term vector of the document of each judgment.
+         */
+        private final List<QrelsResolver.TermVector> vectors = new ArrayList<>();
+
+        /**
+         * Adds a judgment.
+         *
+         * @param topic     the topic.
+         * @param relevance the relevance of the document for the topic.
+         * @param vector    the term vector of the document.
+         * @return this builder.
+         * @throws NullPointerException     if {@code vector} is {@code null}.
+         * @throws IllegalArgumentException if {@code topic} is less than zero.
+         */
+        public Builder add(final int topic, final int relevance, final QrelsResolver.TermVector vector) {
+
+            if (vector == null) {
+                throw new NullPointerException("Term vector cannot be null.");
+            }
+
+            if (topic < 0) {
+                throw new IllegalArgumentException("Topic cannot be less than zero.");
+            }
+
+            final int i = vectors.size();
+            if (i == topics.length) {
+                topics = Arrays.copyOf(topics, i * 2);
+                relevances = Arrays.copyOf(relevances, i * 2);
+            }
+
+            topics[i] = topic;
+            relevances[i] = relevance;
+            vectors.add(vector);
+            return this;
+        }
+
+        /**
+         * Builds the statistics of the judgments added so far.
+         *
+         * @return the statistics.
+         */
+        public TermStatistics build() {
+            final int n = vectors.size();
+
+            // the judgments grouped by topic, each in the order it was added
+            final long[] order = new long[n];
+            int levels = 0;
+            for (int i = 0; i < n; i++) {
+                order[i] = (long) topics[i] << 32 | i;
+                levels = Math.max(levels, relevances[i]);
+            }
+            Arrays.sort(order);
+
+            // the dictionary, and the ordinals of each term vector, read once however many topics judge its document
+            final Map<String, Integer> dictionary = new HashMap<>();
+            final Map<QrelsResolver.TermVector, int[]> vectorOrdinals = new IdentityHashMap<>();
+            for (int i = 0; i < n; i++) {
+                final QrelsResolver.TermVector vector = vectors.get(i);
+                if (relevances[i] <= 0 || vectorOrdinals.containsKey(vector)) {
+                    continue;
+                }
+
+                final int[] ordinals = new int[vector.size()];
+                for (int k = 0; k < ordinals.length; k++) {
+                    ordinals[k] = dictionary.computeIfAbsent(vector.term(k), t -> dictionary.size());
+                }
+                vectorOrdinals.put(vector, ordinals);
+            }
+
+            final String[] terms = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> e : dictionary.entrySet()) {
+                terms[e.getValue()] = e.getKey();
+            }
+
+            final int[] topicIds = Arrays.stream(topics, 0, n).distinct().sorted().toArray();
+            final int[][] ordinals = new int[topicIds.length][];
+            final int[][] freqs = new int[topicIds.length][];
+            final float[][] relevance = new float[topicIds.length][];
+
+            // the frequencies of the current topic by term and level, and the terms of the topic, found by their stamp
+            final int[] scratch = new int[terms.length * levels];
+            final int[] stamps = new int[terms.length];
+            int[] touched = new int[64];
+
+            int j = 0;
+            for (int t = 0; t < topicIds.length; t++) {
+                int count = 0;
+
+                for (; j < n && order[j] >>> 32 == topicIds[t]; j++) {
+                    final int i = (int) order[j];
+                    final int level = relevances[i];
+                    if (level <= 0) {
+                        continue;
+                    }
+
+                    final QrelsResolver.TermVector vector = vectors.get(i);
+                    final int[] documentOrdinals = vectorOrdinals.get(vector);
+                    for (int k = 0; k < documentOrdinals.length; k++) {
+                        final int ord = documentOrdinals[k];
+                        if (stamps[ord] != t + 1) {
+                            stamps[ord] = t + 1;
+                            if (count == touched.length) {
+                                touched = Arrays.copyOf(touched, count * 2);
+                            }
+                            touched[count++] = ord;
+                        }
+                        // summed over the documents: a term found in several documents counts in each of them
+                        scratch[ord * levels + level - 1] += vector.freq(k);
+                    }
+                }
+
+                Arrays.sort(touched, 0, count);
+                ordinals[t] = Arrays.copyOf(touched, count);
+                freqs[t] = new int[count * levels];
+                relevance[t] = new float[count];
+
+                for (int k = 0; k < count; k++) {
+                    final int base = touched[k] * levels;
+                    for (int l = 0; l < levels; l++) {
+                        freqs[t][k * levels + l] = scratch[base + l];
+                        scratch[base + l] = 0;
+                    }
+                    relevance[t][k] = relevance(freqs[t], k, levels);
+                }
+            }
+
+            return new TermStatistics(terms, topicIds, levels, ordinals, freqs, relevance);
+        }
+    }
+
+    /**
+     * The terms, by ordinal.
+     */
+    private final String[] terms;
+
+    /**
+     * The topics, ascending.
+     */
+    private final int[] topics;
+
+    /**
+     * The highest relevance level.
+     */
+    private final int levels;
+
+    /**
+     * The ordinals of the terms of each topic, ascending.
+     */
+    private final int[][] ordinals;
+
+    /**
+     * The frequencies of the terms of each topic, one row of {@link #levels} levels per term, from level 1.
+     */
+    private final int[][] freqs;
+
+    /**
+     * The relevance of the terms of each topic.
+     */
+    private final float[][] relevance;
+
+    /**
+     * Creates new term statistics.
+     *
+     * @param terms     the terms, by ordinal.
+     * @param topics    the topics, ascending.
+     * @param levels    the highest relevance level.
+     * @param ordinals  the ordinals of the terms of each topic, ascending.
+     * @param freqs     the frequencies of the terms of each topic, one row of levels per term.
+     * @param relevance the relevance of the terms of each topic.
+     */
+    private TermStatistics(final String[] terms, final int[] topics, final int levels, final int[][] ordinals,
+                           final int[][] freqs, final float[][] relevance) {
+        this.terms = terms;
+        this.topics = topics;
+        this.levels = levels;
+        this.ordinals = ordinals;
+        this.freqs = freqs;
+        this.relevance = relevance;
+    }
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}, computing the relevance of the terms again.
+     *
+     * @param in the input.
+     * @return the statistics.
+     * @throws IOException if the statistics cannot be read.
+     */
+    public static TermStatistics read(final DataInput in) throws IOException {
+        final String[] terms = new String[in.readVInt()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = in.readString();
+        }
+
+        final int levels = in.readVInt();
+        final int[] topics = new int[in.readVInt()];
+        final int[][] ordinals = new int[topics.length][];
+        final int[][] freqs = new int[topics.length][];
+        final float[][] relevance = new float[topics.length][];
+
+        for (int t = 0; t < topics.length; t++) {
+            topics[t] = in.readVInt();
+            ordinals[t] = new int[in.readVInt()];
+            freqs[t] = new int[ordinals[t].length * levels];
+            relevance[t] = new float[ordinals[t].length];
+
+            int ord = 0;
+            for (int k = 0; k < ordinals[t].length; k++) {
+                ord += in.readVInt();
+                if (ord >= terms.length) {
+                    throw new CorruptIndexException(String.format("Term ordinal %d beyond the %d term(s).", ord,
+                            terms.length), in);
+                }
+                ordinals[t][k] = ord;
+
+                for (int l = 0; l < levels; l++) {
+                    freqs[t][k * levels + l] = in.readVInt();
+                }
+                relevance[t][k] = relevance(freqs[t], k, levels);
+            }
+        }
+
+        return new TermStatistics(terms, topics, levels, ordinals, freqs, relevance);
+    }
+
+    /**
+     * Writes the statistics: the dictionary, then the terms of each topic as gaps between their ordinals, each followed
+     * by its frequencies by level, all as variable-length integers. The relevance is not written, so that it can be
+     * weighted differently when the statistics are read again.
+     *
+     * @param out the output.
+     * @throws IOException if the statistics cannot be written.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeVInt(terms.length);
+        for (String term : terms) {
+            out.writeString(term);
+        }
+
+        out.writeVInt(levels);
+        out.writeVInt(topics.length);
+        for (int t = 0; t < topics.length; t++) {
+            out.writeVInt(topics[t]);
+            out.writeVInt(ordinals[t].length);
+
+            int previous = 0;
+            for (int k = 0; k < ordinals[t].length; k++) {
+                out.writeVInt(ordinals[t][k] - previous);
+                previous = ordinals[t][k];
+
+                for (int l = 0; l < levels; l++) {
+                    out.writeVInt(freqs[t][k * levels + l]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the relevance of a term: its frequency at each level, weighted by the square of the level.
+     *
+     * @param freqs  the frequencies of the terms of a topic, one row of levels per term.
+     * @param k      the position of the term in the topic.
+     * @param levels the number of levels.
+     * @return the relevance.
+     */
+    private static float relevance(final int[] freqs, final int k, final int levels) {
+        double r = 0;
+        for (int l = 0; l < levels; l++) {
+            r += freqs[k * levels + l] * Math.pow(l + 1, 2);
+        }
+        return (float) r;
+    }
+
+    /**
+     * Returns the number of topics.
+     *
+     * @return the number of topics.
+     */
+    public int topics() {
+        return topics.length;
+    }
+
+    /**
+     * Returns a topic.
+     *
+     * @param t the position of the topic, the topics being ascending.
+     * @return the topic.
+     */
+    public int topic(final int t) {
+        return topics[t];
+    }
+
+    /**
+     * Returns the highest relevance level of the judgments.
+     *
+     * @return the highest relevance level, {@code 0} if no document is relevant.
+     */
+    public int levels() {
+        return levels;
+    }
+
+    /**
+     * Returns the number of distinct terms of all the topics.
+     *
+     * @return the number of terms of the dictionary.
+     */
+    public int terms() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the number of terms of a topic.
+     *
+     * @param t the position of the topic.
+     * @return the number of terms, {@code 0} if the topic has no relevant document.
+     */
+    public int size(final int t) {
+        return ordinals[t].length;
+    }
+
+    /**
+     * Returns a term of a topic.
+     *
+     * @param t the position of the topic.
+     * @param i the position of the term in the topic.
+     * @return the term.
+     */
+    public String term(final int t, final int i) {
+        return terms[ordinals[t][i]];
+    }
+
+    /**
+     * Returns the ordinal of a term of a topic in the dictionary.
+     *
+     * @param t the position of the topic.
+     * @param i the position of the term in the topic.
+     * @return the ordinal.
+     */
+    public int ordinal(final int t, final int i) {
+        return ordinals[t][i];
+    }
+
+    /**
+     * Returns the frequency of a term of a topic in the documents of a relevance level.
+     *
+     * @param t     the position of the topic.
+     * @param i     the position of the term in the topic.
+     * @param level the relevance level.
+     * @return the frequency, summed over the documents of the level.
+     * @throws IllegalArgumentException if {@code level} is not between 1 and {@link #levels()}.
+     */
+    public int freq(final int t, final int i, final int level) {
+
+        if (level < 1 || level > levels) {
+            throw new IllegalArgumentException(
+                    String.format("Relevance level %d is not between 1 and %d.", level, levels));
+        }
+
+        return freqs[t][i * levels + level - 1];
+    }
+
+    /**
+     * Returns the relevance of a term of a topic: its frequency at each level, weighted by the square of the level.
+     *
+     * @param t the position of the topic.
+     * @param i the position of the term in the topic.
+     * @return the relevance.
+     */
+    public float relevance(final int t, final int i) {
+        return relevance[t][i];
+    }
+
+    /**
+     * Returns the number of frequencies kept, one per term of each topic.
+     *
+     * @return the number of frequencies.
+     */
+    public long entries() {
+        long entries = 0;
+        for (int[] o : ordinals) {
+            entries += o.length;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the memory used by the text of the terms of the dictionary.
+     *
+     * @return the memory used, in bytes.
+     */
+    public long termsRamBytesUsed() {
+        long bytes = RamUsageEstimator.shallowSizeOf(terms);
+        for (String term : terms) {
+            bytes += RamUsageEstimator.sizeOf(term);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the memory used by the statistics, the text of the terms included.
+     *
+     * @return the memory used, in bytes.
+     */
+    public long ramBytesUsed() {
+        long bytes = RamUsageEstimator.shallowSizeOfInstance(TermStatistics.class) + termsRamBytesUsed()
+                + RamUsageEstimator.sizeOf(topics) + RamUsageEstimator.shallowSizeOf(ordinals)
+                + RamUsageEstimator.shallowSizeOf(freqs) + RamUsageEstimator.shallowSizeOf(relevance);
+        for (int t = 0; t < topics.length; t++) {
+            bytes += RamUsageEstimator.sizeOf(ordinals[t]) + RamUsageEstimator.sizeOf(freqs[t])
+                    + RamUsageEstimator.sizeOf(relevance[t]);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TermStatistics(%d topic(s), %d level(s), %d term(s), %d frequencies, %d KB)",
+                topics.length, levels, terms.length, entries(), ramBytesUsed() / 1024);
+    }
+}
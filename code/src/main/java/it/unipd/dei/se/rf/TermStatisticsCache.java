@@ -0,0 +1,212 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.search.QueryResultCache;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexFormatTooNewException;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk cache of the {@link TermStatistics} of the judged documents, so that relevance feedback runs over the
+ * same index and judgments, e.g. to tune the boosts of the feedback terms, go straight to the queries instead of
+ * reading the term vectors again.
+ * <p>
+ * There is one file per index and qrels file, named after their paths. It is framed by the header and the checksum
+ * footer of Lucene's {@link CodecUtil}, and starts with the key it was written for: the version of the index read (see
+ * {@link IndexShards#version(IndexReader)}) and the checksum of the qrels file. A file with another key, another
+ * format or a wrong checksum is a miss, and it is replaced by the statistics computed again.
+ * <p>
+ * It can be used by several threads at the same time.
+ */
+public class TermStatisticsCache {
+
+    /**
+     * The default directory of the cache.
+     */
+    public static final String DEFAULT_CACHE_DIR = "experiment/rf-cache";
+
+    /**
+     * The extension of the cache files.
+     */
+    private static final String EXTENSION = ".termstats";
+
+    /**
+     * The name of the format of the cache files, in their header.
+     */
+    private static final String CODEC = "TermStatisticsCache";
+
+    /**
+     * The version of the format of the cache files.
+     */
+    private static final int VERSION = 0;
+
+    /**
+     * The field of the term vectors of the statistics.
+     */
+    private static final String FIELD = "contents";
+
+    /**
+     * The directory of the cache.
+     */
+    private final Path cacheDir;
+
+    /**
+     * Opens a cache.
+     *
+     * @param cacheDir the directory of the cache, which can be shared by several indexes and qrels files.
+     * @throws NullPointerException     if {@code cacheDir} is {@code null}.
+     * @throws IllegalArgumentException if the cache directory cannot be created.
+     */
+    public TermStatisticsCache(final Path cacheDir) {
+
+        if (cacheDir == null) {
+            throw new NullPointerException("Cache directory cannot be null.");
+        }
+
+        try {
+            Files.createDirectories(cacheDir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to create the term statistics cache directory %s: "
+                    + "%s.", cacheDir.toAbsolutePath(), e.getMessage()), e);
+        }
+
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the key of the statistics of the index read by a reader and of a qrels file. The statistics must be
+     * computed over the same reader, so that they match the key even if the index is committed in the meantime.
+     *
+     * @param reader    the reader of the index, opened by {@link IndexShards#open(Path)}.
+     * @param qrelsFile the qrels file.
+     * @return the key.
+     * @throws IOException if the qrels file cannot be read.
+     */
+    public static String key(final IndexReader reader, final Path qrelsFile) throws IOException {
+        return "index=" + IndexShards.version(reader) + "\nqrels=" + checksum(qrelsFile)
+                + "\nfield=" + FIELD;
+    }
+
+    /**
+     * Returns the cached statistics of an index and a qrels file.
+     *
+     * @param indexDir  the directory of the index.
+     * @param qrelsFile the qrels file.
+     * @param key       the key of the statistics, see {@link #key(IndexReader, Path)}.
+     * @return the statistics, or {@code null} if they are not in the cache, were written for another key or the cache
+     * file is corrupted.
+     * @throws IOException if the cache file exists but cannot be read.
+     */
+    public TermStatistics get(final Path indexDir, final Path qrelsFile, final String key) throws IOException {
+        final String name = name(indexDir, qrelsFile);
+
+        try (Directory directory = FSDirectory.open(cacheDir)) {
+            // the whole file is checked first, so that a corrupted one is never decoded
+            try (IndexInput in = directory.openInput(name, IOContext.READONCE)) {
+                CodecUtil.checksumEntireFile(in);
+            }
+
+            try (ChecksumIndexInput in = directory.openChecksumInput(name, IOContext.READONCE)) {
+                CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+
+                // a file of another index version or of other judgments is a miss
+                if (!key.equals(in.readString())) {
+                    return null;
+                }
+
+                final TermStatistics statistics = TermStatistics.read(in);
+                CodecUtil.checkFooter(in);
+                return statistics;
+            }
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        } catch (CorruptIndexException | IndexFormatTooOldException | IndexFormatTooNewException | EOFException e) {
+            // a file truncated by an interrupted run or of another format, it is replaced by the next put
+            return null;
+        }
+    }
+
+    /**
+     * Puts the statistics of an index and a qrels file into the cache, replacing any previous ones.
+     *
+     * @param indexDir   the directory of the index.
+     * @param qrelsFile  the qrels file.
+     * @param key        the key of the statistics, see {@link #key(IndexReader, Path)}.
+     * @param statistics the statistics.
+     * @throws IOException if the cache file cannot be written.
+     */
+    public void put(final Path indexDir, final Path qrelsFile, final String key, final TermStatistics statistics)
+            throws IOException {
+
+        try (Directory directory = FSDirectory.open(cacheDir)) {
+            // written aside and moved into place, so that readers never see a partial file
+            String tmp = null;
+            try {
+                try (IndexOutput out = directory.createTempOutput("termstats", "", IOContext.DEFAULT)) {
+                    tmp = out.getName();
+                    CodecUtil.writeHeader(out, CODEC, VERSION);
+                    out.writeString(key);
+                    statistics.write(out);
+                    CodecUtil.writeFooter(out);
+                }
+                directory.sync(Set.of(tmp));
+
+                Files.move(cacheDir.resolve(tmp), cacheDir.resolve(name(indexDir, qrelsFile)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+            } finally {
+                if (tmp != null) {
+                    Files.deleteIfExists(cacheDir.resolve(tmp));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("term statistics cache: %s", cacheDir.toAbsolutePath());
+    }
+
+    /**
+     * Returns the checksum of the content of a qrels file.
+     *
+     * @param qrelsFile the qrels file.
+     * @return the checksum of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String checksum(final Path qrelsFile) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(qrelsFile));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Returns the name of the cache file of an index and a qrels file.
+     *
+     * @param indexDir  the directory of the index.
+     * @param qrelsFile the qrels file.
+     * @return the name of the cache file.
+     */
+    private static String name(final Path indexDir, final Path qrelsFile) {
+        return QueryResultCache.digest(indexDir.toAbsolutePath().normalize() + "\n"
+                + qrelsFile.toAbsolutePath().normalize()).substring(0, 16) + EXTENSION;
+    }
+}
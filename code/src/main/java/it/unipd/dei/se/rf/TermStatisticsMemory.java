@@ -0,0 +1,223 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.index.IndexShards;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the memory of the {@link TermStatistics} of the judged documents with that of the maps they replace: a
+ * list of 101 topics of 4 relevance levels, each a map from the text of a term to its boxed frequency, where each
+ * document overwrote the frequencies of the terms already seen for the same topic and level.
+ * <p>
+ * The memory is estimated from the layout of the objects, as a heap measure would be blurred by the term vectors held
+ * by both. The text of the terms is reported apart: the maps share the strings of the term vectors, the statistics
+ * keep one string per term of their dictionary.
+ */
+public class TermStatisticsMemory {
+
+    /**
+     * The number of topics of the maps.
+     */
+    private static final int MAP_TOPICS = 101;
+
+    /**
+     * The number of relevance levels of the maps.
+     */
+    private static final int MAP_LEVELS = 4;
+
+    /**
+     * The memory of an entry of a {@link HashMap}: header, hash, key, value and next references.
+     */
+    private static final long HASH_MAP_NODE = RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + Integer.BYTES + 3L * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+
+    /**
+     * Builds both structures from the judgments of a qrels file and prints their memory.
+     *
+     * @param indexPath     the directory of the index.
+     * @param qrelsFilePath the qrels file.
+     * @throws IOException if something goes wrong while reading the judgments or the index.
+     */
+    public static void doReport(final String indexPath, final String qrelsFilePath) throws IOException {
+
+        System.out.printf("%n#### Start term statistics memory report ####%n");
+
+        final List<String[]> judgments = RF.readJudgments(qrelsFilePath);
+
+        try (IndexReader reader = IndexShards.open(Paths.get(indexPath))) {
+            final Set<String> ids = new HashSet<>();
+            for (String[] tokens : judgments) {
+                ids.add(tokens[2]);
+            }
+
+            final Map<String, Integer> docs = QrelsResolver.resolve(reader, ids);
+            final Map<Integer, QrelsResolver.TermVector> vectors = QrelsResolver.termVectors(reader, docs.values(),
+                    "contents");
+
+            // THE MAPS, as they were filled
+            long start = System.nanoTime();
+            final List<List<Map<String, Integer>>> maps = new ArrayList<>();
+            for (int i = 0; i < MAP_TOPICS; i++) {
+                final List<Map<String, Integer>> relevance = new ArrayList<>();
+                for (int j = 0; j < MAP_LEVELS; j++) {
+                    relevance.add(new HashMap<>());
+                }
+                maps.add(relevance);
+            }
+
+            long overwritten = 0;
+            int outOfRange = 0;
+            for (String[] tokens : judgments) {
+                final QrelsResolver.TermVector vector = vector(tokens, docs, vectors);
+                if (vector == null) {
+                    continue;
+                }
+
+                // the maps cannot hold the topics and levels beyond their size
+                final int topic = Integer.parseInt(tokens[0]);
+                final int level = Integer.parseInt(tokens[3]);
+                if (topic < 0 || topic >= MAP_TOPICS || level < 0 || level >= MAP_LEVELS) {
+                    outOfRange++;
+                    continue;
+                }
+
+                final Map<String, Integer> frequencies = maps.get(topic).get(level);
+                for (int t = 0; t < vector.size(); t++) {
+                    if (frequencies.put(vector.term(t), vector.freq(t)) != null) {
+                        overwritten++;
+                    }
+                }
+            }
+            final long mapsTime = System.nanoTime() - start;
+
+            // THE STATISTICS
+            start = System.nanoTime();
+            final TermStatistics.Builder builder = new TermStatistics.Builder();
+            for (String[] tokens : judgments) {
+                final QrelsResolver.TermVector vector = vector(tokens, docs, vectors);
+                if (vector != null) {
+                    builder.add(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[3]), vector);
+                }
+            }
+            final TermStatistics statistics = builder.build();
+            final long statisticsTime = System.nanoTime() - start;
+
+            // the strings of the maps, counted once however many maps share them
+            final Set<String> strings = Collections.newSetFromMap(new IdentityHashMap<>());
+            long entries = 0;
+            long mapsBytes = sizeOfList(maps.size());
+            for (List<Map<String, Integer>> topic : maps) {
+                mapsBytes += sizeOfList(topic.size());
+                for (Map<String, Integer> frequencies : topic) {
+                    mapsBytes += sizeOfMap(frequencies);
+                    entries += frequencies.size();
+                    strings.addAll(frequencies.keySet());
+                }
+            }
+            long mapsStrings = 0;
+            for (String s : strings) {
+                mapsStrings += RamUsageEstimator.sizeOf(s);
+            }
+
+            final long statisticsStrings = statistics.termsRamBytesUsed();
+            final long statisticsBytes = statistics.ramBytesUsed() - statisticsStrings;
+
+            System.out.printf("%d judgment(s), %d document(s) with a term vector, %d judgment(s) beyond the maps.%n",
+                    judgments.size(), vectors.size(), outOfRange);
+            System.out.printf("%-12s %12s %12s %12s %12s %10s%n", "structure", "entries", "KB", "strings KB",
+                    "total KB", "build ms");
+            System.out.printf("%-12s %12d %12d %12d %12d %10.1f%n", "maps", entries, mapsBytes / 1024,
+                    mapsStrings / 1024, (mapsBytes + mapsStrings) / 1024, mapsTime / 1e6);
+            System.out.printf("%-12s %12d %12d %12d %12d %10.1f%n", "statistics", statistics.entries(),
+                    statisticsBytes / 1024, statisticsStrings / 1024, (statisticsBytes + statisticsStrings) / 1024,
+                    statisticsTime / 1e6);
+            System.out.printf("The statistics use %.1f%% of the memory of the maps, strings excluded; the maps lost "
+                            + "%d frequencies overwritten by a later document of the same topic and level.%n",
+                    mapsBytes == 0 ? 0.0 : 100.0 * statisticsBytes / mapsBytes, overwritten);
+        }
+
+        System.out.printf("#### Term statistics memory report complete ####%n");
+    }
+
+    /**
+     * Returns the term vector of the document of a judgment.
+     *
+     * @param tokens  the judgment.
+     * @param docs    the documents, by identifier.
+     * @param vectors the term vectors, by document.
+     * @return the term vector, {@code null} if the document is not found or has none.
+     */
+    private static QrelsResolver.TermVector vector(final String[] tokens, final Map<String, Integer> docs,
+                                                   final Map<Integer, QrelsResolver.TermVector> vectors) {
+        final Integer doc = docs.get(tokens[2]);
+        return doc == null ? null : vectors.get(doc);
+    }
+
+    /**
+     * Returns the memory of an {@link ArrayList} filled by adding its elements one by one, without the elements.
+     *
+     * @param size the number of elements.
+     * @return the memory, in bytes.
+     */
+    private static long sizeOfList(final int size) {
+        long bytes = RamUsageEstimator.shallowSizeOfInstance(ArrayList.class);
+        if (size > 0) {
+            int capacity = 10;
+            while (capacity < size) {
+                capacity += capacity >> 1;
+            }
+            bytes += RamUsageEstimator.alignObjectSize(
+                    RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) capacity * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the memory of a {@link HashMap} from strings to integers filled by putting its entries one by one, without
+     * the strings. The integers outside the cache of {@link Integer#valueOf(int)} are boxed in their own object.
+     *
+     * @param map the map.
+     * @return the memory, in bytes.
+     */
+    private static long sizeOfMap(final Map<String, Integer> map) {
+        long bytes = RamUsageEstimator.shallowSizeOfInstance(HashMap.class);
+        if (!map.isEmpty()) {
+            int capacity = 16;
+            while (map.size() > capacity * 0.75) {
+                capacity *= 2;
+            }
+            bytes += RamUsageEstimator.alignObjectSize(
+                    RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) capacity * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+            bytes += map.size() * HASH_MAP_NODE;
+
+            final long boxed = RamUsageEstimator.shallowSizeOfInstance(Integer.class);
+            for (int value : map.values()) {
+                if (value < -128 || value > 127) {
+                    bytes += boxed;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments.
+     * @throws Exception if something goes wrong while reporting.
+     */
+    public static void main(String[] args) throws Exception {
+        doReport("experiment/index", "code/src/main/resource/qrels/example.txt");
+    }
+}
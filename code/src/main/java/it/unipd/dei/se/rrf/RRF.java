@@ -1,5 +1,8 @@
 package it.unipd.dei.se.rrf;
 
+import it.unipd.dei.se.run.DocIdDictionary;
+import it.unipd.dei.se.run.RunBuffer;
+
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -8,6 +11,17 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class RRF {
+
+    /**
+     * The constant added to the ranks.
+     */
+    public static final int K = 30;
+
+    /**
+     * The maximum number of documents fused for each topic.
+     */
+    public static final int MAX_DOCS = 1000;
+
     public static void main(String[] args) throws IOException {
         doSearch(null, null);
     }
@@ -20,112 +34,112 @@ public class RRF {
      * @param runId The name of the run.
      */
     public static void doSearch(String documentDirectoryPath, String runId) throws IOException {
-        List<String> runs = Files.walk(Paths.get(documentDirectoryPath))
+        List<Path> runFiles = Files.walk(Paths.get(documentDirectoryPath))
                 //use to string here, otherwise checking for path segments
                 .filter(p -> p.toString().endsWith(".txt"))
-                .map(Path::toString)
                 .collect(Collectors.toList());
 
-        int k = 30;
-        List<Map<String, Double>> rrfs = new ArrayList<>();
-        for (int i = 0; i < 101; i++)
-            rrfs.add(new HashMap<>());
-
-        runs.forEach(run -> {
-            try (BufferedReader br = new BufferedReader(new FileReader(run))) {
-                for (String document; (document = br.readLine()) != null; ) {
-                    System.out.println(document);
-                    ArrayList<String> tokens = new ArrayList<>(Arrays.asList(document.split(" ")));
-                    Map<String, Double> map = rrfs.get(Integer.parseInt(tokens.get(0)));
-                    map.put(tokens.get(2), rff(k, Double.parseDouble(tokens.get(3))) + map.getOrDefault(tokens.get(2), 0.0));
-                }
-                // line is not visible here.
+        // all the runs share the same ordinals, so they can be fused by ordinal
+        DocIdDictionary dictionary = new DocIdDictionary();
+        List<RunBuffer> runs = new ArrayList<>();
+        for (Path run : runFiles) {
+            try {
+                runs.add(RunBuffer.read(run, run.getFileName().toString(), dictionary));
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
-
-        List<List<KeyScorePair>> scores = new ArrayList<>();
-        for (int i = 0; i < 101; i++)
-            scores.add(new ArrayList<>());
-
-        for (int i = 0; i < rrfs.size(); i++) {
-            List<KeyScorePair> ofTopic = scores.get(i);
-            for (Map.Entry<String, Double> entry : rrfs.get(i).entrySet()) {
-                ofTopic.add(new KeyScorePair(entry.getKey(), entry.getValue()));
-            }
-            ofTopic.sort(new CustomComparator());
         }
 
         //String outPath = String.format("runs/rrf_%s.txt", String.join("_", runs.stream().map(path -> path.split("\\\\")[1].replace(".txt", "")).collect(Collectors.toList())));
         String outPath = String.format("runs/rrf.txt");
-        try (Writer output = new BufferedWriter(new FileWriter(outPath))) {
-            for (int i = 0; i < scores.size(); i++) {
-                List<KeyScorePair> score = scores.get(i);
-                for (int j = 0; j < score.size() && j < 1000; j++) {
-                    output.append(
-                            String.format(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n",
-                                    i,
-                                    score.get(j).getKey(),
-                                    j + 1,
-                                    score.get(j).getScore(),
-                                    runId));
-                }
-            }
-
+        try {
+            fuse(runs, runId, K, MAX_DOCS).write(Paths.get(outPath));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * > The function takes in a rank and a k value and returns the reciprocal of the rank plus the k value
+     * Fuses runs in memory: each document gets, for each run retrieving it, the reciprocal of {@code k} plus its rank,
+     * and the documents of each topic are sorted by the sum of these scores.
      *
-     * @param k the damping factor
-     * @param rank The rank of the document in the search results.
-     * @return The return value is the reciprocal of the sum of the constant k and the rank.
+     * @param runs the runs to fuse, which must share the same {@code DocIdDictionary}.
+     * @param runId the identifier of the fused run.
+     * @param k the constant added to the ranks.
+     * @param maxDocs the maximum number of documents kept for each topic.
+     * @return the fused run, with the topics sorted by number.
+     * @throws IllegalArgumentException if there are no runs or they do not share the same dictionary.
      */
-    private static double rff(double k, double rank) {
-        return 1 / (k + rank);
-    }
-
-    /**
-     * It's a simple class that holds a key and a score
-     */
-    private static class KeyScorePair {
-        private String key;
-        private Double score;
-
-        public KeyScorePair(String key, Double score) {
-            this.key = key;
-            this.score = score;
+    public static RunBuffer fuse(List<RunBuffer> runs, String runId, int k, int maxDocs) {
+        if (runs.isEmpty()) {
+            throw new IllegalArgumentException("No run to fuse.");
         }
 
-        public String getKey() {
-            return key;
+        final DocIdDictionary dictionary = runs.get(0).getDictionary();
+        final Set<String> topicSet = new LinkedHashSet<>();
+        for (RunBuffer run : runs) {
+            if (run.getDictionary() != dictionary) {
+                throw new IllegalArgumentException("The runs to fuse must share the same document identifier dictionary.");
+            }
+            topicSet.addAll(run.topics());
         }
 
-        public void setKey(String key) {
-            this.key = key;
+        // collect the topics into a run only to sort them as the other stages do
+        final RunBuffer topicsOnly = new RunBuffer(runId, dictionary);
+        for (String topic : topicSet) {
+            topicsOnly.put(topic, new int[0], new float[0]);
         }
 
-        public Double getScore() {
-            return score;
-        }
+        final RunBuffer fused = new RunBuffer(runId, dictionary);
+
+        // the sums, by ordinal, and the ordinals summed for the current topic
+        final double[] sums = new double[dictionary.size()];
+        final int[] touched = new int[dictionary.size()];
+
+        for (String topic : topicsOnly.sortedTopics()) {
+            int n = 0;
+            for (RunBuffer run : runs) {
+                final int[] docs = run.docs(topic);
+                for (int rank = 0; rank < docs.length; rank++) {
+                    if (sums[docs[rank]] == 0) {
+                        touched[n++] = docs[rank];
+                    }
+                    sums[docs[rank]] += rff(k, rank + 1);
+                }
+            }
+
+            // sort the ordinals by decreasing score, ties by first appearance
+            final Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = touched[i];
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(sums[b], sums[a]));
+
+            final int size = Math.min(n, maxDocs);
+            final int[] docs = new int[size];
+            final float[] scores = new float[size];
+            for (int i = 0; i < size; i++) {
+                docs[i] = order[i];
+                scores[i] = (float) sums[order[i]];
+            }
+            fused.put(topic, docs, scores);
 
-        public void setScore(Double score) {
-            this.score = score;
+            for (int i = 0; i < n; i++) {
+                sums[touched[i]] = 0;
+            }
         }
+
+        return fused;
     }
 
     /**
-     * This class implements the Comparator interface and overrides the compare method to sort the KeyScorePair objects in
-     * descending order of their score.
+     * > The function takes in a rank and a k value and returns the reciprocal of the rank plus the k value
+     *
+     * @param k the damping factor
+     * @param rank The rank of the document in the search results.
+     * @return The return value is the reciprocal of the sum of the constant k and the rank.
      */
-    public static class CustomComparator implements Comparator<KeyScorePair> {
-        @Override
-        public int compare(KeyScorePair o1, KeyScorePair o2) {
-            return o2.getScore().compareTo(o1.getScore());
-        }
+    private static double rff(double k, double rank) {
+        return 1 / (k + rank);
     }
 }
@@ -0,0 +1,89 @@
+package it.unipd.dei.se.run;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a dense ordinal to each document identifier, so that {@link RunBuffer}s can hold the retrieved documents as
+ * primitive arrays of ordinals. The runs fused or compared together must share the same dictionary.
+ * <p>
+ * It can be used by several threads at the same time.
+ */
+public class DocIdDictionary {
+
+    /**
+     * The ordinals, by document identifier.
+     */
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    /**
+     * The document identifiers, by ordinal.
+     */
+    private String[] ids = new String[1024];
+
+    /**
+     * Returns the ordinal of a document identifier, assigning it the next one if it has none yet.
+     *
+     * @param id the document identifier.
+     * @return the ordinal of the identifier.
+     * @throws NullPointerException if {@code id} is {@code null}.
+     */
+    public synchronized int ordinal(final String id) {
+
+        if (id == null) {
+            throw new NullPointerException("Document identifier cannot be null.");
+        }
+
+        final Integer ordinal = ordinals.get(id);
+        if (ordinal != null) {
+            return ordinal;
+        }
+
+        final int next = ordinals.size();
+        if (next == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[next] = id;
+        ordinals.put(id, next);
+
+        return next;
+    }
+
+    /**
+     * Returns the ordinals of document identifiers, assigning new ones where needed.
+     *
+     * @param ids the document identifiers.
+     * @return the ordinals of the identifiers, in the same order.
+     */
+    public synchronized int[] ordinals(final String[] ids) {
+        final int[] ordinals = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ordinals[i] = ordinal(ids[i]);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Returns the document identifier of an ordinal.
+     *
+     * @param ordinal the ordinal.
+     * @return the document identifier.
+     * @throws IndexOutOfBoundsException if no identifier has the given ordinal.
+     */
+    public synchronized String id(final int ordinal) {
+        if (ordinal < 0 || ordinal >= ordinals.size()) {
+            throw new IndexOutOfBoundsException(String.format("No document identifier has ordinal %d.", ordinal));
+        }
+        return ids[ordinal];
+    }
+
+    /**
+     * Returns the number of document identifiers with an ordinal.
+     *
+     * @return the number of document identifiers.
+     */
+    public synchronized int size() {
+        return ordinals.size();
+    }
+}
@@ -0,0 +1,109 @@
+package it.unipd.dei.se.run;
+
+import it.unipd.dei.se.argument_quality.ArgumentQualityReranker;
+import it.unipd.dei.se.rrf.RRF;
+import it.unipd.dei.se.search.Searcher;
+import it.unipd.dei.se.search.SearchOptions;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chains the stages of an experiment in memory: the topics are searched with BM25, LM Dirichlet and TF-IDF, each run
+ * is reranked with the argument quality scores, if any, and the runs are fused with RRF. The runs are handed from one
+ * stage to the next as {@link RunBuffer}s sharing one {@link DocIdDictionary}, and only the fused run is written to a
+ * file.
+ */
+public class Pipeline {
+
+    /**
+     * The default file of the argument quality scores.
+     */
+    public static final String DEFAULT_SCORES_FILE = "./document_quality_scores/scores.txt";
+
+    /**
+     * Searches, reranks and fuses, printing the time taken by each stage.
+     *
+     * @param indexPath         the path to the index.
+     * @param runId             the identifier of the fused run, also the name of its file.
+     * @param runPath           the directory where the fused run is written.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param filter            whether to use the filter or not.
+     * @param options           the options of the searches, e.g. the number of topics searched at the same time.
+     * @param scoresFilePath    the file of the argument quality scores; if it does not exist, runs are not reranked.
+     * @return the fused run.
+     * @throws IOException    if something goes wrong while searching or writing the run.
+     * @throws ParseException if a topic cannot be parsed.
+     */
+    public static RunBuffer doPipeline(String indexPath, String runId, String runPath, String stopWordsFilePath,
+                                       boolean filter, SearchOptions options, String scoresFilePath)
+            throws IOException, ParseException {
+
+        final DocIdDictionary dictionary = new DocIdDictionary();
+        final Similarity[] similarities = {new BM25Similarity(), new LMDirichletSimilarity(), new ClassicSimilarity()};
+
+        System.out.printf("%n#### Start pipeline ####%n");
+
+        // SEARCHING
+        long start = System.currentTimeMillis();
+        List<RunBuffer> runs = new ArrayList<>();
+        for (Similarity similarity : similarities) {
+            runs.add(Searcher.create(indexPath, runId, runPath, stopWordsFilePath, filter, similarity, options)
+                    .searchRun(filter, dictionary));
+        }
+        final long searchTime = System.currentTimeMillis() - start;
+
+        // RERANKING
+        start = System.currentTimeMillis();
+        final Path scoresFile = Paths.get(scoresFilePath);
+        if (Files.exists(scoresFile)) {
+            final Map<String, Float> scores = ArgumentQualityReranker.retrieveScoresFromFile(scoresFilePath);
+            final List<RunBuffer> reranked = new ArrayList<>(runs.size());
+            for (RunBuffer run : runs) {
+                reranked.add(ArgumentQualityReranker.rerank(run, run.getRunId() + "_reranked", scores));
+            }
+            runs = reranked;
+        } else {
+            System.out.printf("No argument quality scores in %s: runs not reranked.%n", scoresFile.toAbsolutePath());
+        }
+        final long rerankTime = System.currentTimeMillis() - start;
+
+        // FUSING
+        start = System.currentTimeMillis();
+        final RunBuffer fused = RRF.fuse(runs, runId, RRF.K, RRF.MAX_DOCS);
+        final long fuseTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        final Path runFile = Paths.get(runPath, runId + ".txt");
+        fused.write(runFile);
+        final long writeTime = System.currentTimeMillis() - start;
+
+        System.out.printf("Searched %d run(s) in %d ms, reranked in %d ms, fused in %d ms, written in %d ms.%n",
+                runs.size(), searchTime, rerankTime, fuseTime, writeTime);
+        System.out.printf("%d document(s) written to %s.%n", fused.size(), runFile.toAbsolutePath());
+        System.out.printf("#### Pipeline complete ####%n");
+
+        return fused;
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments.
+     * @throws Exception if something goes wrong while running the pipeline.
+     */
+    public static void main(String[] args) throws Exception {
+        doPipeline("experiment/index", "seupd2122-kueri-pipeline", "runs", "lucene.txt", false,
+                new SearchOptions.Builder().threads(4).build(), DEFAULT_SCORES_FILE);
+    }
+}
@@ -0,0 +1,127 @@
+package it.unipd.dei.se.run;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The relevance judgments of a qrels file ({@code topic iteration document relevance}), to evaluate rankings in
+ * memory.
+ * <p>
+ * It can be used by several threads at the same time.
+ */
+public class Qrels {
+
+    /**
+     * The relevance of the judged documents, by topic and document identifier.
+     */
+    private final Map<String, Map<String, Integer>> judgments;
+
+    /**
+     * Creates new relevance judgments.
+     *
+     * @param judgments the relevance of the judged documents, by topic and document identifier.
+     */
+    private Qrels(final Map<String, Map<String, Integer>> judgments) {
+        this.judgments = judgments;
+    }
+
+    /**
+     * Reads a qrels file.
+     *
+     * @param file the qrels file.
+     * @return the relevance judgments.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if a line of the file is not a judgment.
+     */
+    public static Qrels read(final Path file) throws IOException {
+        final Map<String, Map<String, Integer>> judgments = new LinkedHashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length != 4) {
+                    throw new IllegalArgumentException(String.format("Invalid judgment in %s: %s.", file, line));
+                }
+
+                judgments.computeIfAbsent(tokens[0], k -> new HashMap<>()).put(tokens[2], Integer.parseInt(tokens[3]));
+            }
+        }
+
+        return new Qrels(judgments);
+    }
+
+    /**
+     * Returns the judged topics.
+     *
+     * @return the topics, in the order of the file.
+     */
+    public Set<String> topics() {
+        return Collections.unmodifiableSet(judgments.keySet());
+    }
+
+    /**
+     * Returns the relevance of a document for a topic.
+     *
+     * @param topic the topic.
+     * @param id    the document identifier.
+     * @return the relevance, {@code 0} if the document is not judged.
+     */
+    public int relevance(final String topic, final String id) {
+        return judgments.getOrDefault(topic, Map.of()).getOrDefault(id, 0);
+    }
+
+    /**
+     * Returns the nDCG of a ranking at a cutoff, with the relevance as gain as in {@code trec_eval}.
+     *
+     * @param topic   the topic.
+     * @param ranking the document identifiers, best first.
+     * @param k       the cutoff.
+     * @return the nDCG, {@code 0} if the topic has no relevant document.
+     */
+    public double ndcg(final String topic, final String[] ranking, final int k) {
+        double dcg = 0;
+        for (int i = 0; i < Math.min(k, ranking.length); i++) {
+            dcg += Math.max(0, relevance(topic, ranking[i])) / log2(i + 2);
+        }
+
+        final int[] ideal = judgments.getOrDefault(topic, Map.of()).values().stream().mapToInt(Integer::intValue)
+                .filter(r -> r > 0).toArray();
+        Arrays.sort(ideal);
+
+        double idcg = 0;
+        for (int i = 0; i < Math.min(k, ideal.length); i++) {
+            idcg += ideal[ideal.length - 1 - i] / log2(i + 2);
+        }
+
+        return idcg == 0 ? 0 : dcg / idcg;
+    }
+
+    /**
+     * Returns the base 2 logarithm of a number.
+     *
+     * @param x the number.
+     * @return the logarithm.
+     */
+    private static double log2(final double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Qrels(%d topic(s), %d judgment(s))", judgments.size(),
+                judgments.values().stream().mapToInt(Map::size).sum());
+    }
+}
@@ -0,0 +1,306 @@
+package it.unipd.dei.se.run;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The documents retrieved for each topic, in rank order, kept in memory so that the stages of an experiment (search,
+ * reranking, fusion) can hand them to each other without writing and parsing TREC run files in between.
+ * <p>
+ * The documents of a topic are a primitive array of ordinals of a {@link DocIdDictionary} and a parallel array of
+ * scores; topics are kept in the order they were added. A run is written in TREC format only at the end:
+ * <pre>
+ * topic Q0 document rank score run-id
+ * </pre>
+ */
+public class RunBuffer {
+
+    /**
+     * The documents retrieved for a topic.
+     */
+    private static final class Ranking {
+
+        /**
+         * The ordinals of the documents, in rank order.
+         */
+        private final int[] docs;
+
+        /**
+         * The scores of the documents, in rank order.
+         */
+        private final float[] scores;
+
+        /**
+         * Creates a new ranking.
+         *
+         * @param docs   the ordinals of the documents, in rank order.
+         * @param scores the scores of the documents, in rank order.
+         */
+        private Ranking(final int[] docs, final float[] scores) {
+            this.docs = docs;
+            this.scores = scores;
+        }
+    }
+
+    /**
+     * The identifier of the run.
+     */
+    private final String runId;
+
+    /**
+     * The dictionary of the document ordinals.
+     */
+    private final DocIdDictionary dictionary;
+
+    /**
+     * The rankings, by topic, in the order they were added.
+     */
+    private final Map<String, Ranking> rankings = new LinkedHashMap<>();
+
+    /**
+     * Creates a new, empty, run.
+     *
+     * @param runId      the identifier of the run.
+     * @param dictionary the dictionary of the document ordinals.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if {@code runId} is empty.
+     */
+    public RunBuffer(final String runId, final DocIdDictionary dictionary) {
+
+        if (runId == null) {
+            throw new NullPointerException("Run identifier cannot be null.");
+        }
+
+        if (runId.isEmpty()) {
+            throw new IllegalArgumentException("Run identifier cannot be empty.");
+        }
+
+        if (dictionary == null) {
+            throw new NullPointerException("Document identifier dictionary cannot be null.");
+        }
+
+        this.runId = runId;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Sets the documents retrieved for a topic, replacing any previous ones. The arrays are kept, not copied.
+     *
+     * @param topic  the topic.
+     * @param docs   the ordinals of the documents, in rank order.
+     * @param scores the scores of the documents, in rank order.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if {@code docs} and {@code scores} have different lengths.
+     */
+    public synchronized void put(final String topic, final int[] docs, final float[] scores) {
+
+        if (topic == null) {
+            throw new NullPointerException("Topic cannot be null.");
+        }
+
+        if (docs == null || scores == null) {
+            throw new NullPointerException("Documents and scores cannot be null.");
+        }
+
+        if (docs.length != scores.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Topic %s has %d document(s) but %d score(s).", topic, docs.length, scores.length));
+        }
+
+        rankings.put(topic, new Ranking(docs, scores));
+    }
+
+    /**
+     * Returns the identifier of the run.
+     *
+     * @return the identifier of the run.
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Returns the dictionary of the document ordinals.
+     *
+     * @return the dictionary of the document ordinals.
+     */
+    public DocIdDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the topics of the run, in the order they were added.
+     *
+     * @return the topics.
+     */
+    public synchronized List<String> topics() {
+        return new ArrayList<>(rankings.keySet());
+    }
+
+    /**
+     * Returns the topics of the run sorted by number, topics which are not numbers coming last in lexicographic order.
+     *
+     * @return the sorted topics.
+     */
+    public List<String> sortedTopics() {
+        final List<String> topics = topics();
+        topics.sort((a, b) -> {
+            final boolean na = !a.isEmpty() && a.chars().allMatch(Character::isDigit);
+            final boolean nb = !b.isEmpty() && b.chars().allMatch(Character::isDigit);
+            if (na && nb) {
+                return Long.compare(Long.parseLong(a), Long.parseLong(b));
+            }
+            return na ? -1 : nb ? 1 : a.compareTo(b);
+        });
+        return topics;
+    }
+
+    /**
+     * Returns the ordinals of the documents retrieved for a topic, in rank order. The array must not be modified.
+     *
+     * @param topic the topic.
+     * @return the ordinals of the documents, empty if the topic is not in the run.
+     */
+    public synchronized int[] docs(final String topic) {
+        final Ranking r = rankings.get(topic);
+        return r == null ? new int[0] : r.docs;
+    }
+
+    /**
+     * Returns the scores of the documents retrieved for a topic, in rank order. The array must not be modified.
+     *
+     * @param topic the topic.
+     * @return the scores of the documents, empty if the topic is not in the run.
+     */
+    public synchronized float[] scores(final String topic) {
+        final Ranking r = rankings.get(topic);
+        return r == null ? new float[0] : r.scores;
+    }
+
+    /**
+     * Returns the total number of retrieved documents, over all the topics.
+     *
+     * @return the number of retrieved documents.
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (Ranking r : rankings.values()) {
+            size += r.docs.length;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the lines of the run file for a topic.
+     *
+     * @param topic the topic.
+     * @return the lines for the topic, empty if the topic is not in the run.
+     */
+    public String format(final String topic) {
+        final int[] docs = docs(topic);
+        final float[] scores = scores(topic);
+
+        final StringBuilder lines = new StringBuilder(docs.length * 64);
+        try (Formatter formatter = new Formatter(lines, Locale.ENGLISH)) {
+            for (int i = 0; i < docs.length; i++) {
+                formatter.format("%s Q0 %s %d %.6f %s%n", topic, dictionary.id(docs[i]), i + 1, scores[i], runId);
+            }
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Writes the run in TREC format.
+     *
+     * @param out the writer.
+     */
+    public void write(final PrintWriter out) {
+        for (String topic : topics()) {
+            out.print(format(topic));
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the run in TREC format into a file, replacing it if it exists.
+     *
+     * @param file the run file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(final Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            write(out);
+        }
+    }
+
+    /**
+     * Reads a run file in TREC format. Topics keep the order of their first line; documents keep the order of the file,
+     * which is expected to be the rank order.
+     *
+     * @param file       the run file.
+     * @param runId      the identifier of the run read.
+     * @param dictionary the dictionary of the document ordinals.
+     * @return the run.
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static RunBuffer read(final Path file, final String runId, final DocIdDictionary dictionary)
+            throws IOException {
+        final RunBuffer run = new RunBuffer(runId, dictionary);
+
+        final Map<String, int[]> docs = new LinkedHashMap<>();
+        final Map<String, float[]> scores = new LinkedHashMap<>();
+        final Map<String, Integer> sizes = new LinkedHashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final String[] parts = line.trim().split("\\s+");
+                if (parts.length < 5) {
+                    throw new IOException(String.format("Malformed line in run %s: %s.", file.toAbsolutePath(), line));
+                }
+
+                final String topic = parts[0];
+                final int n = sizes.getOrDefault(topic, 0);
+
+                int[] d = docs.get(topic);
+                float[] s = scores.get(topic);
+                if (d == null || n == d.length) {
+                    d = d == null ? new int[1024] : Arrays.copyOf(d, d.length * 2);
+                    s = s == null ? new float[1024] : Arrays.copyOf(s, s.length * 2);
+                    docs.put(topic, d);
+                    scores.put(topic, s);
+                }
+
+                try {
+                    s[n] = Float.parseFloat(parts[4]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Malformed score in run %s: %s.", file.toAbsolutePath(), line),
+                            e);
+                }
+                d[n] = dictionary.ordinal(parts[2]);
+                sizes.put(topic, n + 1);
+            }
+        }
+
+        for (Map.Entry<String, Integer> e : sizes.entrySet()) {
+            run.put(e.getKey(), Arrays.copyOf(docs.get(e.getKey()), e.getValue()),
+                    Arrays.copyOf(scores.get(e.getKey()), e.getValue()));
+        }
+
+        return run;
+    }
+}
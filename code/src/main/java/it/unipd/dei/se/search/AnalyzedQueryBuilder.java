@@ -0,0 +1,155 @@
+package it.unipd.dei.se.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds queries from text by running the analyzer once and creating the {@code TermQuery}, {@code BoostQuery} and
+ * {@code BooleanQuery} objects directly, without escaping the text and parsing it again with the classic query parser.
+ * <p>
+ * The queries have the same structure, and so the same scores, as those of a {@code MultiFieldQueryParser} parsing the
+ * escaped text with the default {@code OR} operator: one {@code SHOULD} clause per token, which, when searching more
+ * than one field, is a disjunction of the token in each field boosted by the weight of the field. The text is analyzed
+ * once, with the first field, so all the fields are expected to share the analyzer.
+ * <p>
+ * Unlike a query parser, it can be used by several threads at the same time.
+ */
+public class AnalyzedQueryBuilder {
+
+    /**
+     * The analyzer of the text.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The fields searched, and their weights.
+     */
+    private final Map<String, Float> fieldsWeights;
+
+    /**
+     * The field the text is analyzed with.
+     */
+    private final String analysisField;
+
+    /**
+     * Creates a new query builder.
+     *
+     * @param analyzer      the analyzer of the text.
+     * @param fieldsWeights the fields searched, and their weights. If just one field, its weight is not considered.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if {@code fieldsWeights} is empty.
+     */
+    public AnalyzedQueryBuilder(final Analyzer analyzer, final Map<String, Float> fieldsWeights) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (fieldsWeights == null) {
+            throw new NullPointerException("Fields weights cannot be null.");
+        }
+
+        if (fieldsWeights.isEmpty()) {
+            throw new IllegalArgumentException("No field specified");
+        }
+
+        this.analyzer = analyzer;
+        this.fieldsWeights = new LinkedHashMap<>(fieldsWeights);
+        this.analysisField = this.fieldsWeights.keySet().iterator().next();
+    }
+
+    /**
+     * Returns the tokens of a text, in order, duplicates included.
+     *
+     * @param text the text.
+     * @return the tokens.
+     */
+    public List<String> analyze(final String text) {
+        final List<String> tokens = new ArrayList<>();
+
+        try (TokenStream stream = analyzer.tokenStream(analysisField, text)) {
+            final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            // a text in memory cannot fail to be read
+            throw new IllegalStateException(String.format("Unable to analyze %s: %s.", text, e.getMessage()), e);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Returns the query of a text: one {@code SHOULD} clause per token. A text without tokens, e.g. only stop words,
+     * gives an empty query, which matches nothing.
+     *
+     * @param text the text.
+     * @return the query.
+     */
+    public Query text(final String text) {
+        final List<String> tokens = analyze(text);
+
+        if (tokens.size() == 1) {
+            return token(tokens.get(0));
+        }
+
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String token : tokens) {
+            builder.add(token(token), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the query of a single token: a term query if searching one field, otherwise a disjunction of the token in
+     * each field, boosted by the weight of the field.
+     *
+     * @param token the analyzed token.
+     * @return the query.
+     */
+    private Query token(final String token) {
+        if (fieldsWeights.size() == 1) {
+            return new TermQuery(new Term(analysisField, token));
+        }
+
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Map.Entry<String, Float> e : fieldsWeights.entrySet()) {
+            builder.add(new BoostQuery(new TermQuery(new Term(e.getKey(), token)), e.getValue()),
+                    BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the query of a term already analyzed, e.g. read from the index, boosted by a weight.
+     *
+     * @param field the field.
+     * @param term  the term.
+     * @param boost the weight of the term.
+     * @return the query.
+     */
+    public static Query boostedTerm(final String field, final String term, final float boost) {
+        return new BoostQuery(new TermQuery(new Term(field, term)), boost);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnalyzedQueryBuilder(%s)", fieldsWeights);
+    }
+}
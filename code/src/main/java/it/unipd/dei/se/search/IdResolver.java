@@ -0,0 +1,154 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Resolves the identifiers of the documents in a list of hits, to write them to a run file.
+ * <p>
+ * The identifiers are read from the {@code SortedDocValues} of the {@link ParsedDocument.FIELDS#ID} field: the hits are
+ * visited in docid order, so each leaf is entered once and its doc values are read forward only, instead of
+ * decompressing one block of stored fields per hit. Leaves of indexes built before the identifier had doc values fall
+ * back to the stored field.
+ */
+public class IdResolver {
+
+    /**
+     * The stored fields to load when falling back to stored identifiers.
+     */
+    private static final Set<String> ID_FIELD = Set.of(ParsedDocument.FIELDS.ID);
+
+    /**
+     * Returns the identifiers of the given hits.
+     *
+     * @param reader the reader the hits come from.
+     * @param hits   the hits.
+     * @return the identifiers, in the same order as {@code hits}.
+     * @throws IOException if the identifiers cannot be read.
+     */
+    public static String[] resolve(final IndexReader reader, final ScoreDoc[] hits) throws IOException {
+        final String[] ids = new String[hits.length];
+
+        // positions of the hits, sorted by docid
+        final Integer[] order = new Integer[hits.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(hits[a].doc, hits[b].doc));
+
+        final List<LeafReaderContext> leaves = reader.leaves();
+
+        int i = 0;
+        for (LeafReaderContext leaf : leaves) {
+            final int maxDoc = leaf.docBase + leaf.reader().maxDoc();
+
+            if (i == order.length) {
+                break;
+            }
+
+            if (hits[order[i]].doc >= maxDoc) {
+                continue;
+            }
+
+            final FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(ParsedDocument.FIELDS.ID);
+
+            if (info != null && info.getDocValuesType() == DocValuesType.SORTED) {
+                final SortedDocValues values = DocValues.getSorted(leaf.reader(), ParsedDocument.FIELDS.ID);
+
+                for (; i < order.length && hits[order[i]].doc < maxDoc; i++) {
+                    final int hit = order[i];
+                    if (values.advanceExact(hits[hit].doc - leaf.docBase)) {
+                        ids[hit] = values.lookupOrd(values.ordValue()).utf8ToString();
+                    }
+                }
+            } else {
+                for (; i < order.length && hits[order[i]].doc < maxDoc; i++) {
+                    final int hit = order[i];
+                    ids[hit] = leaf.reader().document(hits[hit].doc - leaf.docBase, ID_FIELD)
+                            .get(ParsedDocument.FIELDS.ID);
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns the identifiers of the given hits reading them one by one from the stored fields, as done before the
+     * identifier had doc values.
+     *
+     * @param reader the reader the hits come from.
+     * @param hits   the hits.
+     * @return the identifiers, in the same order as {@code hits}.
+     * @throws IOException if the identifiers cannot be read.
+     */
+    public static String[] resolveStored(final IndexReader reader, final ScoreDoc[] hits) throws IOException {
+        final String[] ids = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            ids[i] = reader.document(hits[i].doc, ID_FIELD).get(ParsedDocument.FIELDS.ID);
+        }
+        return ids;
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     * <p>
+     * It resolves the same random batches of hits, of the size of a run (50 topics of 1000 hits), through the stored
+     * fields and through the doc values, and prints the time taken by each.
+     *
+     * @param args command line arguments: the index directory.
+     * @throws Exception if something goes wrong while reading the index.
+     */
+    public static void main(String[] args) throws Exception {
+        final int topics = 50;
+        final int hitsPerTopic = 1000;
+
+        try (IndexReader reader = IndexShards.open(Paths.get(args.length > 0 ? args[0] : "experiment/index"))) {
+            final Random random = new Random(42);
+            final ScoreDoc[][] runs = new ScoreDoc[topics][];
+            for (int t = 0; t < topics; t++) {
+                runs[t] = new ScoreDoc[Math.min(hitsPerTopic, reader.maxDoc())];
+                for (int h = 0; h < runs[t].length; h++) {
+                    runs[t][h] = new ScoreDoc(random.nextInt(reader.maxDoc()), 1f);
+                }
+            }
+
+            // warm up both paths, then measure
+            for (int pass = 0; pass < 2; pass++) {
+                long start = System.nanoTime();
+                for (ScoreDoc[] hits : runs) {
+                    resolveStored(reader, hits);
+                }
+                final long stored = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (ScoreDoc[] hits : runs) {
+                    resolve(reader, hits);
+                }
+                final long docValues = System.nanoTime() - start;
+
+                if (pass == 1) {
+                    System.out.printf(Locale.ENGLISH, "%d topic(s) x %d hits: stored fields %.1f ms, doc values %.1f ms.%n",
+                            topics, runs[0].length, stored / 1e6, docValues / 1e6);
+                }
+            }
+
+            for (ScoreDoc[] hits : runs) {
+                if (!Arrays.equals(resolveStored(reader, hits), resolve(reader, hits))) {
+                    System.out.println("Doc values and stored fields disagree: the index must be rebuilt.");
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package it.unipd.dei.se.search;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records, for each topic of a run, the time spent in each stage of its search and the size of its query, to find the
+ * slow topics and the slow stage.
+ * <p>
+ * The stages are: the analysis of the topic and the construction of its query, the rewrite of the query, the collection
+ * of the top documents, the resolution of their identifiers and the output of the documents into the run and, when the
+ * run is written, of its lines into the run file. The profile is written as a CSV file, one row per topic in the order
+ * of the topics file, followed by the 50th, 95th and 99th percentiles of each column. The entries of different topics
+ * can be filled by several threads at the same time.
+ */
+public class QueryProfiler {
+
+    /**
+     * The percentiles summarizing the topics.
+     */
+    private static final double[] PERCENTILES = {0.50, 0.95, 0.99};
+
+    /**
+     * The header of the CSV file.
+     */
+    private static final String HEADER = "topic,analysis_us,rewrite_us,collection_us,resolution_us,output_us,total_us,"
+            + "clauses,matched,matched_exact,scored,cached";
+
+    /**
+     * The profile of the search of a topic.
+     */
+    public static final class Entry {
+
+        /**
+         * The number of the topic.
+         */
+        private final String topic;
+
+        /**
+         * The number of term clauses of the query.
+         */
+        private final int clauses;
+
+        /**
+         * The time spent analyzing the topic and building its query, in nanoseconds.
+         */
+        private final long analysisTime;
+
+        /**
+         * The time spent rewriting the query, in nanoseconds.
+         */
+        long rewriteTime = 0;
+
+        /**
+         * The time spent collecting the top documents, in nanoseconds.
+         */
+        long collectionTime = 0;
+
+        /**
+         * The time spent resolving the identifiers of the top documents, in nanoseconds.
+         */
+        long resolutionTime = 0;
+
+        /**
+         * The time spent putting the top documents into the run and writing them into the run file, in nanoseconds.
+         */
+        long outputTime = 0;
+
+        /**
+         * The number of documents matched, exact or a lower bound.
+         */
+        long matched = 0;
+
+        /**
+         * Whether {@link #matched} is exact.
+         */
+        boolean matchedExact = true;
+
+        /**
+         * The number of documents scored.
+         */
+        long scored = 0;
+
+        /**
+         * Whether the top documents were read from the query result cache instead of searched.
+         */
+        boolean cached = false;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param topic        the number of the topic.
+         * @param clauses      the number of term clauses of the query.
+         * @param analysisTime the time spent analyzing the topic and building its query, in nanoseconds.
+         */
+        private Entry(final String topic, final int clauses, final long analysisTime) {
+            this.topic = topic;
+            this.clauses = clauses;
+            this.analysisTime = analysisTime;
+        }
+
+        /**
+         * Sets the documents matched.
+         *
+         * @param totalHits the total hits of the query.
+         */
+        void setMatched(final TotalHits totalHits) {
+            matched = totalHits.value;
+            matchedExact = totalHits.relation == TotalHits.Relation.EQUAL_TO;
+        }
+
+        /**
+         * Returns the number of the topic.
+         *
+         * @return the number of the topic.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Returns the time spent in all the stages.
+         *
+         * @return the total time, in nanoseconds.
+         */
+        public long getTotalTime() {
+            return analysisTime + rewriteTime + collectionTime + resolutionTime + outputTime;
+        }
+
+        /**
+         * Returns the name of the stage which took the longest.
+         *
+         * @return the name of the slowest stage.
+         */
+        public String getSlowestStage() {
+            final String[] names = {"analysis", "rewrite", "collection", "resolution", "output"};
+            final long[] times = {analysisTime, rewriteTime, collectionTime, resolutionTime, outputTime};
+
+            int slowest = 0;
+            for (int i = 1; i < times.length; i++) {
+                if (times[i] > times[slowest]) {
+                    slowest = i;
+                }
+            }
+            return names[slowest];
+        }
+    }
+
+    /**
+     * The entries, in the order of the topics file.
+     */
+    private final Entry[] entries;
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param topics the number of topics.
+     * @throws IllegalArgumentException if {@code topics} is less than zero.
+     */
+    public QueryProfiler(final int topics) {
+
+        if (topics < 0) {
+            throw new IllegalArgumentException("The number of topics cannot be less than zero.");
+        }
+
+        entries = new Entry[topics];
+    }
+
+    /**
+     * Starts the profile of a topic, once its query has been built.
+     *
+     * @param index        the index of the topic in the topics file.
+     * @param topic        the number of the topic.
+     * @param query        the query of the topic.
+     * @param analysisTime the time spent analyzing the topic and building its query, in nanoseconds.
+     * @return the entry of the topic, to be filled while searching it.
+     */
+    Entry start(final int index, final String topic, final Query query, final long analysisTime) {
+        final Entry entry = new Entry(topic, clauses(query), analysisTime);
+        entries[index] = entry;
+        return entry;
+    }
+
+    /**
+     * Adds the time spent writing the lines of a topic into the run file to its output stage.
+     *
+     * @param index      the index of the topic in the topics file.
+     * @param outputTime the time spent writing the lines of the topic, in nanoseconds.
+     */
+    void written(final int index, final long outputTime) {
+        entries[index].outputTime += outputTime;
+    }
+
+    /**
+     * Returns the number of term clauses of a query, nested ones included.
+     *
+     * @param query the query.
+     * @return the number of term clauses.
+     */
+    static int clauses(final Query query) {
+        final int[] count = {0};
+        query.visit(new QueryVisitor() {
+            @Override
+            public void consumeTerms(final Query query, final Term... terms) {
+                count[0] += terms.length;
+            }
+
+            @Override
+            public void visitLeaf(final Query query) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Writes the profile as a CSV file: one row per topic, times in microseconds, followed by the percentiles.
+     *
+     * @param file the file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(final Path file) throws IOException {
+        final Entry[] profiled = profiled();
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println(HEADER);
+
+            for (Entry e : profiled) {
+                out.printf(Locale.ENGLISH, "%s,%d,%d,%d,%d,%d,%d,%d,%d,%b,%d,%b%n", e.topic, e.analysisTime / 1000,
+                        e.rewriteTime / 1000, e.collectionTime / 1000, e.resolutionTime / 1000, e.outputTime / 1000,
+                        e.getTotalTime() / 1000, e.clauses, e.matched, e.matchedExact, e.scored, e.cached);
+            }
+
+            for (double p : PERCENTILES) {
+                out.printf(Locale.ENGLISH, "p%.0f,%d,%d,%d,%d,%d,%d,%d,%d,,%d,%n", p * 100,
+                        percentile(profiled, e -> e.analysisTime, p) / 1000,
+                        percentile(profiled, e -> e.rewriteTime, p) / 1000,
+                        percentile(profiled, e -> e.collectionTime, p) / 1000,
+                        percentile(profiled, e -> e.resolutionTime, p) / 1000,
+                        percentile(profiled, e -> e.outputTime, p) / 1000,
+                        percentile(profiled, Entry::getTotalTime, p) / 1000,
+                        percentile(profiled, e -> e.clauses, p),
+                        percentile(profiled, e -> e.matched, p),
+                        percentile(profiled, e -> e.scored, p));
+            }
+        }
+    }
+
+    /**
+     * Returns the summary of the profile: the percentiles of the time of each stage and the slowest topic.
+     *
+     * @return the summary.
+     */
+    public String summary() {
+        final Entry[] profiled = profiled();
+
+        final StringBuilder s = new StringBuilder(String.format(Locale.ENGLISH,
+                "%-5s %14s %14s %14s %14s %14s %14s%n", "", "analysis ms", "rewrite ms", "collection ms",
+                "resolution ms", "output ms", "total ms"));
+        for (double p : PERCENTILES) {
+            s.append(String.format(Locale.ENGLISH, "p%-4.0f %14.3f %14.3f %14.3f %14.3f %14.3f %14.3f%n", p * 100,
+                    percentile(profiled, e -> e.analysisTime, p) / 1e6,
+                    percentile(profiled, e -> e.rewriteTime, p) / 1e6,
+                    percentile(profiled, e -> e.collectionTime, p) / 1e6,
+                    percentile(profiled, e -> e.resolutionTime, p) / 1e6,
+                    percentile(profiled, e -> e.outputTime, p) / 1e6,
+                    percentile(profiled, Entry::getTotalTime, p) / 1e6));
+        }
+
+        Entry slowest = null;
+        for (Entry e : profiled) {
+            if (slowest == null || e.getTotalTime() > slowest.getTotalTime()) {
+                slowest = e;
+            }
+        }
+        if (slowest != null) {
+            s.append(String.format(Locale.ENGLISH, "Slowest topic: %s, %.3f ms, mostly %s (%d clause(s), %d "
+                            + "document(s) matched, %d scored).%n", slowest.topic, slowest.getTotalTime() / 1e6,
+                    slowest.getSlowestStage(), slowest.clauses, slowest.matched, slowest.scored));
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * Returns the entries of the topics profiled, in the order of the topics file.
+     *
+     * @return the entries.
+     */
+    private Entry[] profiled() {
+        return Arrays.stream(entries).filter(e -> e != null).toArray(Entry[]::new);
+    }
+
+    /**
+     * Returns a percentile of a value of the entries, with the nearest-rank method.
+     *
+     * @param entries the entries.
+     * @param value   the value.
+     * @param p       the percentile, between 0 and 1.
+     * @return the percentile, {@code 0} if there are no entries.
+     */
+    private static long percentile(final Entry[] entries, final ToLongFunction<Entry> value, final double p) {
+        if (entries.length == 0) {
+            return 0;
+        }
+
+        final long[] values = Arrays.stream(entries).mapToLong(value).sorted().toArray();
+        return values[Math.max(0, (int) Math.ceil(p * values.length) - 1)];
+    }
+}
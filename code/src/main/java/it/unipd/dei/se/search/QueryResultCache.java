@@ -0,0 +1,293 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.index.IndexShards;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of the top documents of queries, so that experiments repeating the same searches on the same index
+ * read the results instead of searching again.
+ * <p>
+ * An entry is keyed by the version of the index read (see {@link IndexShards#version(IndexReader)}), the identity of
+ * the analyzer, a scope set by the searcher (similarity and its parameters, field weights, filter flag, number of
+ * documents retrieved, total hits threshold) and the query, already analyzed. The entries of an index live in a
+ * directory named after its version: when the cache is opened over a new version of the index, the entries of the
+ * previous versions are deleted.
+ * <p>
+ * The cached document numbers are the internal ones of the index version they were searched on. It can be used by
+ * several threads at the same time.
+ */
+public class QueryResultCache {
+
+    /**
+     * The default directory of the cache.
+     */
+    public static final String DEFAULT_CACHE_DIR = "experiment/query-cache";
+
+    /**
+     * The extension of the entry files.
+     */
+    private static final String EXTENSION = ".topdocs";
+
+    /**
+     * The magic number at the beginning of an entry file.
+     */
+    private static final int MAGIC = 0x51524331;
+
+    /**
+     * The directory of the entries of the current version of the index.
+     */
+    private final Path versionDir;
+
+    /**
+     * The identity of the analyzer of the queries.
+     */
+    private final String analyzerId;
+
+    /**
+     * The number of lookups served from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups not served from the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Opens the cache of an index, deleting the entries of its previous versions. The entries are those of the version
+     * of the index read by the given reader, so that the cached document numbers are the ones of that reader even if
+     * the index has been committed to since it was opened.
+     *
+     * @param cacheDir   the directory of the cache, which can be shared by several indexes.
+     * @param indexDir   the directory of the index.
+     * @param reader     the reader the queries are searched with, opened by {@link IndexShards#open(Path)}.
+     * @param analyzerId the identity of the analyzer of the queries, e.g. its components and stop list.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the version of the index cannot be read or the cache directory cannot be
+     *                                  created.
+     */
+    public QueryResultCache(final Path cacheDir, final Path indexDir, final IndexReader reader,
+                            final String analyzerId) {
+
+        if (cacheDir == null) {
+            throw new NullPointerException("Cache directory cannot be null.");
+        }
+
+        if (indexDir == null) {
+            throw new NullPointerException("Index directory cannot be null.");
+        }
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (analyzerId == null) {
+            throw new NullPointerException("Analyzer identity cannot be null.");
+        }
+
+        this.analyzerId = analyzerId;
+
+        final String version = IndexShards.version(reader);
+
+        // one directory per index, holding one sub-directory per version of the index
+        final Path indexCacheDir = cacheDir.resolve(digest(indexDir.toAbsolutePath().normalize().toString())
+                .substring(0, 16));
+        versionDir = indexCacheDir.resolve(digest(version).substring(0, 16));
+
+        try {
+            Files.createDirectories(versionDir);
+
+            int stale = 0;
+            try (Stream<Path> dirs = Files.list(indexCacheDir)) {
+                for (Path dir : (Iterable<Path>) dirs::iterator) {
+                    if (!dir.equals(versionDir)) {
+                        IOUtils.rm(dir);
+                        stale++;
+                    }
+                }
+            }
+
+            if (stale > 0) {
+                System.out.printf("Query result cache: %d stale version(s) of index %s invalidated.%n", stale,
+                        indexDir.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to create the query result cache directory %s: %s.",
+                    versionDir.toAbsolutePath(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns the cached top documents of a query.
+     *
+     * @param scope the scope of the query, identifying how it is searched.
+     * @param query the query.
+     * @return the top documents, or {@code null} if they are not in the cache.
+     * @throws IOException if the entry exists but cannot be read.
+     */
+    public TopDocs get(final String scope, final Query query) throws IOException {
+        final String key = key(scope, query);
+        final Path file = versionDir.resolve(digest(key) + EXTENSION);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+            // a different key with the same digest, or a file of another format, is a miss
+            if (in.readInt() != MAGIC || !key.equals(readString(in))) {
+                misses.increment();
+                return null;
+            }
+
+            final TotalHits totalHits = new TotalHits(in.readLong(), TotalHits.Relation.values()[in.readByte()]);
+            final ScoreDoc[] scoreDocs = new ScoreDoc[in.readInt()];
+            for (int i = 0; i < scoreDocs.length; i++) {
+                scoreDocs[i] = new ScoreDoc(in.readInt(), in.readFloat());
+            }
+
+            hits.increment();
+            return new TopDocs(totalHits, scoreDocs);
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return null;
+        } catch (EOFException e) {
+            // an entry truncated by an interrupted run, it is replaced by the next put
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Puts the top documents of a query into the cache, replacing any previous entry.
+     *
+     * @param scope   the scope of the query, identifying how it is searched.
+     * @param query   the query.
+     * @param topDocs the top documents of the query.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void put(final String scope, final Query query, final TopDocs topDocs) throws IOException {
+        final String key = key(scope, query);
+        final Path file = versionDir.resolve(digest(key) + EXTENSION);
+
+        // written aside and moved into place, so that readers never see a partial entry
+        final Path tmp = Files.createTempFile(versionDir, "entry", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                writeString(out, key);
+                out.writeLong(topDocs.totalHits.value);
+                out.writeByte(topDocs.totalHits.relation.ordinal());
+                out.writeInt(topDocs.scoreDocs.length);
+                for (ScoreDoc sd : topDocs.scoreDocs) {
+                    out.writeInt(sd.doc);
+                    out.writeFloat(sd.score);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups not served from the cache.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long h = getHits();
+        final long m = getMisses();
+        return String.format("query result cache: %d hit(s), %d miss(es), %.1f%% hit rate", h, m,
+                h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    /**
+     * Returns the key of a query.
+     *
+     * @param scope the scope of the query.
+     * @param query the query.
+     * @return the key.
+     */
+    private String key(final String scope, final Query query) {
+        return analyzerId + '\n' + scope + '\n' + query;
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of a string, to name a cache file after a key of any length.
+     *
+     * @param s the string.
+     * @return the digest.
+     */
+    public static String digest(final String s) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the stream.
+     * @return the string.
+     * @throws IOException if the string cannot be read.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a string of any length, as its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param out the stream.
+     * @param s   the string.
+     * @throws IOException if the string cannot be written.
+     */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
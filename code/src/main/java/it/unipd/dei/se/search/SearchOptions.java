@@ -0,0 +1,359 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.filter.ObjectFilterCache;
+
+import java.nio.file.Path;
+
+/**
+ * The options of a {@link Searcher}, which are set with a {@link Builder}. Each option has a default, so that only the
+ * ones which differ from it need to be set.
+ */
+public final class SearchOptions {
+
+    /**
+     * The options with all the defaults: the topics are searched one after the other, each over all the segments of the
+     * index in turn.
+     */
+    public static final SearchOptions DEFAULT = new Builder().build();
+
+    /**
+     * The number of topics searched at the same time.
+     */
+    private final int threads;
+
+    /**
+     * The number of threads searching the slices of a query.
+     */
+    private final int sliceThreads;
+
+    /**
+     * The maximum number of documents of a slice.
+     */
+    private final int maxDocsPerSlice;
+
+    /**
+     * The maximum number of segments of a slice.
+     */
+    private final int maxSegmentsPerSlice;
+
+    /**
+     * The directory of the query result cache.
+     */
+    private final Path cacheDir;
+
+    /**
+     * The number of hits counted exactly for each topic.
+     */
+    private final int totalHitsThreshold;
+
+    /**
+     * The cache of the documents of the comparison objects, {@code null} to score the objects.
+     */
+    private final ObjectFilterCache objectFilterCache;
+
+    /**
+     * Whether the stages of each topic are timed.
+     */
+    private final boolean profiling;
+
+    /**
+     * Creates the options set by a builder.
+     *
+     * @param builder the builder.
+     */
+    private SearchOptions(final Builder builder) {
+        this.threads = builder.threads;
+        this.sliceThreads = builder.sliceThreads;
+        this.maxDocsPerSlice = builder.maxDocsPerSlice;
+        this.maxSegmentsPerSlice = builder.maxSegmentsPerSlice;
+        this.cacheDir = builder.cacheDir;
+        this.totalHitsThreshold = builder.totalHitsThreshold;
+        this.objectFilterCache = builder.objectFilterCache;
+        this.profiling = builder.profiling;
+    }
+
+    /**
+     * Returns the number of topics searched at the same time.
+     *
+     * @return the number of topics searched at the same time; {@code 1} searches them one after the other.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of threads searching the slices of a query.
+     *
+     * @return the number of threads searching the slices of a query; {@code 0} not to split queries.
+     */
+    public int getSliceThreads() {
+        return sliceThreads;
+    }
+
+    /**
+     * Returns the maximum number of documents of a slice.
+     *
+     * @return the maximum number of documents of a slice.
+     */
+    public int getMaxDocsPerSlice() {
+        return maxDocsPerSlice;
+    }
+
+    /**
+     * Returns the maximum number of segments of a slice.
+     *
+     * @return the maximum number of segments of a slice.
+     */
+    public int getMaxSegmentsPerSlice() {
+        return maxSegmentsPerSlice;
+    }
+
+    /**
+     * Returns the directory of the query result cache.
+     *
+     * @return the directory of the query result cache, {@code null} not to use the cache.
+     */
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Returns the number of hits counted exactly for each topic.
+     *
+     * @return the number of hits counted exactly, {@link Searcher#DEFAULT_TOTAL_HITS_THRESHOLD} for Lucene's default.
+     */
+    public int getTotalHitsThreshold() {
+        return totalHitsThreshold;
+    }
+
+    /**
+     * Returns the cache of the documents of the comparison objects.
+     *
+     * @return the cache of the documents of the comparison objects, {@code null} to score the objects with the title.
+     */
+    public ObjectFilterCache getObjectFilterCache() {
+        return objectFilterCache;
+    }
+
+    /**
+     * Returns whether the stages of each topic are timed.
+     *
+     * @return whether the topics are profiled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("search options: threads=%d, sliceThreads=%d, maxDocsPerSlice=%d, maxSegmentsPerSlice=%d, "
+                + "cacheDir=%s, totalHitsThreshold=%d, objectFilterCache=%b, profiling=%b", threads, sliceThreads,
+                maxDocsPerSlice, maxSegmentsPerSlice, cacheDir, totalHitsThreshold, objectFilterCache != null,
+                profiling);
+    }
+
+    /**
+     * Sets the options of a {@link Searcher}.
+     */
+    public static final class Builder {
+
+        /**
+         * The number of topics searched at the same time.
+         */
+        private int threads = 1;
+
+        /**
+         * The number of threads searching the slices of a query.
+         */
+        private int sliceThreads = 0;
+
+        /**
+         * The maximum number of documents of a slice.
+         */
+        private int maxDocsPerSlice = SlicedIndexSearcher.DEFAULT_MAX_DOCS_PER_SLICE;
+
+        /**
+         * The maximum number of segments of a slice.
+         */
+        private int maxSegmentsPerSlice = SlicedIndexSearcher.DEFAULT_MAX_SEGMENTS_PER_SLICE;
+
+        /**
+         * The directory of the query result cache.
+         */
+        private Path cacheDir = null;
+
+        /**
+         * The number of hits counted exactly for each topic.
+         */
+        private int totalHitsThreshold = Searcher.DEFAULT_TOTAL_HITS_THRESHOLD;
+
+        /**
+         * The cache of the documents of the comparison objects, {@code null} to score the objects.
+         */
+        private ObjectFilterCache objectFilterCache = null;
+
+        /**
+         * Whether the stages of each topic are timed.
+         */
+        private boolean profiling = false;
+
+        /**
+         * Creates a builder with all the options set to their defaults.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Creates a builder with the options set as in the given ones.
+         *
+         * @param options the options to start from.
+         * @throws NullPointerException if {@code options} is {@code null}.
+         */
+        public Builder(final SearchOptions options) {
+            if (options == null) {
+                throw new NullPointerException("Search options cannot be null.");
+            }
+            this.threads = options.threads;
+            this.sliceThreads = options.sliceThreads;
+            this.maxDocsPerSlice = options.maxDocsPerSlice;
+            this.maxSegmentsPerSlice = options.maxSegmentsPerSlice;
+            this.cacheDir = options.cacheDir;
+            this.totalHitsThreshold = options.totalHitsThreshold;
+            this.objectFilterCache = options.objectFilterCache;
+            this.profiling = options.profiling;
+        }
+
+        /**
+         * Sets the number of topics searched at the same time, over the same {@code IndexSearcher}.
+         *
+         * @param threads the number of topics searched at the same time; {@code 1} searches them one after the other.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code threads} is less than or equal to zero.
+         */
+        public Builder threads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException(
+                        "The number of search threads cannot be less than or equal to zero.");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads searching the leaf slices of a single query in parallel, with a
+         * {@link SlicedIndexSearcher}.
+         *
+         * @param sliceThreads the number of threads searching the slices of a query; {@code 0} searches the segments
+         *                     one after the other.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code sliceThreads} is less than zero.
+         */
+        public Builder sliceThreads(final int sliceThreads) {
+            if (sliceThreads < 0) {
+                throw new IllegalArgumentException("The number of slice threads cannot be less than zero.");
+            }
+            this.sliceThreads = sliceThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of documents of a slice.
+         *
+         * @param maxDocsPerSlice the maximum number of documents of a slice.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code maxDocsPerSlice} is less than or equal to zero.
+         */
+        public Builder maxDocsPerSlice(final int maxDocsPerSlice) {
+            if (maxDocsPerSlice <= 0) {
+                throw new IllegalArgumentException(
+                        "The maximum number of documents per slice cannot be less than or equal to zero.");
+            }
+            this.maxDocsPerSlice = maxDocsPerSlice;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of segments of a slice.
+         *
+         * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code maxSegmentsPerSlice} is less than or equal to zero.
+         */
+        public Builder maxSegmentsPerSlice(final int maxSegmentsPerSlice) {
+            if (maxSegmentsPerSlice <= 0) {
+                throw new IllegalArgumentException(
+                        "The maximum number of segments per slice cannot be less than or equal to zero.");
+            }
+            this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+            return this;
+        }
+
+        /**
+         * Sets the directory of the on-disk cache of the query results, so that the queries already searched on the
+         * same version of the index are not searched again.
+         *
+         * @param cacheDir the directory of the query result cache, {@code null} not to use the cache.
+         * @return this builder.
+         */
+        public Builder cacheDir(final Path cacheDir) {
+            this.cacheDir = cacheDir;
+            return this;
+        }
+
+        /**
+         * Sets the number of hits counted exactly for each topic. Once the top documents are full and the threshold is
+         * passed, the scorers of disjunctions skip the blocks of documents which cannot enter them; the top documents
+         * are the same whatever the threshold, and the documents scored are reported for each topic.
+         *
+         * @param totalHitsThreshold the number of hits counted exactly, {@link TopKCollectorManager#TOP_K} to skip as
+         *                           soon as possible, {@link TopKCollectorManager#EXHAUSTIVE} to score every matching
+         *                           document, {@link Searcher#DEFAULT_TOTAL_HITS_THRESHOLD} for Lucene's default.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code totalHitsThreshold} is less than
+         *                                  {@link Searcher#DEFAULT_TOTAL_HITS_THRESHOLD}.
+         */
+        public Builder totalHitsThreshold(final int totalHitsThreshold) {
+            if (totalHitsThreshold < Searcher.DEFAULT_TOTAL_HITS_THRESHOLD) {
+                throw new IllegalArgumentException(String.format(
+                        "The total hits threshold cannot be less than %d.", Searcher.DEFAULT_TOTAL_HITS_THRESHOLD));
+            }
+            this.totalHitsThreshold = totalHitsThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the cache of the documents of the comparison objects. When filtering with a cache, the objects are
+         * required as non-scoring clauses whose documents are read from the cache, so they no longer add to the scores
+         * and are computed once for all the topics and the searchers sharing the cache.
+         *
+         * @param objectFilterCache the cache of the documents of the comparison objects, {@code null} to score the
+         *                          objects with the title.
+         * @return this builder.
+         */
+        public Builder objectFilterCache(final ObjectFilterCache objectFilterCache) {
+            this.objectFilterCache = objectFilterCache;
+            return this;
+        }
+
+        /**
+         * Sets whether to time the analysis, rewrite, collection, identifier resolution and output of each topic, which
+         * are summarized at the end of the run and written next to it as a CSV file.
+         *
+         * @param profiling whether the topics are profiled.
+         * @return this builder.
+         */
+        public Builder profiling(final boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * Returns the options set so far.
+         *
+         * @return the options.
+         */
+        public SearchOptions build() {
+            return new SearchOptions(this);
+        }
+    }
+}
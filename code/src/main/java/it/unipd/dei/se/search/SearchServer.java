@@ -0,0 +1,737 @@
+package it.unipd.dei.se.search;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import it.unipd.dei.se.parse.topic.ParsedTopic;
+import it.unipd.dei.se.parse.topic.XMLTopicParser;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A resident search service, bound to localhost, which keeps the index open and answers queries through a simple
+ * HTTP/JSON API:
+ * <ul>
+ *     <li>{@code GET /search?q=...&k=10&objects=...&filter=false}: searches a comparative question;</li>
+ *     <li>{@code POST /topics}: searches a batch of topics, given as
+ *     {@code {"k": 1000, "filter": false, "topics": [{"number": "1", "title": "...", "objects": "..."}]}}, or the topics
+ *     of the topic file if the body is empty;</li>
+ *     <li>{@code POST /refresh}: opens the last commit of the index, if any;</li>
+ *     <li>{@code GET /status}: reports the version and size of the index and the number of queries answered.</li>
+ * </ul>
+ * <p>
+ * The index is held by a {@code SearcherManager}, checked for new commits every few seconds, so re-indexing does not
+ * need a restart. Each new searcher is warmed up by replaying the topic file before it is published, and the JVM is
+ * warmed up the same way at startup, so that interactive queries are answered at steady-state latency.
+ */
+public class SearchServer implements Closeable {
+
+    /**
+     * The default port of the service.
+     */
+    public static final int DEFAULT_PORT = 8085;
+
+    /**
+     * The default number of seconds between two checks for new commits.
+     */
+    public static final int DEFAULT_REFRESH_SECONDS = 5;
+
+    /**
+     * The maximum number of documents returned for a query.
+     */
+    public static final int MAX_DOCS_RETRIEVED = 1000;
+
+    /**
+     * The number of documents returned for an ad-hoc query by default.
+     */
+    private static final int DEFAULT_DOCS_RETRIEVED = 10;
+
+    /**
+     * The number of times the topic file is replayed to warm up the JVM at startup.
+     */
+    private static final int WARMUP_PASSES = 5;
+
+    /**
+     * The directory of the index.
+     */
+    private final Directory directory;
+
+    /**
+     * The manager of the searchers over the last commit of the index.
+     */
+    private final SearcherManager manager;
+
+    /**
+     * The builder of the queries, shared by the threads answering the requests.
+     */
+    private final AnalyzedQueryBuilder queryBuilder;
+
+    /**
+     * The similarity of the searchers.
+     */
+    private final Similarity similarity;
+
+    /**
+     * The topics of the topic file, replayed to warm up and searched by an empty batch.
+     */
+    private final List<ParsedTopic> topics;
+
+    /**
+     * The JSON mapper.
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads answering the requests.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * The thread checking for new commits.
+     */
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * The number of queries answered.
+     */
+    private final LongAdder queries = new LongAdder();
+
+    /**
+     * Signals that the server has been closed.
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * Opens the index, warms up and starts the service.
+     *
+     * @param indexPath         the directory of the index, which must be a plain (not sharded) index.
+     * @param topicsFile        the file of the topics replayed to warm up.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param similarity        the similarity to use.
+     * @param port              the port of the service, on the loopback interface.
+     * @param threads           the number of threads answering the requests.
+     * @param refreshSeconds    the number of seconds between two checks for new commits.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if the index cannot be opened, the topics cannot be read or the port cannot be
+     *                                  bound.
+     */
+    public SearchServer(final String indexPath, final String topicsFile, final String stopWordsFilePath,
+                        final Similarity similarity, final int port, final int threads, final int refreshSeconds)
+            throws IOException {
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (topicsFile == null) {
+            throw new NullPointerException("Topics file cannot be null.");
+        }
+
+        if (stopWordsFilePath == null) {
+            throw new NullPointerException("Stop words file cannot be null.");
+        }
+
+        if (similarity == null) {
+            throw new NullPointerException("Similarity cannot be null.");
+        }
+
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException(String.format("Invalid port %d.", port));
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        if (refreshSeconds <= 0) {
+            throw new IllegalArgumentException("The refresh interval cannot be less than or equal to zero.");
+        }
+
+        final Path indexDir = Paths.get(indexPath);
+        if (!IndexShards.list(indexDir).isEmpty()) {
+            throw new IllegalArgumentException(String.format(
+                    "Index %s is sharded: merge its shards to serve it.", indexDir.toAbsolutePath()));
+        }
+
+        this.similarity = similarity;
+
+        final Map<String, Float> weights = new HashMap<>();
+        weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
+        weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F);
+        queryBuilder = new AnalyzedQueryBuilder(Searcher.buildAnalyzer(stopWordsFilePath), weights);
+
+        topics = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            new XMLTopicParser(in).forEachRemaining(topics::add);
+        }
+
+        final long start = System.currentTimeMillis();
+
+        // whatever is opened is closed again if the service cannot start, e.g. because the port is taken
+        Directory dir = null;
+        SearcherManager sm = null;
+        ExecutorService pool = null;
+        try {
+            dir = FSDirectory.open(indexDir);
+            sm = new SearcherManager(dir, new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader)
+                        throws IOException {
+                    final IndexSearcher searcher = new IndexSearcher(reader);
+                    searcher.setSimilarity(similarity);
+
+                    // warm the new searcher up before publishing it, so that no query pays for it
+                    warmUp(searcher, 1);
+                    return searcher;
+                }
+            });
+
+            // warm the JIT up as well, the searcher itself has already been warmed up once
+            final IndexSearcher searcher = sm.acquire();
+            try {
+                warmUp(searcher, WARMUP_PASSES - 1);
+            } finally {
+                sm.release(searcher);
+            }
+
+            System.out.printf("Index %s opened and warmed up in %d ms replaying %d topic(s).%n",
+                    indexDir.toAbsolutePath(), System.currentTimeMillis() - start, topics.size());
+
+            pool = Executors.newFixedThreadPool(threads);
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException | RuntimeException e) {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            IOUtils.closeWhileHandlingException(sm, dir);
+            throw e;
+        }
+
+        directory = dir;
+        manager = sm;
+        workers = pool;
+        server.setExecutor(workers);
+        server.createContext("/search", guarded(this::handleSearch));
+        server.createContext("/topics", guarded(this::handleTopics));
+        server.createContext("/refresh", guarded(this::handleRefresh));
+        server.createContext("/status", guarded(this::handleStatus));
+
+        refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                if (manager.maybeRefresh()) {
+                    System.out.printf("Index refreshed to version %d.%n", version());
+                }
+            } catch (IOException e) {
+                System.err.printf("Unable to refresh the index: %s.%n", e.getMessage());
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+
+        server.start();
+
+        System.out.printf("Search service listening on http://%s:%d/ with %d thread(s).%n",
+                server.getAddress().getHostString(), server.getAddress().getPort(), threads);
+    }
+
+    /**
+     * Returns the port the service listens to.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Waits until the service is closed.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        workers.shutdownNow();
+        refresher.shutdownNow();
+        try {
+            manager.close();
+        } finally {
+            directory.close();
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Wraps a handler so that an unexpected exception is answered with an error, instead of leaving the client waiting
+     * on an exchange which is never closed.
+     *
+     * @param handler the handler.
+     * @return the guarded handler.
+     */
+    private HttpHandler guarded(final HttpHandler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (RuntimeException e) {
+                System.err.printf("Unable to answer %s %s: %s.%n", exchange.getRequestMethod(),
+                        exchange.getRequestURI(), e);
+                try {
+                    sendError(exchange, 500, String.valueOf(e.getMessage()));
+                } catch (IOException | RuntimeException ignored) {
+                    // the response has already been started
+                }
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    /**
+     * Searches all the topics of the topic file, to load the index and warm the JIT up.
+     *
+     * @param searcher the searcher.
+     * @param passes   the number of passes over the topics.
+     * @throws IOException if something goes wrong while searching.
+     */
+    private void warmUp(final IndexSearcher searcher, final int passes) throws IOException {
+        for (int pass = 0; pass < passes; pass++) {
+            for (ParsedTopic topic : topics) {
+                final TopDocs top = searcher.search(Searcher.buildQuery(topic, false, queryBuilder),
+                        MAX_DOCS_RETRIEVED);
+                IdResolver.resolve(searcher.getIndexReader(), top.scoreDocs);
+            }
+        }
+    }
+
+    /**
+     * Returns the version of the index currently searched.
+     *
+     * @return the version of the index.
+     * @throws IOException if the searcher cannot be acquired.
+     */
+    private long version() throws IOException {
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            return ((DirectoryReader) searcher.getIndexReader()).getVersion();
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    /**
+     * Searches a query and returns its hits as JSON.
+     *
+     * @param searcher the searcher.
+     * @param query    the query.
+     * @param k        the number of documents to return.
+     * @return the hits.
+     * @throws IOException if something goes wrong while searching.
+     */
+    private ObjectNode search(final IndexSearcher searcher, final Query query, final int k) throws IOException {
+        final TopDocs top = searcher.search(query, k);
+        final String[] ids = IdResolver.resolve(searcher.getIndexReader(), top.scoreDocs);
+        queries.increment();
+
+        final ObjectNode result = mapper.createObjectNode();
+        result.put("total_hits", top.totalHits.toString());
+
+        final ArrayNode hits = result.putArray("hits");
+        for (int i = 0; i < ids.length; i++) {
+            final ScoreDoc sd = top.scoreDocs[i];
+            hits.addObject().put("id", ids[i]).put("score", sd.score);
+        }
+
+        return result;
+    }
+
+    /**
+     * Answers {@code GET /search}.
+     *
+     * @param exchange the request and the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleSearch(final HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Use GET.");
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Map<String, String> params = queryParameters(exchange);
+
+        final String q = params.get("q");
+        if (q == null || q.isBlank()) {
+            sendError(exchange, 400, "Missing query parameter q.");
+            return;
+        }
+
+        try {
+            final int k = docsRetrieved(params.get("k"), DEFAULT_DOCS_RETRIEVED);
+            final boolean filter = Boolean.parseBoolean(params.get("filter"));
+            final Query query = Searcher.buildQuery(q, params.getOrDefault("objects", ""), filter, queryBuilder);
+
+            final IndexSearcher searcher = manager.acquire();
+            final ObjectNode result;
+            try {
+                result = search(searcher, query, k);
+            } finally {
+                manager.release(searcher);
+            }
+
+            result.put("query", q);
+            result.put("took_ms", (System.nanoTime() - start) / 1e6);
+            send(exchange, 200, result);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            sendError(exchange, 500, e.getMessage());
+        }
+    }
+
+    /**
+     * Answers {@code POST /topics}.
+     *
+     * @param exchange the request and the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleTopics(final HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Use POST.");
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        try {
+            final byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            final JsonNode request = body.length == 0 ? mapper.createObjectNode() : mapper.readTree(body);
+
+            final int k = docsRetrieved(request.path("k").asText(null), MAX_DOCS_RETRIEVED);
+            final boolean filter = request.path("filter").asBoolean(false);
+
+            // the topics of the request, or those of the topic file
+            final List<String[]> batch = new ArrayList<>();
+            if (request.has("topics")) {
+                for (JsonNode t : request.get("topics")) {
+                    if (!t.hasNonNull("number") || !t.hasNonNull("title")) {
+                        throw new IllegalArgumentException("Each topic needs a number and a title.");
+                    }
+                    batch.add(new String[]{t.get("number").asText(), t.get("title").asText(),
+                            t.path("objects").asText("")});
+                }
+            } else {
+                for (ParsedTopic t : topics) {
+                    batch.add(new String[]{t.getNumber(), t.getTitle(), t.getObjects()});
+                }
+            }
+
+            final ObjectNode response = mapper.createObjectNode();
+            final ArrayNode results = response.putArray("results");
+
+            // the whole batch is searched on the same version of the index
+            final IndexSearcher searcher = manager.acquire();
+            try {
+                for (String[] t : batch) {
+                    final ObjectNode result = search(searcher, Searcher.buildQuery(t[1], t[2], filter, queryBuilder), k);
+                    result.put("number", t[0]);
+                    results.add(result);
+                }
+            } finally {
+                manager.release(searcher);
+            }
+
+            response.put("took_ms", (System.nanoTime() - start) / 1e6);
+            send(exchange, 200, response);
+        } catch (JsonProcessingException e) {
+            sendError(exchange, 400, String.format("Invalid JSON: %s", e.getOriginalMessage()));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            sendError(exchange, 500, e.getMessage());
+        }
+    }
+
+    /**
+     * Answers {@code POST /refresh}.
+     *
+     * @param exchange the request and the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleRefresh(final HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Use POST.");
+            return;
+        }
+
+        try {
+            final long before = version();
+            manager.maybeRefreshBlocking();
+            final long after = version();
+
+            final ObjectNode response = mapper.createObjectNode();
+            response.put("refreshed", before != after);
+            response.put("version", after);
+            send(exchange, 200, response);
+        } catch (IOException e) {
+            sendError(exchange, 500, e.getMessage());
+        }
+    }
+
+    /**
+     * Answers {@code GET /status}.
+     *
+     * @param exchange the request and the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleStatus(final HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Use GET.");
+            return;
+        }
+
+        final ObjectNode response = mapper.createObjectNode();
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            final IndexReader reader = searcher.getIndexReader();
+            response.put("version", ((DirectoryReader) reader).getVersion());
+            response.put("documents", reader.numDocs());
+            response.put("segments", reader.leaves().size());
+        } finally {
+            manager.release(searcher);
+        }
+        response.put("similarity", similarity.toString());
+        response.put("queries", queries.sum());
+        send(exchange, 200, response);
+    }
+
+    /**
+     * Parses the number of documents to return.
+     *
+     * @param value        the value of the parameter, {@code null} if missing.
+     * @param defaultValue the value to use if the parameter is missing.
+     * @return the number of documents to return.
+     * @throws IllegalArgumentException if the value is not a number between 1 and {@link #MAX_DOCS_RETRIEVED}.
+     */
+    private static int docsRetrieved(final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        final int k;
+        try {
+            k = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid number of documents %s.", value));
+        }
+
+        if (k <= 0 || k > MAX_DOCS_RETRIEVED) {
+            throw new IllegalArgumentException(String.format(
+                    "The number of documents must be between 1 and %d.", MAX_DOCS_RETRIEVED));
+        }
+
+        return k;
+    }
+
+    /**
+     * Returns the parameters of the query string of a request.
+     *
+     * @param exchange the request.
+     * @return the parameters, by name.
+     */
+    private static Map<String, String> queryParameters(final HttpExchange exchange) {
+        final Map<String, String> params = new HashMap<>();
+
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+
+        for (String param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            final String name = URLDecoder.decode(eq < 0 ? param : param.substring(0, eq), StandardCharsets.UTF_8);
+            final String value = eq < 0 ? "" : URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(name, value);
+        }
+
+        return params;
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param exchange the request and the response.
+     * @param status   the HTTP status.
+     * @param body     the body of the response.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void send(final HttpExchange exchange, final int status, final JsonNode body) throws IOException {
+        final byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Sends a JSON error.
+     *
+     * @param exchange the request and the response.
+     * @param status   the HTTP status.
+     * @param message  the error message.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void sendError(final HttpExchange exchange, final int status, final String message) throws IOException {
+        final ObjectNode body = mapper.createObjectNode();
+        body.put("error", message);
+        send(exchange, status, body);
+    }
+
+    /**
+     * Starts the service and serves until the process is stopped.
+     *
+     * @param indexPath         the directory of the index.
+     * @param topicsFile        the file of the topics replayed to warm up.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param similarity        the similarity to use.
+     * @param port              the port of the service, on the loopback interface.
+     * @param threads           the number of threads answering the requests.
+     * @throws IOException          if the service cannot be started.
+     * @throws InterruptedException if interrupted while serving.
+     */
+    public static void doServe(final String indexPath, final String topicsFile, final String stopWordsFilePath,
+                               final Similarity similarity, final int port, final int threads)
+            throws IOException, InterruptedException {
+        final SearchServer server = new SearchServer(indexPath, topicsFile, stopWordsFilePath, similarity, port,
+                threads, DEFAULT_REFRESH_SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.printf("Unable to close the search service: %s.%n", e.getMessage());
+            }
+        }));
+
+        server.awaitClose();
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     * <p>
+     * It starts the service, sends the titles of the topic file as ad-hoc queries over HTTP, one at a time, prints the
+     * 50th and 99th percentiles of the latency seen by the client and closes the service.
+     *
+     * @param args command line arguments: the index directory, the port and the number of passes over the topics.
+     * @throws Exception if something goes wrong while serving.
+     */
+    public static void main(String[] args) throws Exception {
+        final int passes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        try (SearchServer server = new SearchServer(args.length > 0 ? args[0] : "experiment/index",
+                "code/src/main/resource/topics-task2.xml", "lucene.txt", new BM25Similarity(),
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT, 4, DEFAULT_REFRESH_SECONDS)) {
+
+            final HttpClient client = HttpClient.newHttpClient();
+            final long[] latencies = new long[passes * server.topics.size()];
+            int n = 0;
+            int errors = 0;
+            for (int pass = 0; pass < passes; pass++) {
+                for (ParsedTopic topic : server.topics) {
+                    final URI uri = URI.create(String.format("http://localhost:%d/search?q=%s&objects=%s",
+                            server.getPort(), URLEncoder.encode(topic.getTitle(), StandardCharsets.UTF_8),
+                            URLEncoder.encode(Objects.toString(topic.getObjects(), ""), StandardCharsets.UTF_8)));
+
+                    final long start = System.nanoTime();
+                    final HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                    latencies[n++] = System.nanoTime() - start;
+
+                    if (response.statusCode() != 200) {
+                        errors++;
+                    }
+                }
+            }
+
+            Arrays.sort(latencies);
+            System.out.printf(Locale.ENGLISH, "%d query(ies), %d error(s): p50 %.3f ms, p99 %.3f ms.%n",
+                    latencies.length, errors, percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+        }
+    }
+
+    /**
+     * Returns a percentile of sorted values.
+     *
+     * @param sorted the values, in ascending order.
+     * @param p      the percentile, between 0 and 1.
+     * @return the percentile, {@code 0} if there are no values.
+     */
+    private static long percentile(final long[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
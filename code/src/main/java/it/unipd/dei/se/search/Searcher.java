@@ -1,27 +1,27 @@
-
-
 package it.unipd.dei.se.search;
 
 import com.beust.jcommander.internal.Nullable;
-import it.unipd.dei.se.analyze.MainAnalyzer;
 import it.unipd.dei.se.filter.Filter;
+import it.unipd.dei.se.filter.ObjectFilterCache;
+import it.unipd.dei.se.index.IndexShards;
 import it.unipd.dei.se.parse.document.ParsedDocument;
 import it.unipd.dei.se.parse.topic.ParsedTopic;
 import it.unipd.dei.se.parse.topic.XMLTopicParser;
+import it.unipd.dei.se.run.DocIdDictionary;
+import it.unipd.dei.se.run.RunBuffer;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.core.StopFilterFactory;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
 import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.analysis.util.AbstractAnalysisFactory;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.queryparser.classic.QueryParserBase;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
 
 import javax.validation.constraints.NotNull;
 import java.io.BufferedReader;
@@ -33,6 +33,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 public class Searcher {
 
@@ -55,15 +61,26 @@ public class Searcher {
     }
 
 
+    /**
+     * The total hits threshold searching with {@code IndexSearcher.search(Query, int)}, which counts the first
+     * {@code max(1000, maxDocsRetrieved)} hits exactly, without counting the documents scored.
+     */
+    public static final int DEFAULT_TOTAL_HITS_THRESHOLD = -1;
+
+    /**
+     * The number of hits {@code IndexSearcher.search(Query, int)} counts exactly, at least.
+     */
+    private static final int LUCENE_TOTAL_HITS_THRESHOLD = 1000;
+
     /**
      * The identifier of the run
      */
     private final String runID;
 
     /**
-     * The run to be written
+     * The file where the run is written
      */
-    private final PrintWriter run;
+    private final Path runFile;
 
     /**
      * The index reader
@@ -75,15 +92,35 @@ public class Searcher {
      */
     private final IndexSearcher searcher;
 
+    /**
+     * The executor searching the slices of a query in parallel, {@code null} to search them one after the other.
+     */
+    private final ExecutorService sliceExecutor;
+
+    /**
+     * The cache of the query results, {@code null} to always search.
+     */
+    private final QueryResultCache cache;
+
+    /**
+     * The scope of the cached query results: the similarity, the fields weights and the number of documents retrieved.
+     */
+    private final String cacheScope;
+
+    /**
+     * The cache of the documents of the comparison objects, {@code null} to score the objects with the title.
+     */
+    private final ObjectFilterCache objectFilterCache;
+
     /**
      * The topics to be searched
      */
     private final ParsedTopic[] topics;
 
     /**
-     * The query parser
+     * The query builder
      */
-    private final QueryParser queryParser;
+    private final AnalyzedQueryBuilder queryBuilder;
 
     /**
      * The maximum number of documents to retrieve
@@ -95,6 +132,26 @@ public class Searcher {
      */
     private long elapsedTime = Long.MIN_VALUE;
 
+    /**
+     * The time spent resolving the identifiers of the hits, in nanoseconds.
+     */
+    private final LongAdder idResolutionTime = new LongAdder();
+
+    /**
+     * The number of documents scored, when counted.
+     */
+    private final LongAdder scoredDocs = new LongAdder();
+
+    /**
+     * The profiler of the topics, {@code null} not to profile them.
+     */
+    private final QueryProfiler profiler;
+
+    /**
+     * The options of the search.
+     */
+    private final SearchOptions options;
+
 
     /**
      * Creates a new searcher.
@@ -115,6 +172,37 @@ public class Searcher {
     public Searcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
                     final String topicsFile, final int expectedTopics, final String runID, final String runPath,
                     final int maxDocsRetrieved, Map<String, Float> fieldsWeights) {
+        this(analyzer, similarity, indexPath, topicsFile, expectedTopics, runID, runPath, maxDocsRetrieved,
+                fieldsWeights, SearchOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a new searcher.
+     *
+     * @param analyzer         the {@code Analyzer} to be used.
+     * @param similarity       the {@code Similarity} to be used.
+     * @param indexPath        the directory where containing the index to be searched.
+     * @param topicsFile       the file containing the topics to search for.
+     * @param expectedTopics   the total number of topics expected to be searched.
+     * @param runID            the identifier of the run to be created.
+     * @param runPath          the path where to store the run.
+     * @param maxDocsRetrieved the maximum number of documents to be retrieved.
+     * @param fieldsWeights    the fields of the parsed document in which to search, and their corresponding
+     *                         weights. If just one fieldWeight, weight is not considered
+     * @param options          the options of the search, e.g. the number of topics searched at the same time and of
+     *                         threads searching the slices of each query.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public Searcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
+                    final String topicsFile, final int expectedTopics, final String runID, final String runPath,
+                    final int maxDocsRetrieved, Map<String, Float> fieldsWeights, final SearchOptions options) {
+
+        if (options == null) {
+            throw new NullPointerException("Search options cannot be null.");
+        }
+
+        this.options = options;
 
         if (analyzer == null) {
             throw new NullPointerException("Analyzer cannot be null.");
@@ -144,15 +232,28 @@ public class Searcher {
         }
 
         try {
-            reader = DirectoryReader.open(FSDirectory.open(indexDir));
+            reader = IndexShards.open(indexDir);
         } catch (IOException e) {
             throw new IllegalArgumentException(String.format("Unable to create the index reader for directory %s: %s.",
                     indexDir.toAbsolutePath(), e.getMessage()), e);
         }
 
-        searcher = new IndexSearcher(reader);
+        if (options.getSliceThreads() > 0) {
+            sliceExecutor = Executors.newFixedThreadPool(options.getSliceThreads());
+            searcher = new SlicedIndexSearcher(reader, sliceExecutor, options.getMaxDocsPerSlice(),
+                    options.getMaxSegmentsPerSlice());
+            System.out.printf("Searching %d segment(s) with %s on %d thread(s).%n", reader.leaves().size(), searcher,
+                    options.getSliceThreads());
+        } else {
+            sliceExecutor = null;
+            searcher = new IndexSearcher(reader);
+        }
         searcher.setSimilarity(similarity);
 
+        // keyed by the commits this reader reads, so that the cached document numbers are the ones of this reader
+        cache = options.getCacheDir() == null ? null
+                : new QueryResultCache(options.getCacheDir(), indexDir, reader, analyzerId(analyzer));
+
         if (topicsFile == null) {
             throw new NullPointerException("Topics file cannot be null.");
         }
@@ -216,17 +317,9 @@ public class Searcher {
         System.out.println("Documents' fields in which to search: " + String.join(" ", fieldsWeights.keySet()));
 
 
-        if (fieldsWeights.size() == 1) {
-            System.out.println("Query parser type: QueryParser");
-            String singleField = fieldsWeights.keySet().toArray(new String[]{})[0];
-            queryParser = new QueryParser(singleField, analyzer);
-        } else {
-            System.out.println("Query parser type: MultiFieldQueryParser");
-            queryParser = new MultiFieldQueryParser(
-                    fieldsWeights.keySet().toArray(new String[]{}),
-                    analyzer,
-                    fieldsWeights);
-        }
+        // the queries have the same structure as those of a QueryParser, or a MultiFieldQueryParser with more fields
+        queryBuilder = new AnalyzedQueryBuilder(analyzer, fieldsWeights);
+        System.out.println("Query builder: " + queryBuilder);
 
 
         if (runID == null) {
@@ -259,14 +352,13 @@ public class Searcher {
                     runDir.toAbsolutePath()));
         }
 
-        Path runFile = runDir.resolve(runID + ".txt");
-        try {
-            run = new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE));
-        } catch (IOException e) {
+        // the run file is written only by search(), a run searched in memory is not written at all
+        runFile = runDir.resolve(runID + ".txt");
+
+        // but a run file which cannot be replaced must fail now, not after all the topics have been searched
+        if (Files.exists(runFile) && (!Files.isRegularFile(runFile) || !Files.isWritable(runFile))) {
             throw new IllegalArgumentException(
-                    String.format("Unable to open run file %s: %s.", runFile.toAbsolutePath(), e.getMessage()), e);
+                    String.format("Run file %s cannot be written.", runFile.toAbsolutePath()));
         }
 
         if (maxDocsRetrieved <= 0) {
@@ -275,6 +367,12 @@ public class Searcher {
         }
 
         this.maxDocsRetrieved = maxDocsRetrieved;
+
+        this.cacheScope = String.format("%s|%s|%d", similarity, new TreeMap<>(fieldsWeights), maxDocsRetrieved);
+
+        this.objectFilterCache = options.getObjectFilterCache();
+
+        this.profiler = options.isProfiling() ? new QueryProfiler(topics.length) : null;
     }
 
     /**
@@ -310,92 +408,422 @@ public class Searcher {
      * @param similarity the similarity function to use.
      */
     public static void doSearch(@NotNull String indexPath, @NotNull String runID, String runPath, String stopWordsFilePath, boolean filter, @Nullable Similarity similarity) throws IOException, ParseException {
+        doSearch(indexPath, runID, runPath, stopWordsFilePath, filter, similarity, SearchOptions.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #doSearch(String, String, String, String, boolean, Similarity)} but searches the topics with the
+     * given options, e.g. several topics at the same time.
+     *
+     * @param indexPath the path to the index
+     * @param runID The name of the run. This will be used to name the output file.
+     * @param runPath the path to the directory where the run file will be written.
+     * @param stopWordsFilePath The path to the stopwords file.
+     * @param filter whether to use the filter or not
+     * @param similarity the similarity function to use.
+     * @param options the options of the search.
+     */
+    public static void doSearch(@NotNull String indexPath, @NotNull String runID, String runPath, String stopWordsFilePath, boolean filter, @Nullable Similarity similarity, @NotNull SearchOptions options) throws IOException, ParseException {
+        create(indexPath, runID, runPath, stopWordsFilePath, filter, similarity, options).search(filter);
+    }
+
+    /**
+     * It creates a searcher over the topics of the task, with the same analyzer, fields and run identifier used by
+     * {@code doSearch}, to search them in memory with {@link #searchRun(boolean, DocIdDictionary)}. When filtering with
+     * the {@link SearchOptions#getObjectFilterCache() object filter cache} of the options, the objects do not add to the
+     * scores, so the run is named "cached" instead of "true".
+     *
+     * @param indexPath the path to the index
+     * @param runID The name of the run. The stop list, the similarity and the filter are appended to it.
+     * @param runPath the path to the directory where the run file would be written.
+     * @param stopWordsFilePath The path to the stopwords file.
+     * @param filter whether the filter will be used, to name the run.
+     * @param similarity the similarity function to use.
+     * @param options the options of the search.
+     * @return the searcher.
+     */
+    public static Searcher create(@NotNull String indexPath, @NotNull String runID, String runPath, String stopWordsFilePath, boolean filter, @NotNull Similarity similarity, @NotNull SearchOptions options) throws IOException {
         final String topics = "code/src/main/resource/topics-task2.xml";
 
         final int maxDocsRetrieved = 1000;
 
-        final Analyzer ma = new MainAnalyzer();
-        final Analyzer analyzer = CustomAnalyzer.builder(Path.of("code/src/main/resource")).withTokenizer(StandardTokenizerFactory.class)
+        final Analyzer analyzer = buildAnalyzer(stopWordsFilePath);
+
+        HashMap<String, Float> weights = new HashMap<>();
+        weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
+        weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F);
+        // weights.put("sas", 1.0F);
+        Searcher s = new Searcher(analyzer, similarity, indexPath, topics,
+                50, runID + "_" + stopWordsFilePath.split("\\.")[0] + "_" + similarity.toString().split(" ")[0].substring(0,3) + "_" + (filter && options.getObjectFilterCache() != null ? "cached" : filter), runPath, maxDocsRetrieved, weights, options);
+
+        return s;
+    }
+
+    /**
+     * Builds the analyzer of the queries: standard tokenization, lower casing and the given stop list.
+     *
+     * @param stopWordsFilePath the path to the stop words file, relative to the resource directory.
+     * @return the analyzer.
+     * @throws IOException if the stop list cannot be read.
+     */
+    public static Analyzer buildAnalyzer(String stopWordsFilePath) throws IOException {
+        return CustomAnalyzer.builder(Path.of("code/src/main/resource")).withTokenizer(StandardTokenizerFactory.class)
                 .addTokenFilter(LowerCaseFilterFactory.class)
                 .addTokenFilter("stop",
                         "ignoreCase", "true",
                         "words", stopWordsFilePath,
                         "format", "wordset")
                 .build();
+    }
 
-        HashMap<String, Float> weights = new HashMap<>();
-        weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
-        weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F);
-        // weights.put("sas", 1.0F);
-        Searcher s = new Searcher(analyzer, similarity, indexPath, topics,
-                50, runID + "_" + stopWordsFilePath.split("\\.")[0] + "_" + similarity.toString().split(" ")[0].substring(0,3) + "_" + filter, runPath, maxDocsRetrieved, weights);
+    /**
+     * Returns the identity of an analyzer, to key the query result cache: the classes and the arguments of the
+     * factories of a {@code CustomAnalyzer} and the content of its stop lists, or else the class of the analyzer. It is
+     * the same in every run, unlike the string of the analyzer, which holds the identity hashes of its components.
+     *
+     * @param analyzer the analyzer.
+     * @return the identity of the analyzer.
+     */
+    static String analyzerId(final Analyzer analyzer) {
+        if (!(analyzer instanceof CustomAnalyzer)) {
+            return analyzer.getClass().getName();
+        }
+
+        final CustomAnalyzer custom = (CustomAnalyzer) analyzer;
+        final StringBuilder id = new StringBuilder();
+
+        for (AbstractAnalysisFactory factory : custom.getCharFilterFactories()) {
+            factoryId(id, factory);
+        }
+        factoryId(id, custom.getTokenizerFactory());
+        for (TokenFilterFactory factory : custom.getTokenFilterFactories()) {
+            factoryId(id, factory);
+        }
+
+        return id.toString();
+    }
+
+    /**
+     * Appends the identity of an analysis factory: its class, its arguments and, for a stop filter, the checksum of its
+     * stop words, which may change while the name of their file stays the same.
+     *
+     * @param id      where to append the identity.
+     * @param factory the factory.
+     */
+    private static void factoryId(final StringBuilder id, final AbstractAnalysisFactory factory) {
+        id.append(factory.getClass().getName()).append(new TreeMap<>(factory.getOriginalArgs()));
+
+        if (factory instanceof StopFilterFactory) {
+            final CharArraySet stopWords = ((StopFilterFactory) factory).getStopWords();
+
+            final TreeSet<String> words = new TreeSet<>();
+            for (Object word : stopWords) {
+                words.add(word instanceof char[] ? new String((char[]) word) : word.toString());
+            }
 
-        s.search(filter);
+            final CRC32 crc = new CRC32();
+            crc.update(String.join("\n", words).getBytes(StandardCharsets.UTF_8));
+            id.append(String.format("stop=%08x", crc.getValue()));
+        }
+
+        id.append('|');
     }
 
     /**
      * It searches for the topics in the index and writes the results to a file
+     * <p>
+     * The run is written once all the topics have been searched, in topic order, so the run file is the same, byte by
+     * byte, whatever the number of threads. When {@link SearchOptions#isProfiling() profiling}, the profile of the
+     * topics is also written next to the run, as a CSV file named after the run.
      *
      * @param filter boolean value that determines whether to use the filter or not
      */
     public void search(boolean filter) throws IOException, ParseException {
+        final RunBuffer result = searchTopics(filter, new DocIdDictionary());
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            if (profiler == null) {
+                result.write(out);
+            } else {
+                // the lines of each topic are part of its output stage; the run keeps the order of the topics file
+                final List<String> numbers = result.topics();
+                for (int i = 0; i < numbers.size(); i++) {
+                    final long outputStart = System.nanoTime();
+                    out.print(result.format(numbers.get(i)));
+                    profiler.written(i, System.nanoTime() - outputStart);
+                }
+            }
+        }
+
+        if (profiler != null) {
+            System.out.print(profiler.summary());
+
+            final Path profileFile = runFile.resolveSibling(runID + "_profile.csv");
+            profiler.write(profileFile);
+            System.out.printf("Topic profile written to %s.%n", profileFile.toAbsolutePath());
+        }
+    }
+
+    /**
+     * It searches for the topics in the index and returns the results in memory, to be handed to the next stage of an
+     * experiment without writing a run file. The index is closed at the end, so a searcher can search only once.
+     * <p>
+     * As many topics as the {@link SearchOptions#getThreads() threads} of the options are searched at a time, over the
+     * shared {@code IndexSearcher}. The queries are built on the calling thread, in the order of the topics file; the
+     * searches run on a pool of threads and the topics keep the order of the topics file whatever the number of threads.
+     *
+     * @param filter     boolean value that determines whether to use the filter or not
+     * @param dictionary the dictionary of the document ordinals of the run.
+     * @return the run.
+     */
+    public RunBuffer searchRun(boolean filter, DocIdDictionary dictionary) throws IOException, ParseException {
+        final RunBuffer result = searchTopics(filter, dictionary);
+
+        if (profiler != null) {
+            System.out.print(profiler.summary());
+        }
+
+        return result;
+    }
+
+    /**
+     * Searches the topics as {@link #searchRun(boolean, DocIdDictionary)} does, without printing the profile, which is
+     * printed by the caller once the run has been output.
+     *
+     * @param filter     boolean value that determines whether to use the filter or not
+     * @param dictionary the dictionary of the document ordinals of the run.
+     * @return the run.
+     */
+    private RunBuffer searchTopics(boolean filter, DocIdDictionary dictionary) throws IOException, ParseException {
+
+        final int threads = options.getThreads();
 
         System.out.printf("%n#### Start searching ####%n");
 
         // the start time of the searching
         final long start = System.currentTimeMillis();
-        final Set<String> idField = new HashSet<>();
-        idField.add(ParsedDocument.FIELDS.ID);
 
-        BooleanQuery.Builder queryBuilder;
-        Query query;
-        TopDocs topDocsObject;
-        ScoreDoc[] topDocs;
-        String docID;
-        //clears file every time
+        final RunBuffer result = new RunBuffer(runID, dictionary);
+
+        final ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
 
         try {
+            final List<Future<?>> results = new ArrayList<>(topics.length);
+
             // SEARCHING
-            for (ParsedTopic topic : topics) {
+            for (int i = 0; i < topics.length; i++) {
+                final ParsedTopic topic = topics[i];
+
+                final long analysisStart = System.nanoTime();
+                final Query query = buildQuery(topic, filter);
+                final QueryProfiler.Entry entry = profiler == null ? null
+                        : profiler.start(i, topic.getNumber(), query, System.nanoTime() - analysisStart);
+
+                if (pool == null) {
+                    searchTopic(topic, query, filter, result, entry);
+                } else {
+                    // reserve the place of the topic, so that topics keep their order whatever the order they end in
+                    result.put(topic.getNumber(), new int[0], new float[0]);
+                    results.add(pool.submit(() -> {
+                        searchTopic(topic, query, filter, result, entry);
+                        return null;
+                    }));
+                }
+            }
+
+            for (Future<?> r : results) {
+                r.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to search the topics.", e.getCause());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (sliceExecutor != null) {
+                sliceExecutor.shutdownNow();
+            }
+            reader.close();
+        }
 
-                System.out.printf("Searching for topic %s.%n", topic.getNumber());
+        elapsedTime = System.currentTimeMillis() - start;
+
+        System.out.printf("%d topic(s) searched in %d seconds on %d thread(s).%n", topics.length, elapsedTime / 1000,
+                threads);
 
-                queryBuilder = new BooleanQuery.Builder();
+        System.out.printf("Document identifiers resolved in %d ms.%n", idResolutionTime.sum() / 1_000_000);
+
+        if (options.getTotalHitsThreshold() != DEFAULT_TOTAL_HITS_THRESHOLD) {
+            System.out.printf("%d document(s) scored with a total hits threshold of %d.%n", scoredDocs.sum(),
+                    options.getTotalHitsThreshold());
+        }
 
-                if (filter)
+        if (cache != null) {
+            System.out.printf("%s%n", cache);
+        }
+
+        if (filter && objectFilterCache != null) {
+            System.out.printf("%s%n", objectFilterCache);
+        }
 
-                    queryBuilder = Filter.filterAnd(topic.getObjects(), queryParser);
+        System.out.printf("#### Searching complete ####%n");
+
+        return result;
+    }
+
+    /**
+     * Builds the query of a topic.
+     *
+     * @param topic  the topic.
+     * @param filter whether to use the filter or not.
+     * @return the query.
+     */
+    private Query buildQuery(final ParsedTopic topic, final boolean filter) {
+        return buildQuery(topic.getTitle(), topic.getObjects(), filter, queryBuilder, objectFilterCache);
+    }
 
-                // define the terms to put in the query and if they SHOULD or MUST be present
-                queryBuilder.add(queryParser.parse(QueryParserBase.escape(topic.getTitle())), BooleanClause.Occur.SHOULD);
+    /**
+     * Builds the query of a topic with the given builder, the same way as a searcher does.
+     *
+     * @param topic   the topic.
+     * @param filter  whether to use the filter or not.
+     * @param builder the query builder.
+     * @return the query.
+     */
+    public static Query buildQuery(final ParsedTopic topic, final boolean filter, final AnalyzedQueryBuilder builder) {
+        return buildQuery(topic.getTitle(), topic.getObjects(), filter, builder);
+    }
 
-                query = queryBuilder.build();
+    /**
+     * Builds the query of a title and its comparison objects with the given builder, the same way as a searcher does.
+     *
+     * @param title   the title, e.g. a comparative question.
+     * @param objects the objects compared, used only by the filter.
+     * @param filter  whether to use the filter or not.
+     * @param builder the query builder.
+     * @return the query.
+     */
+    static Query buildQuery(final String title, final String objects, final boolean filter,
+                            final AnalyzedQueryBuilder builder) {
+        return buildQuery(title, objects, filter, builder, null);
+    }
 
-                topDocsObject = searcher.search(query, maxDocsRetrieved);
+    /**
+     * Builds the query of a title and its comparison objects with the given builder. When filtering with a cache, the
+     * objects are required without being scored, and their documents are read from the cache.
+     *
+     * @param title             the title, e.g. a comparative question.
+     * @param objects           the objects compared, used only by the filter.
+     * @param filter            whether to use the filter or not.
+     * @param builder           the query builder.
+     * @param objectFilterCache the cache of the documents of the objects, {@code null} to score the objects.
+     * @return the query.
+     */
+    static Query buildQuery(final String title, final String objects, final boolean filter,
+                            final AnalyzedQueryBuilder builder, final ObjectFilterCache objectFilterCache) {
+        BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
 
-                topDocs = topDocsObject.scoreDocs;
+        if (filter)
 
-                // OUTPUT
-                // adding the retrieved documents for this topic to the run file
-                for (int i = 0, n = topDocs.length; i < n; i++) {
-                    docID = reader.document(topDocs[i].doc, idField).get(ParsedDocument.FIELDS.ID);
-                    run.printf(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n", topic.getNumber(), docID, i + 1, topDocs[i].score,
-                            runID);
+            queryBuilder = objectFilterCache == null ? Filter.filterAnd(objects, builder)
+                    : Filter.filterCached(objects, builder, objectFilterCache);
 
+        // define the terms to put in the query and if they SHOULD or MUST be present
+        queryBuilder.add(builder.text(title), BooleanClause.Occur.SHOULD);
+
+        return queryBuilder.build();
+    }
+
+    /**
+     * Searches the query of a topic and puts the retrieved documents into the run. It can be called by several threads
+     * at the same time.
+     *
+     * @param topic  the topic.
+     * @param query  the query of the topic.
+     * @param filter whether the query uses the filter or not.
+     * @param result the run.
+     * @param entry  the profile of the topic, {@code null} not to profile it.
+     * @throws IOException if something goes wrong while searching.
+     */
+    private void searchTopic(final ParsedTopic topic, final Query query, final boolean filter, final RunBuffer result,
+                             final QueryProfiler.Entry entry) throws IOException {
+
+        System.out.printf("Searching for topic %s.%n", topic.getNumber());
+
+        // top-k collection counts the hits only up to the threshold, so its results differ from exhaustive ones
+        final String scope = cacheScope + "|filter=" + filter + "|totalHits=" + options.getTotalHitsThreshold();
+
+        TopDocs top = cache == null ? null : cache.get(scope, query);
+        if (top == null) {
+            final int totalHitsThreshold = options.getTotalHitsThreshold();
+
+            Query rewritten = query;
+            if (entry != null) {
+                // rewritten on its own to be timed, the searcher does not rewrite it again
+                final long rewriteStart = System.nanoTime();
+                rewritten = searcher.rewrite(query);
+                entry.rewriteTime = System.nanoTime() - rewriteStart;
+            }
+
+            final long collectionStart = System.nanoTime();
+            if (totalHitsThreshold == DEFAULT_TOTAL_HITS_THRESHOLD && entry == null) {
+                top = searcher.search(rewritten, maxDocsRetrieved);
+            } else {
+                // when only profiling, the documents scored are counted with the threshold of the default search
+                final TopKCollectorManager manager = new TopKCollectorManager(maxDocsRetrieved,
+                        totalHitsThreshold == DEFAULT_TOTAL_HITS_THRESHOLD
+                                ? Math.max(LUCENE_TOTAL_HITS_THRESHOLD, maxDocsRetrieved) : totalHitsThreshold);
+                top = searcher.search(rewritten, manager);
+                if (entry != null) {
+                    entry.scored = manager.getScoredDocs();
+                }
+                if (totalHitsThreshold != DEFAULT_TOTAL_HITS_THRESHOLD) {
+                    scoredDocs.add(manager.getScoredDocs());
+                    System.out.printf("Topic %s: %d document(s) scored, %s hit(s).%n", topic.getNumber(),
+                            manager.getScoredDocs(), top.totalHits);
                 }
+            }
+            if (entry != null) {
+                entry.collectionTime = System.nanoTime() - collectionStart;
+            }
 
-                run.flush();
+            if (cache != null) {
+                cache.put(scope, query, top);
             }
-        } finally {
-            run.close();
-            reader.close();
+        } else if (entry != null) {
+            entry.cached = true;
         }
 
-        elapsedTime = System.currentTimeMillis() - start;
+        if (entry != null) {
+            entry.setMatched(top.totalHits);
+        }
 
-        System.out.printf("%d topic(s) searched in %d seconds.%n", topics.length, elapsedTime / 1000);
+        final ScoreDoc[] topDocs = top.scoreDocs;
 
-        System.out.printf("#### Searching complete ####%n");
+        final long resolutionStart = System.nanoTime();
+        final String[] docIDs = IdResolver.resolve(reader, topDocs);
+        final long resolutionTime = System.nanoTime() - resolutionStart;
+        idResolutionTime.add(resolutionTime);
+
+        final long outputStart = System.nanoTime();
+        final float[] scores = new float[topDocs.length];
+        for (int i = 0; i < topDocs.length; i++) {
+            scores[i] = topDocs[i].score;
+        }
+
+        result.put(topic.getNumber(), result.getDictionary().ordinals(docIDs), scores);
+
+        if (entry != null) {
+            entry.resolutionTime = resolutionTime;
+            entry.outputTime = System.nanoTime() - outputStart;
+        }
     }
 
 }
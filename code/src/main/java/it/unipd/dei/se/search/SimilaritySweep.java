@@ -0,0 +1,344 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.filter.ObjectFilterCache;
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import it.unipd.dei.se.parse.topic.ParsedTopic;
+import it.unipd.dei.se.parse.topic.XMLTopicParser;
+import it.unipd.dei.se.run.DocIdDictionary;
+import it.unipd.dei.se.run.RunBuffer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the topics with a grid of similarity configurations (BM25 {@code k1} and {@code b}, LM Dirichlet
+ * {@code mu}) and field weights in a single process, writing one run per configuration.
+ * <p>
+ * The index is opened and the topics are parsed once; each configuration gets its own {@code IndexSearcher} over the
+ * shared reader, so the configurations are searched concurrently sharing the norms, the postings and the page cache.
+ * Each configuration also gets its own {@link DocIdDictionary}, so that the configurations do not contend for it and
+ * the memory of a run is released once it has been written.
+ */
+public class SimilaritySweep {
+
+    /**
+     * The BM25 {@code k1} values of the default grid.
+     */
+    private static final float[] DEFAULT_K1 = {0.6F, 0.9F, 1.2F, 1.5F, 1.8F};
+
+    /**
+     * The BM25 {@code b} values of the default grid.
+     */
+    private static final float[] DEFAULT_B = {0.3F, 0.5F, 0.75F, 0.9F};
+
+    /**
+     * The LM Dirichlet {@code mu} values of the default grid.
+     */
+    private static final float[] DEFAULT_MU = {500F, 1000F, 1500F, 2000F, 2500F};
+
+    /**
+     * The weights of the DocT5Query field, relative to the contents, of the default grid.
+     */
+    private static final float[] DEFAULT_DOC_T5_QUERY_WEIGHTS = {0.5F, 1.0F, 2.0F};
+
+    /**
+     * The maximum number of documents retrieved for each topic.
+     */
+    private static final int MAX_DOCS_RETRIEVED = 1000;
+
+    /**
+     * A configuration of the sweep: a similarity and the weights of the fields searched.
+     */
+    public static final class Configuration {
+
+        /**
+         * The name of the configuration, appended to the run identifier.
+         */
+        private final String name;
+
+        /**
+         * The similarity.
+         */
+        private final Similarity similarity;
+
+        /**
+         * The weights of the fields searched.
+         */
+        private final Map<String, Float> weights;
+
+        /**
+         * Creates a new configuration.
+         *
+         * @param name       the name of the configuration, appended to the run identifier.
+         * @param similarity the similarity.
+         * @param weights    the weights of the fields searched.
+         * @throws NullPointerException     if any of the parameters is {@code null}.
+         * @throws IllegalArgumentException if {@code name} or {@code weights} are empty.
+         */
+        public Configuration(final String name, final Similarity similarity, final Map<String, Float> weights) {
+
+            if (name == null) {
+                throw new NullPointerException("Configuration name cannot be null.");
+            }
+
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Configuration name cannot be empty.");
+            }
+
+            if (similarity == null) {
+                throw new NullPointerException("Similarity cannot be null.");
+            }
+
+            if (weights == null) {
+                throw new NullPointerException("Field weights cannot be null.");
+            }
+
+            if (weights.isEmpty()) {
+                throw new IllegalArgumentException("Field weights cannot be empty.");
+            }
+
+            this.name = name;
+            this.similarity = similarity;
+            this.weights = Map.copyOf(weights);
+        }
+
+        /**
+         * Returns the name of the configuration.
+         *
+         * @return the name of the configuration.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the similarity.
+         *
+         * @return the similarity.
+         */
+        public Similarity getSimilarity() {
+            return similarity;
+        }
+
+        /**
+         * Returns the weights of the fields searched.
+         *
+         * @return the weights of the fields searched.
+         */
+        public Map<String, Float> getWeights() {
+            return weights;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s %s", name, similarity, weights);
+        }
+    }
+
+    /**
+     * Returns the grid of configurations: every BM25 {@code k1} and {@code b} pair and every LM Dirichlet {@code mu},
+     * each with every weight of the DocT5Query field (the contents have weight 1).
+     *
+     * @param k1s               the BM25 {@code k1} values.
+     * @param bs                the BM25 {@code b} values.
+     * @param mus               the LM Dirichlet {@code mu} values.
+     * @param docT5QueryWeights the weights of the DocT5Query field.
+     * @return the configurations.
+     */
+    public static List<Configuration> grid(final float[] k1s, final float[] bs, final float[] mus,
+                                           final float[] docT5QueryWeights) {
+        final List<Configuration> grid = new ArrayList<>();
+
+        for (float w : docT5QueryWeights) {
+            final Map<String, Float> weights = new HashMap<>();
+            weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
+            weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, w);
+            final String suffix = String.format(Locale.ENGLISH, "-t5_%.2f", w);
+
+            for (float k1 : k1s) {
+                for (float b : bs) {
+                    grid.add(new Configuration(String.format(Locale.ENGLISH, "bm25-k1_%.2f-b_%.2f", k1, b) + suffix,
+                            new BM25Similarity(k1, b), weights));
+                }
+            }
+
+            for (float mu : mus) {
+                grid.add(new Configuration(String.format(Locale.ENGLISH, "lmd-mu_%.0f", mu) + suffix,
+                        new LMDirichletSimilarity(mu), weights));
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * Returns the default grid of configurations.
+     *
+     * @return the configurations.
+     */
+    public static List<Configuration> defaultGrid() {
+        return grid(DEFAULT_K1, DEFAULT_B, DEFAULT_MU, DEFAULT_DOC_T5_QUERY_WEIGHTS);
+    }
+
+    /**
+     * Searches the topics with each configuration, {@code threads} configurations at a time, and writes one run file
+     * per configuration, named after the run identifier and the configuration. When filtering with a cache, the
+     * comparison objects are required as non-scoring clauses whose documents are read from {@code objectFilterCache},
+     * so that they are computed once for all the configurations.
+     *
+     * @param indexPath         the path to the index.
+     * @param topicsFile        the file containing the topics.
+     * @param runID             the identifier of the runs, to which the name of each configuration is appended.
+     * @param runPath           the directory where the runs are written.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param filter            whether to use the filter or not.
+     * @param threads           the number of configurations searched at the same time.
+     * @param configurations    the configurations.
+     * @param objectFilterCache the cache of the documents of the comparison objects, {@code null} to score the objects.
+     * @throws IOException              if something goes wrong while searching or writing the runs.
+     * @throws IllegalArgumentException if {@code threads} is less than or equal to zero or there are no configurations.
+     */
+    public static void doSweep(final String indexPath, final String topicsFile, final String runID,
+                               final String runPath, final String stopWordsFilePath, final boolean filter,
+                               final int threads, final List<Configuration> configurations,
+                               final ObjectFilterCache objectFilterCache) throws IOException {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of sweep threads cannot be less than or equal to zero.");
+        }
+
+        if (configurations.isEmpty()) {
+            throw new IllegalArgumentException("No configuration to sweep.");
+        }
+
+        final Path runDir = Paths.get(runPath);
+        if (!Files.isDirectory(runDir) || !Files.isWritable(runDir)) {
+            throw new IllegalArgumentException(
+                    String.format("Run directory %s cannot be written.", runDir.toAbsolutePath()));
+        }
+
+        System.out.printf("%n#### Start sweep over %d configuration(s) ####%n", configurations.size());
+
+        final long start = System.currentTimeMillis();
+
+        // TOPICS READING AND PARSING, once for all the configurations
+        final List<ParsedTopic> topics = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            new XMLTopicParser(in).forEachRemaining(topics::add);
+        }
+
+        // the queries depend only on the field weights, so they are built once per set of weights
+        final Analyzer analyzer = Searcher.buildAnalyzer(stopWordsFilePath);
+        final Map<Map<String, Float>, Query[]> queries = new HashMap<>();
+        for (Configuration c : configurations) {
+            if (!queries.containsKey(c.weights)) {
+                final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(analyzer, c.weights);
+                final Query[] q = new Query[topics.size()];
+                for (int i = 0; i < q.length; i++) {
+                    q[i] = Searcher.buildQuery(topics.get(i).getTitle(), topics.get(i).getObjects(), filter, builder,
+                            objectFilterCache);
+                }
+                queries.put(c.weights, q);
+            }
+        }
+
+        final long setupTime = System.currentTimeMillis() - start;
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Map<Configuration, Future<Long>> results = new LinkedHashMap<>();
+
+        try (IndexReader reader = IndexShards.open(Paths.get(indexPath))) {
+
+            for (Configuration c : configurations) {
+                results.put(c, pool.submit(() -> {
+                    final long configurationStart = System.currentTimeMillis();
+
+                    final IndexSearcher searcher = new IndexSearcher(reader);
+                    searcher.setSimilarity(c.similarity);
+
+                    final DocIdDictionary dictionary = new DocIdDictionary();
+                    final RunBuffer run = new RunBuffer(runID + "_" + c.name, dictionary);
+                    final Query[] q = queries.get(c.weights);
+                    for (int i = 0; i < q.length; i++) {
+                        final ScoreDoc[] hits = searcher.search(q[i], MAX_DOCS_RETRIEVED).scoreDocs;
+
+                        final float[] scores = new float[hits.length];
+                        for (int j = 0; j < hits.length; j++) {
+                            scores[j] = hits[j].score;
+                        }
+                        run.put(topics.get(i).getNumber(), dictionary.ordinals(IdResolver.resolve(reader, hits)),
+                                scores);
+                    }
+
+                    run.write(runDir.resolve(run.getRunId() + ".txt"));
+
+                    return System.currentTimeMillis() - configurationStart;
+                }));
+            }
+
+            long configurationsTime = 0;
+            for (Map.Entry<Configuration, Future<Long>> r : results.entrySet()) {
+                final long elapsed = r.getValue().get();
+                configurationsTime += elapsed;
+                System.out.printf("%s searched in %d ms.%n", r.getKey(), elapsed);
+            }
+
+            final long elapsedTime = System.currentTimeMillis() - start;
+
+            System.out.printf("%d configuration(s) x %d topic(s) searched in %d ms on %d thread(s) "
+                            + "(%d ms reading the topics and building the queries, %d ms summed over the "
+                            + "configurations).%n", configurations.size(), topics.size(), elapsedTime, threads,
+                    setupTime, configurationsTime);
+
+            if (filter && objectFilterCache != null) {
+                System.out.printf("%s%n", objectFilterCache);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sweeping.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to sweep the configurations.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.printf("#### Sweep complete ####%n");
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments.
+     * @throws Exception if something goes wrong while sweeping.
+     */
+    public static void main(String[] args) throws Exception {
+        doSweep("experiment/index", "code/src/main/resource/topics-task2.xml", "seupd2122-kueri-sweep", "runs",
+                "lucene.txt", false, Runtime.getRuntime().availableProcessors(), defaultGrid(), null);
+    }
+}
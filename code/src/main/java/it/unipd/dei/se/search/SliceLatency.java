@@ -0,0 +1,238 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.index.IndexShards;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import it.unipd.dei.se.parse.topic.ParsedTopic;
+import it.unipd.dei.se.parse.topic.XMLTopicParser;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the latency of single queries searched one segment after the other and spread over leaf slices searched in
+ * parallel, on copies of an index force-merged to fewer and fewer segments, to see where slicing helps and where it
+ * hurts.
+ * <p>
+ * The index is copied to a temporary directory and merged there, so the original index is never modified.
+ */
+public class SliceLatency {
+
+    /**
+     * The number of passes over the topics done before measuring.
+     */
+    private static final int WARMUP_PASSES = 1;
+
+    /**
+     * Compares the latency of the topic queries by segment count and prints a table of the results.
+     *
+     * @param indexPath         the directory of the index, which must be a plain (not sharded) index.
+     * @param topicsFile        the file containing the topics.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param similarity        the similarity to use.
+     * @param threads           the number of threads searching the slices.
+     * @param passes            the number of measured passes over the topics.
+     * @throws IOException              if something goes wrong while copying, merging or searching the index.
+     * @throws IllegalArgumentException if the index is sharded, or {@code threads} or {@code passes} are less than or
+     *                                  equal to zero.
+     */
+    public static void doCompare(final String indexPath, final String topicsFile, final String stopWordsFilePath,
+                                 final Similarity similarity, final int threads, final int passes) throws IOException {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        if (passes <= 0) {
+            throw new IllegalArgumentException("The number of passes cannot be less than or equal to zero.");
+        }
+
+        final Path indexDir = Paths.get(indexPath);
+        if (!IndexShards.list(indexDir).isEmpty()) {
+            throw new IllegalArgumentException(String.format(
+                    "Index %s is sharded: merge its shards to compare the latency by segment count.",
+                    indexDir.toAbsolutePath()));
+        }
+
+        final Query[] queries = parseQueries(topicsFile, stopWordsFilePath);
+
+        final Path copy = Files.createTempDirectory("slice-latency");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<String> report = new ArrayList<>();
+
+        try {
+            copyIndex(indexDir, copy);
+
+            try (Directory dir = FSDirectory.open(copy)) {
+                int segments;
+                try (IndexReader reader = DirectoryReader.open(dir)) {
+                    segments = reader.leaves().size();
+                }
+
+                while (true) {
+                    try (IndexReader reader = DirectoryReader.open(dir)) {
+                        final IndexSearcher sequential = new IndexSearcher(reader);
+                        final IndexSearcher defaultSlices = new SlicedIndexSearcher(reader, executor,
+                                SlicedIndexSearcher.DEFAULT_MAX_DOCS_PER_SLICE,
+                                SlicedIndexSearcher.DEFAULT_MAX_SEGMENTS_PER_SLICE);
+                        final IndexSearcher segmentSlices = new SlicedIndexSearcher(reader, executor, 1, 1);
+
+                        final double[] base = measure(sequential, similarity, queries, passes);
+                        final double[] byDefault = measure(defaultSlices, similarity, queries, passes);
+                        final double[] bySegment = measure(segmentSlices, similarity, queries, passes);
+
+                        report.add(String.format(Locale.ENGLISH, "%8d %10d %12.2f %12.2f %8.2f %12.2f %8.2f",
+                                reader.leaves().size(), reader.maxDoc(), base[0], byDefault[0], base[0] / byDefault[0],
+                                bySegment[0], base[0] / bySegment[0]));
+                        report.add(String.format(Locale.ENGLISH, "%8s %10s %12.2f %12.2f %8s %12.2f %8s",
+                                "", "p95", base[1], byDefault[1], "", bySegment[1], ""));
+                    }
+
+                    if (segments == 1) {
+                        break;
+                    }
+
+                    segments = Math.max(1, segments / 2);
+                    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig()
+                            .setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+                        writer.forceMerge(segments);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            IOUtils.rm(copy);
+        }
+
+        System.out.printf("%n#### Query latency by segment count (%d topics, %d pass(es), %d slice thread(s)) ####%n",
+                queries.length, passes, threads);
+        System.out.printf("%8s %10s %12s %12s %8s %12s %8s%n", "segments", "docs", "sequential", "slices",
+                "speedup", "seg/slice", "speedup");
+        System.out.printf("%8s %10s %12s %12s %8s %12s %8s%n", "", "", "ms/query", "ms/query", "", "ms/query", "");
+        report.forEach(System.out::println);
+    }
+
+    /**
+     * Parses the topics into queries over the contents and the DocT5Query expansion, as {@link Searcher} does.
+     *
+     * @param topicsFile        the file containing the topics.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @return the queries, one per topic.
+     * @throws IOException if the topics or the stop list cannot be read.
+     */
+    static Query[] parseQueries(final String topicsFile, final String stopWordsFilePath) throws IOException {
+        final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(Searcher.buildAnalyzer(stopWordsFilePath),
+                Map.of(ParsedDocument.FIELDS.CONTENTS, 1.0F, ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F));
+
+        final List<Query> queries = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            for (XMLTopicParser topics = new XMLTopicParser(in); topics.hasNext(); ) {
+                final ParsedTopic topic = topics.next();
+                queries.add(builder.text(topic.getTitle()));
+            }
+        }
+        return queries.toArray(new Query[0]);
+    }
+
+    /**
+     * Returns the numbers of the topics, in the same order as the queries of {@link #parseQueries(String, String)}.
+     *
+     * @param topicsFile the file containing the topics.
+     * @return the numbers of the topics.
+     * @throws IOException if the topics cannot be read.
+     */
+    static String[] parseTopicNumbers(final String topicsFile) throws IOException {
+        final List<String> numbers = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            for (XMLTopicParser topics = new XMLTopicParser(in); topics.hasNext(); ) {
+                numbers.add(topics.next().getNumber());
+            }
+        }
+        return numbers.toArray(new String[0]);
+    }
+
+    /**
+     * Searches all the queries, one at a time, and returns the mean and the 95th percentile of their latency.
+     *
+     * @param searcher   the searcher.
+     * @param similarity the similarity to use.
+     * @param queries    the queries.
+     * @param passes     the number of measured passes over the queries.
+     * @return the mean and the 95th percentile latency, in milliseconds.
+     * @throws IOException if something goes wrong while searching.
+     */
+    private static double[] measure(final IndexSearcher searcher, final Similarity similarity, final Query[] queries,
+                                    final int passes) throws IOException {
+        searcher.setSimilarity(similarity);
+
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            for (Query query : queries) {
+                searcher.search(query, 1000);
+            }
+        }
+
+        final long[] latencies = new long[passes * queries.length];
+        int n = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (Query query : queries) {
+                final long start = System.nanoTime();
+                searcher.search(query, 1000);
+                latencies[n++] = System.nanoTime() - start;
+            }
+        }
+
+        Arrays.sort(latencies);
+        final double mean = Arrays.stream(latencies).average().orElse(0) / 1e6;
+        final double p95 = latencies.length == 0 ? 0
+                : latencies[Math.min(latencies.length - 1, (int) Math.ceil(latencies.length * 0.95) - 1)] / 1e6;
+        return new double[]{mean, p95};
+    }
+
+    /**
+     * Copies the files of an index into another directory.
+     *
+     * @param from the directory of the index.
+     * @param to   the directory of the copy.
+     * @throws IOException if a file cannot be copied.
+     */
+    private static void copyIndex(final Path from, final Path to) throws IOException {
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments: the index directory and the number of slice threads.
+     * @throws Exception if something goes wrong while comparing.
+     */
+    public static void main(String[] args) throws Exception {
+        doCompare(args.length > 0 ? args[0] : "experiment/index", "code/src/main/resource/topics-task2.xml",
+                "lucene.txt", new BM25Similarity(), args.length > 1 ? Integer.parseInt(args[1]) : 4, 5);
+    }
+}
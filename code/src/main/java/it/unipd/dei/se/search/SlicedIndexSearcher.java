@@ -0,0 +1,167 @@
+package it.unipd.dei.se.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@code IndexSearcher} which searches the leaf slices of a single query in parallel on an executor, with
+ * configurable slice sizes.
+ * <p>
+ * A slice is a group of segments searched by one task: smaller slices spread a query over more threads but add the cost
+ * of scheduling the tasks and of merging their top hits, which is not repaid on small segments.
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+
+    /**
+     * The default maximum number of documents of a slice, the same as Lucene's.
+     */
+    public static final int DEFAULT_MAX_DOCS_PER_SLICE = 250_000;
+
+    /**
+     * The default maximum number of segments of a slice, the same as Lucene's.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+    /**
+     * The slice sizes of the searcher under construction. {@code IndexSearcher} computes its slices in its constructor,
+     * before the fields of a subclass are assigned, so they are handed over through the constructing thread.
+     */
+    private static final ThreadLocal<int[]> SLICE_SIZES = new ThreadLocal<>();
+
+    /**
+     * The maximum number of documents of a slice.
+     */
+    private final int maxDocsPerSlice;
+
+    /**
+     * The maximum number of segments of a slice.
+     */
+    private final int maxSegmentsPerSlice;
+
+    /**
+     * Creates a new searcher.
+     *
+     * @param reader              the reader to search.
+     * @param executor            the executor searching the slices.
+     * @param maxDocsPerSlice     the maximum number of documents of a slice.
+     * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+     * @throws NullPointerException     if {@code reader} and/or {@code executor} are {@code null}.
+     * @throws IllegalArgumentException if any slice size is less than or equal to zero.
+     */
+    public SlicedIndexSearcher(final IndexReader reader, final Executor executor, final int maxDocsPerSlice,
+                               final int maxSegmentsPerSlice) {
+        super(reader, checked(executor, maxDocsPerSlice, maxSegmentsPerSlice));
+        SLICE_SIZES.remove();
+
+        this.maxDocsPerSlice = maxDocsPerSlice;
+        this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+    }
+
+    /**
+     * Checks the parameters of the constructor and hands the slice sizes over to {@link #slices(List)}.
+     *
+     * @param executor            the executor searching the slices.
+     * @param maxDocsPerSlice     the maximum number of documents of a slice.
+     * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+     * @return the executor.
+     */
+    private static Executor checked(final Executor executor, final int maxDocsPerSlice,
+                                    final int maxSegmentsPerSlice) {
+
+        if (executor == null) {
+            throw new NullPointerException("Executor cannot be null.");
+        }
+
+        if (maxDocsPerSlice <= 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of documents per slice cannot be less than or equal to zero.");
+        }
+
+        if (maxSegmentsPerSlice <= 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of segments per slice cannot be less than or equal to zero.");
+        }
+
+        SLICE_SIZES.set(new int[]{maxDocsPerSlice, maxSegmentsPerSlice});
+        return executor;
+    }
+
+    @Override
+    protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+        final int[] sizes = SLICE_SIZES.get();
+
+        // called after construction, the fields are already assigned
+        if (sizes == null) {
+            return group(leaves, maxDocsPerSlice, maxSegmentsPerSlice);
+        }
+
+        return group(leaves, sizes[0], sizes[1]);
+    }
+
+    /**
+     * Groups the leaves into slices the same way as Lucene does with its own limits: the leaves are taken from the
+     * largest to the smallest, a leaf larger than the maximum number of documents is a slice on its own, and the others
+     * fill a slice until it reaches either limit.
+     *
+     * @param leaves              the leaves of the reader.
+     * @param maxDocsPerSlice     the maximum number of documents of a slice.
+     * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+     * @return the slices.
+     */
+    private static LeafSlice[] group(final List<LeafReaderContext> leaves, final int maxDocsPerSlice,
+                                     final int maxSegmentsPerSlice) {
+        final List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        sorted.sort(Collections.reverseOrder(Comparator.comparingInt(l -> l.reader().maxDoc())));
+
+        final List<List<LeafReaderContext>> groups = new ArrayList<>();
+        List<LeafReaderContext> group = null;
+        long docs = 0;
+        for (LeafReaderContext leaf : sorted) {
+            // the leaves are sorted, so no group is open when a leaf larger than a slice comes
+            if (leaf.reader().maxDoc() > maxDocsPerSlice) {
+                groups.add(Collections.singletonList(leaf));
+                continue;
+            }
+
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(leaf);
+            docs += leaf.reader().maxDoc();
+
+            if (group.size() >= maxSegmentsPerSlice || docs > maxDocsPerSlice) {
+                group = null;
+                docs = 0;
+            }
+        }
+
+        final LeafSlice[] slices = new LeafSlice[groups.size()];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new LeafSlice(groups.get(i).toArray(new LeafReaderContext[0]));
+        }
+        return slices;
+    }
+
+    /**
+     * Returns the number of slices a query is split into.
+     *
+     * @return the number of slices.
+     */
+    public int getSliceCount() {
+        return getSlices().length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SlicedIndexSearcher(%d slice(s), max %d docs and %d segments per slice)",
+                getSliceCount(), maxDocsPerSlice, maxSegmentsPerSlice);
+    }
+}
@@ -0,0 +1,149 @@
+package it.unipd.dei.se.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Collects the top documents of a query counting the total hits only up to a threshold, and counts how many documents
+ * were scored.
+ * <p>
+ * Once the top documents are full and more than {@code totalHitsThreshold} hits have been counted, the collector tells
+ * the scorer the minimum competitive score, and disjunctions skip the blocks of documents whose maximum impact cannot
+ * beat it (block-max WAND). The top documents are the same as with exhaustive collection; only the total hit count
+ * becomes a lower bound. A manager collects a single query; with several slices, each slice is collected separately
+ * and the top documents are merged.
+ */
+public class TopKCollectorManager implements CollectorManager<TopKCollectorManager.CountingCollector, TopDocs> {
+
+    /**
+     * The threshold counting all the hits, which scores every matching document.
+     */
+    public static final int EXHAUSTIVE = Integer.MAX_VALUE;
+
+    /**
+     * The threshold counting no more hits than needed to fill the top documents, which skips the most.
+     */
+    public static final int TOP_K = 0;
+
+    /**
+     * Collects the top documents and counts the documents collected, i.e. scored.
+     */
+    public static final class CountingCollector extends FilterCollector {
+
+        /**
+         * The collector of the top documents, the same as {@code in}.
+         */
+        private final TopScoreDocCollector topDocsCollector;
+
+        /**
+         * The number of documents collected.
+         */
+        private long count = 0;
+
+        /**
+         * Creates a new collector.
+         *
+         * @param in the collector of the top documents.
+         */
+        private CountingCollector(final TopScoreDocCollector in) {
+            super(in);
+            this.topDocsCollector = in;
+        }
+
+        /**
+         * Returns the top documents collected.
+         *
+         * @return the top documents.
+         */
+        public TopDocs topDocs() {
+            return topDocsCollector.topDocs();
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(final LeafReaderContext context) throws IOException {
+            return new FilterLeafCollector(in.getLeafCollector(context)) {
+                @Override
+                public void collect(final int doc) throws IOException {
+                    count++;
+                    in.collect(doc);
+                }
+            };
+        }
+    }
+
+    /**
+     * The number of top documents to collect.
+     */
+    private final int numHits;
+
+    /**
+     * The number of hits counted exactly.
+     */
+    private final int totalHitsThreshold;
+
+    /**
+     * The number of documents scored by the last reduced collection.
+     */
+    private long scoredDocs = 0;
+
+    /**
+     * Creates a new manager.
+     *
+     * @param numHits            the number of top documents to collect.
+     * @param totalHitsThreshold the number of hits counted exactly, {@link #TOP_K} to skip as soon as possible,
+     *                           {@link #EXHAUSTIVE} to score every matching document.
+     * @throws IllegalArgumentException if {@code numHits} is less than or equal to zero or {@code totalHitsThreshold}
+     *                                  is less than zero.
+     */
+    public TopKCollectorManager(final int numHits, final int totalHitsThreshold) {
+
+        if (numHits <= 0) {
+            throw new IllegalArgumentException("The number of top documents cannot be less than or equal to zero.");
+        }
+
+        if (totalHitsThreshold < 0) {
+            throw new IllegalArgumentException("The total hits threshold cannot be less than zero.");
+        }
+
+        this.numHits = numHits;
+        this.totalHitsThreshold = totalHitsThreshold;
+    }
+
+    @Override
+    public CountingCollector newCollector() {
+        return new CountingCollector(TopScoreDocCollector.create(numHits, totalHitsThreshold));
+    }
+
+    @Override
+    public TopDocs reduce(final Collection<CountingCollector> collectors) {
+        final TopDocs[] topDocs = new TopDocs[collectors.size()];
+
+        long scored = 0;
+        int i = 0;
+        for (CountingCollector c : collectors) {
+            topDocs[i++] = c.topDocs();
+            scored += c.count;
+        }
+        scoredDocs = scored;
+
+        // slices are in docid order, so ties keep the same order as a single collector
+        return topDocs.length == 1 ? topDocs[0] : TopDocs.merge(numHits, topDocs);
+    }
+
+    /**
+     * Returns the number of documents scored by the last collection.
+     *
+     * @return the number of documents scored.
+     */
+    public long getScoredDocs() {
+        return scoredDocs;
+    }
+}
@@ -0,0 +1,167 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.index.IndexShards;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares, topic by topic, exhaustive collection of the top documents, which scores every matching document, with
+ * top-k collection, which counts the total hits only until the top documents are full and then lets the scorers skip
+ * the blocks of documents that cannot enter them.
+ * <p>
+ * For each topic it reports the documents scored and the latency of both, and checks that the top documents are the
+ * same, in the same order and with the same scores.
+ */
+public class TopKComparison {
+
+    /**
+     * The number of passes over the topics done before measuring.
+     */
+    private static final int WARMUP_PASSES = 1;
+
+    /**
+     * Compares exhaustive and top-k collection of the topic queries and prints a table of the results.
+     *
+     * @param indexPath         the directory of the index.
+     * @param topicsFile        the file containing the topics.
+     * @param stopWordsFilePath the path to the stop words file.
+     * @param similarity        the similarity to use.
+     * @param maxDocsRetrieved  the number of top documents to collect.
+     * @param passes            the number of measured passes over the topics.
+     * @return the number of topics whose top documents differ, which is expected to be zero.
+     * @throws IOException              if something goes wrong while searching the index.
+     * @throws IllegalArgumentException if {@code maxDocsRetrieved} or {@code passes} are less than or equal to zero.
+     */
+    public static int doCompare(final String indexPath, final String topicsFile, final String stopWordsFilePath,
+                                final Similarity similarity, final int maxDocsRetrieved, final int passes)
+            throws IOException {
+
+        if (maxDocsRetrieved <= 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of documents to be retrieved cannot be less than or equal to zero.");
+        }
+
+        if (passes <= 0) {
+            throw new IllegalArgumentException("The number of passes cannot be less than or equal to zero.");
+        }
+
+        final Query[] queries = SliceLatency.parseQueries(topicsFile, stopWordsFilePath);
+        final String[] numbers = SliceLatency.parseTopicNumbers(topicsFile);
+
+        final List<String> report = new ArrayList<>();
+        long exhaustiveScored = 0;
+        long topKScored = 0;
+        long exhaustiveTime = 0;
+        long topKTime = 0;
+        int different = 0;
+
+        try (IndexReader reader = IndexShards.open(Paths.get(indexPath))) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(similarity);
+
+            for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+                for (Query query : queries) {
+                    searcher.search(query, new TopKCollectorManager(maxDocsRetrieved, TopKCollectorManager.EXHAUSTIVE));
+                    searcher.search(query, new TopKCollectorManager(maxDocsRetrieved, TopKCollectorManager.TOP_K));
+                }
+            }
+
+            for (int i = 0; i < queries.length; i++) {
+                final TopKCollectorManager exhaustive = new TopKCollectorManager(maxDocsRetrieved,
+                        TopKCollectorManager.EXHAUSTIVE);
+                final TopKCollectorManager topK = new TopKCollectorManager(maxDocsRetrieved,
+                        TopKCollectorManager.TOP_K);
+
+                TopDocs exhaustiveDocs = null;
+                TopDocs topKDocs = null;
+
+                // alternate the two, so that neither runs always on a warmer cache
+                long exhaustiveNanos = 0;
+                long topKNanos = 0;
+                for (int pass = 0; pass < passes; pass++) {
+                    long start = System.nanoTime();
+                    exhaustiveDocs = searcher.search(queries[i], exhaustive);
+                    exhaustiveNanos += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    topKDocs = searcher.search(queries[i], topK);
+                    topKNanos += System.nanoTime() - start;
+                }
+
+                final boolean same = sameRanking(exhaustiveDocs, topKDocs);
+                if (!same) {
+                    different++;
+                }
+
+                exhaustiveScored += exhaustive.getScoredDocs();
+                topKScored += topK.getScoredDocs();
+                exhaustiveTime += exhaustiveNanos;
+                topKTime += topKNanos;
+
+                report.add(String.format(Locale.ENGLISH, "%8s %12d %12d %12.2f %12.2f %8.2f %9s", numbers[i],
+                        exhaustive.getScoredDocs(), topK.getScoredDocs(), exhaustiveNanos / 1e6 / passes,
+                        topKNanos / 1e6 / passes, (double) exhaustiveNanos / Math.max(1, topKNanos),
+                        same ? "yes" : "NO"));
+            }
+        }
+
+        System.out.printf("%n#### Exhaustive vs top-%d collection (%d topics, %d pass(es)) ####%n", maxDocsRetrieved,
+                queries.length, passes);
+        System.out.printf("%8s %12s %12s %12s %12s %8s %9s%n", "topic", "scored", "scored", "exhaustive", "top-k",
+                "speedup", "identical");
+        System.out.printf("%8s %12s %12s %12s %12s %8s %9s%n", "", "exhaustive", "top-k", "ms/query", "ms/query", "",
+                "");
+        report.forEach(System.out::println);
+        System.out.printf(Locale.ENGLISH, "%8s %12d %12d %12.2f %12.2f %8.2f %9s%n", "total", exhaustiveScored,
+                topKScored, exhaustiveTime / 1e6 / passes, topKTime / 1e6 / passes,
+                (double) exhaustiveTime / Math.max(1, topKTime), different == 0 ? "yes" : different + " differ");
+
+        return different;
+    }
+
+    /**
+     * Checks whether two lists of top documents have the same documents, in the same order and with the same scores.
+     *
+     * @param a the first list.
+     * @param b the second list.
+     * @return {@code true} if the lists are the same, {@code false} otherwise.
+     */
+    private static boolean sameRanking(final TopDocs a, final TopDocs b) {
+        final ScoreDoc[] x = a.scoreDocs;
+        final ScoreDoc[] y = b.scoreDocs;
+
+        if (x.length != y.length) {
+            return false;
+        }
+
+        for (int i = 0; i < x.length; i++) {
+            if (x[i].doc != y[i].doc || Float.compare(x[i].score, y[i].score) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Main method of the class. Just for testing purposes.
+     *
+     * @param args command line arguments: the index directory.
+     * @throws Exception if something goes wrong while comparing.
+     */
+    public static void main(String[] args) throws Exception {
+        doCompare(args.length > 0 ? args[0] : "experiment/index", "code/src/main/resource/topics-task2.xml",
+                "lucene.txt", new BM25Similarity(), 1000, 5);
+    }
+}
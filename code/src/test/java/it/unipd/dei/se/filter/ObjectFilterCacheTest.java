@@ -0,0 +1,147 @@
+package it.unipd.dei.se.filter;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link ObjectFilterCache} matches the same documents as the scoring filter, shares its bitsets between
+ * the readers of the same segments and releases them once the readers are closed.
+ */
+class ObjectFilterCacheTest {
+
+    /**
+     * The words of the documents.
+     */
+    static final String[] WORDS = {"canon", "nikon", "laptop", "desktop", "tea", "coffee", "cat", "dog"};
+
+    /**
+     * Indexes random documents in several segments.
+     *
+     * @param directory the directory where to write the index.
+     * @throws IOException if the index cannot be written.
+     */
+    static void index(final Directory directory) throws IOException {
+        final Random random = new Random(3);
+        final IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+        iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            for (int s = 0; s < 4; s++) {
+                for (int d = 0; d < 250; d++) {
+                    final StringBuilder text = new StringBuilder();
+                    for (int w = 0; w < 6; w++) {
+                        text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                    }
+                    final Document doc = new Document();
+                    doc.add(new TextField("contents", text.toString(), Field.Store.NO));
+                    writer.addDocument(doc);
+                }
+                writer.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the sorted document numbers of all the documents matching a query.
+     *
+     * @param searcher the searcher.
+     * @param query    the query.
+     * @return the document numbers.
+     * @throws IOException if the query cannot be searched.
+     */
+    static int[] docs(final IndexSearcher searcher, final Query query) throws IOException {
+        final ScoreDoc[] hits = searcher.search(query, searcher.getIndexReader().maxDoc()).scoreDocs;
+        return Arrays.stream(hits).mapToInt(h -> h.doc).sorted().toArray();
+    }
+
+    /**
+     * Returns a query requiring two objects.
+     *
+     * @param first  the first object.
+     * @param second the second object.
+     * @param cache  the cache of the objects, {@code null} to score them.
+     * @return the query.
+     */
+    static Query objects(final String first, final String second, final ObjectFilterCache cache) {
+        final BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String object : new String[]{first, second}) {
+            final Query q = new TermQuery(new Term("contents", object));
+            query.add(cache == null ? q : cache.filter(q),
+                    cache == null ? BooleanClause.Occur.MUST : BooleanClause.Occur.FILTER);
+        }
+        return query.build();
+    }
+
+    @Test
+    void matchesTheSameDocumentsAsTheScoringFilter() throws IOException {
+        final ObjectFilterCache cache = new ObjectFilterCache();
+
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+
+                for (int i = 0; i + 1 < WORDS.length; i++) {
+                    final int[] expected = docs(searcher, objects(WORDS[i], WORDS[i + 1], null));
+                    assertTrue(expected.length > 0);
+                    assertArrayEquals(expected, docs(searcher, objects(WORDS[i], WORDS[i + 1], cache)));
+                    // the second time from the cache
+                    assertArrayEquals(expected, docs(searcher, objects(WORDS[i], WORDS[i + 1], cache)));
+                }
+                assertTrue(cache.getHits() > 0);
+            }
+        }
+    }
+
+    @Test
+    void sharesTheBitsetsAndReleasesThemWhenTheReadersAreClosed() throws IOException {
+        final ObjectFilterCache cache = new ObjectFilterCache();
+
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+
+            final DirectoryReader first = DirectoryReader.open(directory);
+            final DirectoryReader second = DirectoryReader.open(directory);
+
+            docs(new IndexSearcher(first), objects("canon", "nikon", cache));
+            final long misses = cache.getMisses();
+            assertEquals(4, cache.size());
+
+            // another reader of the same segments reads the same bitsets
+            docs(new IndexSearcher(second), objects("canon", "nikon", cache));
+            assertEquals(misses, cache.getMisses());
+
+            first.close();
+            assertEquals(4, cache.size());
+
+            second.close();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.ramBytesUsed());
+        }
+    }
+}
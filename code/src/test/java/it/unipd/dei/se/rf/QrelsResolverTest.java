@@ -0,0 +1,170 @@
+package it.unipd.dei.se.rf;
+
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link QrelsResolver} finds the same documents and term frequencies as the query per judgment it replaces.
+ */
+class QrelsResolverTest {
+
+    /**
+     * The words of the documents.
+     */
+    static final String[] WORDS = {"laptop", "desktop", "canon", "nikon", "python", "java", "tea", "coffee"};
+
+    /**
+     * The number of distinct identifiers.
+     */
+    static final int IDS = 300;
+
+    /**
+     * Indexes random documents over several segments, with some identifiers indexed twice and some documents deleted.
+     *
+     * @param directory the directory where to write the index.
+     * @throws IOException if the index cannot be written.
+     */
+    static void index(final Directory directory) throws IOException {
+        final Random random = new Random(5);
+
+        final FieldType contents = new FieldType(TextField.TYPE_NOT_STORED);
+        contents.setStoreTermVectors(true);
+        contents.freeze();
+
+        final IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+        iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            for (int d = 0; d < IDS + IDS / 5; d++) {
+                // the last documents repeat some identifiers, in later segments
+                final String id = String.format("doc-%d", d < IDS ? d : random.nextInt(IDS));
+
+                final StringBuilder text = new StringBuilder();
+                for (int w = 0, words = 1 + random.nextInt(20); w < words; w++) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+
+                final Document doc = new Document();
+                doc.add(new StringField(ParsedDocument.FIELDS.ID, id, Field.Store.YES));
+                doc.add(new Field(ParsedDocument.FIELDS.CONTENTS, text.toString(), contents));
+                writer.addDocument(doc);
+
+                if (d % 100 == 99) {
+                    writer.commit();
+                }
+            }
+
+            // deleted documents must be skipped, whether or not their identifier is indexed again
+            for (int d = 0; d < IDS; d += 17) {
+                writer.deleteDocuments(new Term(ParsedDocument.FIELDS.ID, String.format("doc-%d", d)));
+            }
+        }
+    }
+
+    /**
+     * Returns the term frequencies of a judged document the way RF read them before {@link QrelsResolver}: a query
+     * for the identifier, then the term vector of the first hit.
+     *
+     * @param reader the reader.
+     * @param id     the identifier of the document.
+     * @return the frequency of each term, {@code null} if the identifier is not found.
+     * @throws IOException    if the index cannot be read.
+     * @throws ParseException if the identifier cannot be parsed.
+     */
+    static Map<String, Integer> perDocument(final IndexReader reader, final String id)
+            throws IOException, ParseException {
+        final QueryParser queryParser = new QueryParser(ParsedDocument.FIELDS.ID, new WhitespaceAnalyzer());
+        final ScoreDoc[] topDocs = new IndexSearcher(reader).search(
+                queryParser.parse(QueryParserBase.escape(id)), 1).scoreDocs;
+        if (topDocs.length == 0) {
+            return null;
+        }
+
+        final Map<String, Integer> frequencies = new LinkedHashMap<>();
+        final Terms termVector = reader.getTermVector(topDocs[0].doc, ParsedDocument.FIELDS.CONTENTS);
+        final TermsEnum iterator = termVector.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef term = iterator.next(); term != null; term = iterator.next()) {
+            postings = iterator.postings(postings, PostingsEnum.FREQS);
+            postings.nextDoc();
+            frequencies.put(term.utf8ToString(), postings.freq());
+        }
+        return frequencies;
+    }
+
+    @Test
+    void resolvesTheSameDocumentsAsAQueryPerJudgment() throws IOException, ParseException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+
+            try (IndexReader reader = DirectoryReader.open(directory)) {
+                assertTrue(reader.leaves().size() > 1);
+
+                final List<String> ids = new ArrayList<>();
+                for (int d = 0; d < IDS + 10; d++) {
+                    ids.add(String.format("doc-%d", d));
+                }
+
+                final Map<String, Integer> docs = QrelsResolver.resolve(reader, ids);
+                final Map<Integer, QrelsResolver.TermVector> vectors = QrelsResolver.termVectors(reader,
+                        docs.values(), ParsedDocument.FIELDS.CONTENTS);
+
+                int found = 0;
+                for (String id : ids) {
+                    final Map<String, Integer> expected = perDocument(reader, id);
+
+                    final Integer doc = docs.get(id);
+                    if (expected == null) {
+                        assertEquals(null, doc, id);
+                        continue;
+                    }
+                    found++;
+
+                    final QrelsResolver.TermVector vector = vectors.get(doc);
+                    final Map<String, Integer> actual = new LinkedHashMap<>();
+                    for (int t = 0; t < vector.size(); t++) {
+                        actual.put(vector.term(t), vector.freq(t));
+                    }
+                    assertEquals(expected, actual, id);
+                }
+
+                assertEquals(found, docs.size());
+                assertTrue(found < ids.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package it.unipd.dei.se.rf;
+
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests writing the {@link TermStatistics} and reading them back, directly and through the
+ * {@link TermStatisticsCache}.
+ */
+class TermStatisticsCacheTest {
+
+    /**
+     * Builds the statistics of two topics.
+     *
+     * @return the statistics.
+     */
+    private static TermStatistics statistics() {
+        final QrelsResolver.TermVector first = new QrelsResolver.TermVector(new String[]{"apple", "shared"},
+                new int[]{1, 2});
+        final QrelsResolver.TermVector second = new QrelsResolver.TermVector(new String[]{"pear", "shared"},
+                new int[]{4, 300});
+
+        return new TermStatistics.Builder()
+                .add(3, 1, first)
+                .add(3, 2, second)
+                .add(9, 2, first)
+                .build();
+    }
+
+    /**
+     * Checks that two statistics hold the same topics, terms and frequencies.
+     *
+     * @param expected the expected statistics.
+     * @param actual   the actual statistics.
+     */
+    private static void assertSameStatistics(final TermStatistics expected, final TermStatistics actual) {
+        assertEquals(expected.topics(), actual.topics());
+        assertEquals(expected.levels(), actual.levels());
+        assertEquals(expected.terms(), actual.terms());
+
+        for (int t = 0; t < expected.topics(); t++) {
+            assertEquals(expected.topic(t), actual.topic(t));
+            assertEquals(expected.size(t), actual.size(t));
+
+            for (int i = 0; i < expected.size(t); i++) {
+                assertEquals(expected.term(t, i), actual.term(t, i));
+                for (int level = 1; level <= expected.levels(); level++) {
+                    assertEquals(expected.freq(t, i, level), actual.freq(t, i, level));
+                }
+                assertEquals(expected.relevance(t, i), actual.relevance(t, i), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    void readsBackWhatIsWritten() throws IOException {
+        final TermStatistics expected = statistics();
+
+        final ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+        expected.write(out);
+
+        assertSameStatistics(expected, TermStatistics.read(out.toDataInput()));
+    }
+
+    @Test
+    void returnsThePutStatisticsForTheSameKeyOnly(@TempDir final Path dir) throws IOException {
+        final TermStatisticsCache cache = new TermStatisticsCache(dir.resolve("cache"));
+        final Path index = dir.resolve("index");
+        final Path qrels = dir.resolve("qrels.txt");
+
+        assertNull(cache.get(index, qrels, "key"));
+
+        final TermStatistics expected = statistics();
+        cache.put(index, qrels, "key", expected);
+
+        final TermStatistics actual = cache.get(index, qrels, "key");
+        assertNotNull(actual);
+        assertSameStatistics(expected, actual);
+
+        assertNull(cache.get(index, qrels, "another key"));
+    }
+
+    @Test
+    void missesACorruptedFile(@TempDir final Path dir) throws IOException {
+        final Path cacheDir = dir.resolve("cache");
+        final TermStatisticsCache cache = new TermStatisticsCache(cacheDir);
+        final Path index = dir.resolve("index");
+        final Path qrels = dir.resolve("qrels.txt");
+
+        cache.put(index, qrels, "key", statistics());
+
+        final Path file;
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            file = files.collect(Collectors.toList()).get(0);
+        }
+
+        // a flipped byte in the middle of the statistics
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x7F;
+        Files.write(file, bytes);
+        assertNull(cache.get(index, qrels, "key"));
+
+        // and a file truncated by an interrupted run
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 3));
+        assertNull(cache.get(index, qrels, "key"));
+    }
+}
@@ -0,0 +1,71 @@
+package it.unipd.dei.se.rf;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the {@link TermStatistics} built from the term vectors of the judged documents.
+ */
+class TermStatisticsTest {
+
+    /**
+     * Returns the position of a term in a topic.
+     *
+     * @param statistics the statistics.
+     * @param t          the position of the topic.
+     * @param term       the term.
+     * @return the position of the term, {@code -1} if the topic has no such term.
+     */
+    static int position(final TermStatistics statistics, final int t, final String term) {
+        for (int i = 0; i < statistics.size(t); i++) {
+            if (statistics.term(t, i).equals(term)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void sumsTheFrequenciesOfATermSharedByTwoDocuments() {
+        final QrelsResolver.TermVector first = new QrelsResolver.TermVector(new String[]{"apple", "shared"},
+                new int[]{1, 2});
+        final QrelsResolver.TermVector second = new QrelsResolver.TermVector(new String[]{"pear", "shared"},
+                new int[]{4, 3});
+
+        final TermStatistics statistics = new TermStatistics.Builder()
+                .add(7, 2, first)
+                .add(7, 2, second)
+                .build();
+
+        assertEquals(1, statistics.topics());
+        assertEquals(7, statistics.topic(0));
+        assertEquals(2, statistics.levels());
+        assertEquals(3, statistics.size(0));
+
+        final int shared = position(statistics, 0, "shared");
+        assertEquals(0, statistics.freq(0, shared, 1));
+        assertEquals(5, statistics.freq(0, shared, 2));
+
+        // the frequency at each level weighted by the square of the level
+        assertEquals(5 * 4, statistics.relevance(0, shared), 0.0f);
+        assertEquals(1 * 4, statistics.relevance(0, position(statistics, 0, "apple")), 0.0f);
+    }
+
+    @Test
+    void weighsEachLevelOfASharedTermByItsSquare() {
+        final QrelsResolver.TermVector first = new QrelsResolver.TermVector(new String[]{"shared"}, new int[]{2});
+        final QrelsResolver.TermVector second = new QrelsResolver.TermVector(new String[]{"shared"}, new int[]{3});
+
+        final TermStatistics statistics = new TermStatistics.Builder()
+                .add(1, 1, first)
+                .add(1, 3, second)
+                .build();
+
+        final int shared = position(statistics, 0, "shared");
+        assertEquals(2, statistics.freq(0, shared, 1));
+        assertEquals(0, statistics.freq(0, shared, 2));
+        assertEquals(3, statistics.freq(0, shared, 3));
+        assertEquals(2 * 1 + 3 * 9, statistics.relevance(0, shared), 0.0f);
+    }
+}
@@ -0,0 +1,213 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.filter.Filter;
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link AnalyzedQueryBuilder} builds the same queries as the {@code QueryParser} and
+ * {@code MultiFieldQueryParser} it replaces, and that they find the same documents with the same scores.
+ */
+class AnalyzedQueryBuilderTest {
+
+    /**
+     * Titles which are split by the query parser only on whitespace, so that the queries must be equal.
+     */
+    static final String[] PLAIN_TITLES = {"canon", "Which is better, canon or nikon?",
+            "Should I buy a laptop or a desktop for travel?", "Python or Java: which is faster?",
+            "the or a", "cheap coffee vs. tea", "Is a cat (or a dog) better?", "battery + screen = price*quality"};
+
+    /**
+     * Titles with words the analyzer splits, so that the queries have a different structure but the same scores.
+     */
+    static final String[] SPLIT_TITLES = {"laptop-desktop battery", "canon/nikon price", "tea&coffee",
+            "python3.9 or java-11", "fast_slow screen"};
+
+    /**
+     * Returns the analyzer of the queries: standard tokenization, lower casing and a stop list.
+     *
+     * @return the analyzer.
+     */
+    static Analyzer analyzer() {
+        return new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    }
+
+    /**
+     * Returns the fields searched by {@link Searcher}, with different weights so that the boosts are checked.
+     *
+     * @return the fields and their weights.
+     */
+    static Map<String, Float> weights() {
+        final Map<String, Float> weights = new LinkedHashMap<>();
+        weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
+        weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, 2.0F);
+        return weights;
+    }
+
+    /**
+     * Returns the parser the queries were built with before {@link AnalyzedQueryBuilder}.
+     *
+     * @param analyzer the analyzer.
+     * @param weights  the fields and their weights.
+     * @return the parser.
+     */
+    static QueryParser parser(final Analyzer analyzer, final Map<String, Float> weights) {
+        if (weights.size() == 1) {
+            return new QueryParser(weights.keySet().iterator().next(), analyzer);
+        }
+        return new MultiFieldQueryParser(weights.keySet().toArray(new String[0]), analyzer, weights);
+    }
+
+    /**
+     * Returns random titles made of the words of the documents of {@link SearcherTest}, with punctuation and stop
+     * words.
+     *
+     * @param count the number of titles.
+     * @return the titles.
+     */
+    static List<String> randomTitles(final int count) {
+        final Random random = new Random(11);
+        final String[] fillers = {"the", "a", "or", "is", "which", "better", "?", ",", "vs."};
+
+        final List<String> titles = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            final StringBuilder title = new StringBuilder();
+            for (int w = 0, words = 1 + random.nextInt(8); w < words; w++) {
+                title.append(w == 0 ? "" : " ").append(random.nextBoolean()
+                        ? SearcherTest.WORDS[random.nextInt(SearcherTest.WORDS.length)]
+                        : fillers[random.nextInt(fillers.length)]);
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+
+    @Test
+    void buildsTheSameQueriesAsTheQueryParser() throws ParseException {
+        final Analyzer analyzer = analyzer();
+
+        final List<String> titles = new ArrayList<>(List.of(PLAIN_TITLES));
+        titles.addAll(randomTitles(200));
+
+        for (final Map<String, Float> weights : List.of(weights(), Map.of(ParsedDocument.FIELDS.CONTENTS, 1.0F))) {
+            final QueryParser parser = parser(analyzer, weights);
+            final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(analyzer, weights);
+
+            for (final String title : titles) {
+                assertEquals(parser.parse(QueryParserBase.escape(title)), builder.text(title), title);
+            }
+        }
+    }
+
+    @Test
+    void buildsTheSameFiltersAsTheQueryParser() throws ParseException {
+        final Analyzer analyzer = analyzer();
+        final Map<String, Float> weights = weights();
+        final QueryParser parser = parser(analyzer, weights);
+        final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(analyzer, weights);
+
+        for (final String objects : new String[]{"canon, nikon", "laptop, desktop", "python, java", "tea, coffee"}) {
+            assertEquals(Filter.filterAnd(objects, parser).build(), Filter.filterAnd(objects, builder).build(),
+                    objects);
+        }
+    }
+
+    @Test
+    void findsTheSameDocumentsWithTheSameScores(@TempDir final Path dir) throws IOException, ParseException {
+        SearcherTest.index(dir, 2000);
+
+        final Analyzer analyzer = analyzer();
+        final Map<String, Float> weights = weights();
+        final QueryParser parser = parser(analyzer, weights);
+        final AnalyzedQueryBuilder builder = new AnalyzedQueryBuilder(analyzer, weights);
+
+        final List<String> titles = new ArrayList<>(List.of(PLAIN_TITLES));
+        titles.addAll(List.of(SPLIT_TITLES));
+        titles.addAll(randomTitles(100));
+
+        try (Directory directory = FSDirectory.open(dir); IndexReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25Similarity());
+
+            for (final String title : titles) {
+                for (final boolean filter : new boolean[]{false, true}) {
+                    final Query parsed = query(Filter.filterAnd("laptop, canon", parser), filter,
+                            parser.parse(QueryParserBase.escape(title)));
+                    final Query built = query(Filter.filterAnd("laptop, canon", builder), filter,
+                            builder.text(title));
+
+                    final ScoreDoc[] expected = searcher.search(parsed, 100).scoreDocs;
+                    final ScoreDoc[] actual = searcher.search(built, 100).scoreDocs;
+
+                    assertArrayEquals(docs(expected), docs(actual), title);
+                    for (int i = 0; i < expected.length; i++) {
+                        assertEquals(expected[i].score, actual[i].score, 1e-5F, title);
+                    }
+                }
+            }
+
+            // the titles whose words are split must still match something, or the scores would not be compared
+            for (final String title : SPLIT_TITLES) {
+                assertTrue(searcher.search(builder.text(title), 1).totalHits.value > 0, title);
+            }
+        }
+    }
+
+    /**
+     * Builds the query of a title the same way as {@link Searcher}.
+     *
+     * @param filterQuery the filter on the objects.
+     * @param filter      whether to use the filter or not.
+     * @param title       the query of the title.
+     * @return the query.
+     */
+    static Query query(final BooleanQuery.Builder filterQuery, final boolean filter, final Query title) {
+        final BooleanQuery.Builder query = filter ? filterQuery : new BooleanQuery.Builder();
+        query.add(title, BooleanClause.Occur.SHOULD);
+        return query.build();
+    }
+
+    /**
+     * Returns the document numbers of the hits.
+     *
+     * @param hits the hits.
+     * @return the document numbers.
+     */
+    static int[] docs(final ScoreDoc[] hits) {
+        final int[] docs = new int[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            docs[i] = hits[i].doc;
+        }
+        return docs;
+    }
+}
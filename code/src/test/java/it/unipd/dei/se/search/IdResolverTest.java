@@ -0,0 +1,120 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link IdResolver} returns the same identifiers as the stored-field lookup it replaces.
+ */
+class IdResolverTest {
+
+    /**
+     * Indexes documents in several segments, so that the hits span many leaves.
+     *
+     * @param directory     the directory where to write the index.
+     * @param segments      the number of segments.
+     * @param docs          the number of documents per segment.
+     * @param docValuesUpTo the number of segments, from the first, whose identifiers also have doc values; the others
+     *                      are built as before the identifier had doc values.
+     * @throws IOException if the index cannot be written.
+     */
+    static void index(final Directory directory, final int segments, final int docs, final int docValuesUpTo)
+            throws IOException {
+        final IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+        iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            for (int s = 0; s < segments; s++) {
+                for (int d = 0; d < docs; d++) {
+                    final String id = String.format("doc-%d-%d", s, d);
+
+                    final Document doc = new Document();
+                    doc.add(new StringField(ParsedDocument.FIELDS.ID, id, Field.Store.YES));
+                    if (s < docValuesUpTo) {
+                        doc.add(new SortedDocValuesField(ParsedDocument.FIELDS.ID, new BytesRef(id)));
+                    }
+                    writer.addDocument(doc);
+                }
+                // one segment per flush
+                writer.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns hits on random documents, in no particular order and possibly repeated.
+     *
+     * @param random the source of randomness.
+     * @param maxDoc the number of documents of the index.
+     * @param count  the number of hits.
+     * @return the hits.
+     */
+    static ScoreDoc[] randomHits(final Random random, final int maxDoc, final int count) {
+        final ScoreDoc[] hits = new ScoreDoc[count];
+        for (int i = 0; i < count; i++) {
+            hits[i] = new ScoreDoc(random.nextInt(maxDoc), random.nextFloat());
+        }
+        return hits;
+    }
+
+    @Test
+    void resolvesTheSameIdsAsTheStoredFields() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory, 5, 200, 5);
+
+            try (IndexReader reader = DirectoryReader.open(directory)) {
+                assertEquals(5, reader.leaves().size());
+
+                final Random random = new Random(42);
+                for (int run = 0; run < 20; run++) {
+                    final ScoreDoc[] hits = randomHits(random, reader.maxDoc(), 300);
+                    assertArrayEquals(IdResolver.resolveStored(reader, hits), IdResolver.resolve(reader, hits));
+                }
+            }
+        }
+    }
+
+    @Test
+    void fallsBackToTheStoredFieldInLeavesWithoutDocValues() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory, 4, 100, 2);
+
+            try (IndexReader reader = DirectoryReader.open(directory)) {
+                final Random random = new Random(7);
+                final ScoreDoc[] hits = randomHits(random, reader.maxDoc(), 250);
+                assertArrayEquals(IdResolver.resolveStored(reader, hits), IdResolver.resolve(reader, hits));
+            }
+        }
+    }
+
+    @Test
+    void resolvesNoHits() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory, 2, 10, 2);
+
+            try (IndexReader reader = DirectoryReader.open(directory)) {
+                assertEquals(0, IdResolver.resolve(reader, new ScoreDoc[0]).length);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package it.unipd.dei.se.search;
+
+import it.unipd.dei.se.parse.document.ParsedDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that searching the topics on several threads writes the same run file as searching them one after the other.
+ */
+class SearcherTest {
+
+    /**
+     * The words of the documents and of the topics.
+     */
+    static final String[] WORDS = {"laptop", "desktop", "canon", "nikon", "python", "java", "tea", "coffee", "cat",
+            "dog", "better", "worse", "cheap", "fast", "slow", "battery", "screen", "price", "quality", "travel"};
+
+    /**
+     * The number of topics.
+     */
+    static final int TOPICS = 20;
+
+    /**
+     * The identifier of the runs.
+     */
+    static final String RUN_ID = "test";
+
+    /**
+     * Returns a random text of the given number of words.
+     *
+     * @param random the source of randomness.
+     * @param words  the number of words.
+     * @return the text.
+     */
+    static String randomText(final Random random, final int words) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Indexes random documents with the fields searched by {@link Searcher}.
+     *
+     * @param indexDir the directory where to write the index.
+     * @param docs     the number of documents.
+     * @throws IOException if the index cannot be written.
+     */
+    static void index(final Path indexDir, final int docs) throws IOException {
+        final Random random = new Random(42);
+
+        try (Directory directory = FSDirectory.open(indexDir);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int d = 0; d < docs; d++) {
+                final String id = String.format("doc-%d", d);
+
+                final Document doc = new Document();
+                doc.add(new StringField(ParsedDocument.FIELDS.ID, id, Field.Store.YES));
+                doc.add(new SortedDocValuesField(ParsedDocument.FIELDS.ID, new BytesRef(id)));
+                doc.add(new TextField(ParsedDocument.FIELDS.CONTENTS, randomText(random, 5 + random.nextInt(40)),
+                        Field.Store.NO));
+                doc.add(new TextField(ParsedDocument.FIELDS.DOC_T5_QUERY, randomText(random, 3 + random.nextInt(5)),
+                        Field.Store.NO));
+                writer.addDocument(doc);
+
+                // a few segments, so that the hits span several leaves
+                if (d % 700 == 699) {
+                    writer.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a topics file whose titles and objects are made of the words of the documents.
+     *
+     * @param topicsFile the file where to write the topics.
+     * @throws IOException if the file cannot be written.
+     */
+    static void topics(final Path topicsFile) throws IOException {
+        final Random random = new Random(7);
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(topicsFile, StandardCharsets.UTF_8))) {
+            out.println("<topics>");
+            for (int t = 1; t <= TOPICS; t++) {
+                final String first = WORDS[random.nextInt(WORDS.length)];
+                final String second = WORDS[random.nextInt(WORDS.length)];
+
+                out.println("    <topic>");
+                out.printf("        <number>%d</number>%n", t);
+                out.printf("        <title>Which is better, %s or %s?</title>%n", first, second);
+                out.printf("        <objects>%s, %s</objects>%n", first, second);
+                out.println("        <description>A description.</description>");
+                out.println("        <narrative>A narrative.</narrative>");
+                out.println("    </topic>");
+            }
+            out.println("</topics>");
+        }
+    }
+
+    /**
+     * Searches the topics and returns the content of the run file.
+     *
+     * @param dir     the directory with the index and the topics.
+     * @param filter  whether to use the filter or not.
+     * @param threads the number of topics searched at the same time.
+     * @return the content of the run file.
+     * @throws Exception if the topics cannot be searched.
+     */
+    static byte[] search(final Path dir, final boolean filter, final int threads) throws Exception {
+        return search(dir, String.format("run-%b-%d", filter, threads), filter,
+                new SearchOptions.Builder().threads(threads).build());
+    }
+
+    /**
+     * Searches the topics with the given options and returns the content of the run file.
+     *
+     * @param dir     the directory with the index and the topics.
+     * @param name    the name of the directory of the run.
+     * @param filter  whether to use the filter or not.
+     * @param options the search options.
+     * @return the content of the run file.
+     * @throws Exception if the topics cannot be searched.
+     */
+    static byte[] search(final Path dir, final String name, final boolean filter, final SearchOptions options)
+            throws Exception {
+        final Path runDir = Files.createDirectories(dir.resolve(name));
+
+        final Map<String, Float> weights = new HashMap<>();
+        weights.put(ParsedDocument.FIELDS.CONTENTS, 1.0F);
+        weights.put(ParsedDocument.FIELDS.DOC_T5_QUERY, 1.0F);
+
+        final Analyzer analyzer = new StandardAnalyzer();
+        final Searcher searcher = new Searcher(analyzer, new BM25Similarity(), dir.resolve("index").toString(),
+                dir.resolve("topics.xml").toString(), TOPICS, RUN_ID, runDir.toString(), 100, weights, options);
+        searcher.search(filter);
+
+        return Files.readAllBytes(runDir.resolve(RUN_ID + ".txt"));
+    }
+
+    @Test
+    void writesTheSameRunWhateverTheNumberOfThreads(@TempDir final Path dir) throws Exception {
+        index(dir.resolve("index"), 3000);
+        topics(dir.resolve("topics.xml"));
+
+        for (final boolean filter : new boolean[]{false, true}) {
+            final byte[] sequential = search(dir, filter, 1);
+            assertTrue(sequential.length > 0);
+
+            for (final int threads : new int[]{2, 4, 8}) {
+                assertArrayEquals(sequential, search(dir, filter, threads));
+            }
+        }
+    }
+
+    @Test
+    void writesTheSameRunWhateverTheTotalHitsThreshold(@TempDir final Path dir) throws Exception {
+        index(dir.resolve("index"), 3000);
+        topics(dir.resolve("topics.xml"));
+
+        for (final boolean filter : new boolean[]{false, true}) {
+            final byte[] standard = search(dir, "run-default-" + filter, filter, SearchOptions.DEFAULT);
+
+            for (final int threshold : new int[]{TopKCollectorManager.TOP_K, TopKCollectorManager.EXHAUSTIVE}) {
+                assertArrayEquals(standard, search(dir, "run-" + threshold + "-" + filter, filter,
+                        new SearchOptions.Builder().totalHitsThreshold(threshold).build()));
+            }
+        }
+    }
+
+    @Test
+    void writesTheSameRunFromTheQueryCache(@TempDir final Path dir) throws Exception {
+        index(dir.resolve("index"), 1000);
+        topics(dir.resolve("topics.xml"));
+
+        final Path cacheDir = dir.resolve("cache");
+        final SearchOptions cached = new SearchOptions.Builder().cacheDir(cacheDir).build();
+
+        final byte[] uncached = search(dir, "run-uncached", false, SearchOptions.DEFAULT);
+        final byte[] first = search(dir, "run-first", false, cached);
+        assertArrayEquals(uncached, first);
+
+        final List<Path> entries;
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            entries = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertEquals(TOPICS, entries.size());
+
+        // served from the cache: the entries are the same files, not written again
+        final FileTime before = Files.getLastModifiedTime(entries.get(0));
+        assertArrayEquals(uncached, search(dir, "run-second", false, cached));
+        assertEquals(before, Files.getLastModifiedTime(entries.get(0)));
+    }
+
+    @Test
+    void writesTheSameRunWhenProfiling(@TempDir final Path dir) throws Exception {
+        index(dir.resolve("index"), 1000);
+        topics(dir.resolve("topics.xml"));
+
+        for (final int threads : new int[]{1, 4}) {
+            final SearchOptions profiling = new SearchOptions.Builder().threads(threads).profiling(true).build();
+
+            assertArrayEquals(search(dir, "run-plain-" + threads, true, SearchOptions.DEFAULT),
+                    search(dir, "run-profiled-" + threads, true, profiling));
+
+            // a header, a row per topic and the percentile rows
+            final List<String> profile = Files.readAllLines(
+                    dir.resolve("run-profiled-" + threads).resolve(RUN_ID + "_profile.csv"));
+            assertTrue(profile.size() > TOPICS + 1);
+            assertTrue(profile.get(1).startsWith("1,"));
+        }
+    }
+}